@@ -5,12 +5,15 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 import java.util.logging.FileHandler;
 import java.util.logging.Formatter;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
+import no.bcdc.cdigenerator.generators.CDIDB;
 import no.bcdc.cdigenerator.generators.CommandLineGenerator;
+import no.bcdc.cdigenerator.generators.DatabaseException;
 
 public class CDIGenerator {
 
@@ -21,9 +24,28 @@ public class CDIGenerator {
 	
 	private static final Logger LOGGER = Logger.getLogger("CDIGenerator");
 	
+	/**
+	 * Command line option to only harvest metadata
+	 */
+	private static final String HARVEST_OPTION = "-harvest";
+	
+	/**
+	 * Command line option to start an incremental MIKADO export
+	 */
+	private static final String START_EXPORT_OPTION = "-startExport";
+	
+	/**
+	 * Command line option to finish an incremental MIKADO export
+	 */
+	private static final String FINISH_EXPORT_OPTION = "-finishExport";
+	
 	/**
 	 * Start method
-	 * @param args The command line arguments. One argument required: the name of the configuration file
+	 * @param args The command line arguments. One argument required: the name of the configuration file.
+	 *             If {@code -harvest} is given, the metadata for the chosen data sets is harvested
+	 *             for later runs without generating any CDI entries.
+	 *             {@code -startExport} and {@code -finishExport} mark the start and end of
+	 *             an incremental MIKADO export.
 	 */
 	public static void main(String[] args) {
 
@@ -33,16 +55,23 @@ public class CDIGenerator {
 		try {
 			
 			String configFile = null;
+			boolean harvestOnly = false;
+			String exportOption = null;
 			
 			// Check the command line arguments
 			for (String arg : args) {
-				if (!arg.startsWith("-D")) {
+				if (arg.equals(HARVEST_OPTION)) {
+					harvestOnly = true;
+				} else if (arg.equals(START_EXPORT_OPTION) || arg.equals(FINISH_EXPORT_OPTION)) {
+					exportOption = arg;
+				} else if (!arg.startsWith("-D")) {
 					configFile = arg;
 				}
 			}
 			
 			if (null == configFile) {
-				System.out.println("Usage: java -jar CDIGenerator.jar [JVM options] config file");
+				System.out.println("Usage: java -jar CDIGenerator.jar [JVM options] [" + HARVEST_OPTION + " | "
+						+ START_EXPORT_OPTION + " | " + FINISH_EXPORT_OPTION + "] config file");
 				System.exit(0);
 			}
 			
@@ -58,9 +87,14 @@ public class CDIGenerator {
 			}
 		
 
-			// Initialise the command-line mode generator
-			CommandLineGenerator generator = new CommandLineGenerator(configuration);
-			generator.start();
+			if (null != exportOption) {
+				markExport(exportOption.equals(START_EXPORT_OPTION));
+			} else {
+				// Initialise the command-line mode generator
+				CommandLineGenerator generator = new CommandLineGenerator(configuration);
+				generator.setHarvestOnly(harvestOnly);
+				generator.start();
+			}
 		} catch (Exception e) {
 			System.out.println("A terrible thing has occurred, and it shouldn't have done.");
 			System.out.println("Please copy and paste the stuff below, and send it to someone");
@@ -71,6 +105,35 @@ public class CDIGenerator {
 
 	}
 	
+	/**
+	 * Mark the start or end of an incremental MIKADO export
+	 * @param start {@code true} to start an export; {@code false} to finish it
+	 * @throws ConfigException If the database cannot be reached
+	 * @throws DatabaseException If the export cannot be marked
+	 */
+	private static void markExport(boolean start) throws ConfigException, DatabaseException {
+		CDIDB cdiDb = new CDIDB(configuration);
+		
+		try {
+			if (start) {
+				List<String> removed = cdiDb.startIncrementalExport();
+				System.out.println("Incremental export started. Run MIKADO with mikado_incremental.xml, then run with " + FINISH_EXPORT_OPTION);
+				
+				if (removed.size() > 0) {
+					System.out.println("The following CDIs have been removed since the last export, and must be withdrawn by hand:");
+					for (String localCdiId : removed) {
+						System.out.println(localCdiId);
+					}
+				}
+			} else {
+				long version = cdiDb.finishIncrementalExport();
+				System.out.println("Changes up to version " + version + " have been exported");
+			}
+		} finally {
+			cdiDb.close();
+		}
+	}
+	
 	/**
 	 * Loads and checks the configuration
 	 * @param configFile The name of the configuration file
@@ -12,6 +12,7 @@ import java.util.List;
 import java.util.Properties;
 import java.util.TreeMap;
 
+import no.bcdc.cdigenerator.generators.SqlDialect;
 import no.bcdc.cdigenerator.importers.Importer;
 
 /**
@@ -63,6 +64,16 @@ public class Config extends Properties {
 	 */
 	private static final String RETRY_WAIT_TIME_PROPERTY = "network.retryWaitTime";
 	
+	/**
+	 * The key for the longest wait between network retries
+	 */
+	private static final String RETRY_MAX_WAIT_TIME_PROPERTY = "network.retryMaxWaitTime";
+	
+	/**
+	 * The key for the longest time a network operation can take including retries
+	 */
+	private static final String RETRY_MAX_ELAPSED_TIME_PROPERTY = "network.retryMaxElapsedTime";
+	
 	/**
 	 * The key for the database server
 	 */
@@ -93,6 +104,216 @@ public class Config extends Properties {
 	 */
 	private static final String CSR_URL_PROPERTY = "url.csrs";
 	
+	/**
+	 * The key for the number of data sets to prefetch ahead of the one being processed
+	 */
+	private static final String PREFETCH_DEPTH_PROPERTY = "prefetch.depth";
+	
+	/**
+	 * The key for the maximum size of prefetched data held in the temp directory, in megabytes
+	 */
+	private static final String PREFETCH_BUDGET_PROPERTY = "prefetch.budget";
+	
+	/**
+	 * The key for the time after which a PANGAEA web service session is renewed, in seconds
+	 */
+	private static final String PANGAEA_SESSION_LIFETIME_PROPERTY = "pangaea.sessionLifetime";
+	
+	/**
+	 * The key for the time to wait before retrying a newly registered PANGAEA session, in milliseconds
+	 */
+	private static final String PANGAEA_SESSION_READY_WAIT_PROPERTY = "pangaea.sessionReadyWait";
+	
+	/**
+	 * The key for the maximum request rate for the PANGAEA web service
+	 */
+	private static final String PANGAEA_WS_RATE_PROPERTY = "pangaea.ws.requestsPerSecond";
+	
+	/**
+	 * The key for the maximum number of simultaneous requests to the PANGAEA web service
+	 */
+	private static final String PANGAEA_WS_CONCURRENT_PROPERTY = "pangaea.ws.maxConcurrent";
+	
+	/**
+	 * The key for the maximum request rate for the PANGAEA data server
+	 */
+	private static final String PANGAEA_DATA_RATE_PROPERTY = "pangaea.doi.requestsPerSecond";
+	
+	/**
+	 * The key for the maximum number of simultaneous requests to the PANGAEA data server
+	 */
+	private static final String PANGAEA_DATA_CONCURRENT_PROPERTY = "pangaea.doi.maxConcurrent";
+	
+	/**
+	 * The key for the number of consecutive failures after which requests to a server are paused
+	 */
+	private static final String CIRCUIT_BREAKER_THRESHOLD_PROPERTY = "network.circuitBreakerThreshold";
+	
+	/**
+	 * The key for the time that requests to a failing server are paused, in seconds
+	 */
+	private static final String CIRCUIT_BREAKER_COOLDOWN_PROPERTY = "network.circuitBreakerCooldown";
+	
+	/**
+	 * The key for the PANGAEA web service end point
+	 */
+	private static final String PANGAEA_WS_END_POINT_PROPERTY = "pangaea.wsEndPoint";
+	
+	/**
+	 * The key for the base URL for PANGAEA data files
+	 */
+	private static final String PANGAEA_DATA_URL_PROPERTY = "pangaea.dataUrl";
+	
+	/**
+	 * The key for the time that cached downloads are used without checking them, in seconds
+	 */
+	private static final String CACHE_TTL_PROPERTY = "cache.ttl";
+	
+	/**
+	 * The key for the maximum size of the download cache, in megabytes
+	 */
+	private static final String CACHE_MAX_SIZE_PROPERTY = "cache.maxSize";
+	
+	/**
+	 * The key for the age at which stored metadata is fetched again, in days
+	 */
+	private static final String METADATA_STORE_MAX_AGE_PROPERTY = "metadataStore.maxAge";
+	
+	/**
+	 * The key for the number of CDI summaries written to the database in each batch
+	 */
+	private static final String DB_BATCH_SIZE_PROPERTY = "db.batchSize";
+	
+	/**
+	 * The key for the longest time that CDI summaries wait to be written to the database, in seconds
+	 */
+	private static final String DB_FLUSH_INTERVAL_PROPERTY = "db.flushInterval";
+	
+	/**
+	 * The key for the type of database
+	 */
+	private static final String DB_DIALECT_PROPERTY = "db.dialect";
+	
+	/**
+	 * The key for the number of database connections that can be open at once
+	 */
+	private static final String DB_POOL_SIZE_PROPERTY = "db.poolSize";
+	
+	/**
+	 * The key for the time after which an idle database connection is replaced, in seconds
+	 */
+	private static final String DB_MAX_IDLE_TIME_PROPERTY = "db.maxIdleTime";
+	
+	/**
+	 * The key for the number of CDI summaries that can wait for the summary writer
+	 */
+	private static final String DB_WRITE_QUEUE_SIZE_PROPERTY = "db.writeQueueSize";
+	
+	/**
+	 * The default prefetch depth
+	 */
+	private static final int DEFAULT_PREFETCH_DEPTH = 2;
+	
+	/**
+	 * The default prefetch budget, in megabytes
+	 */
+	private static final int DEFAULT_PREFETCH_BUDGET = 200;
+	
+	/**
+	 * The default PANGAEA session lifetime, in seconds
+	 */
+	private static final int DEFAULT_PANGAEA_SESSION_LIFETIME = 600;
+	
+	/**
+	 * The default wait before retrying a new PANGAEA session, in milliseconds
+	 */
+	private static final int DEFAULT_PANGAEA_SESSION_READY_WAIT = 250;
+	
+	/**
+	 * The default longest wait between network retries, in seconds
+	 */
+	private static final int DEFAULT_RETRY_MAX_WAIT_TIME = 60;
+	
+	/**
+	 * The default longest time for a network operation including retries, in seconds
+	 */
+	private static final int DEFAULT_RETRY_MAX_ELAPSED_TIME = 900;
+	
+	/**
+	 * The default maximum request rate for PANGAEA servers, in requests per second
+	 */
+	private static final int DEFAULT_PANGAEA_REQUEST_RATE = 5;
+	
+	/**
+	 * The default maximum number of simultaneous requests to PANGAEA servers
+	 */
+	private static final int DEFAULT_PANGAEA_MAX_CONCURRENT = 4;
+	
+	/**
+	 * The default number of consecutive failures after which requests to a server are paused
+	 */
+	private static final int DEFAULT_CIRCUIT_BREAKER_THRESHOLD = 5;
+	
+	/**
+	 * The default time that requests to a failing server are paused, in seconds
+	 */
+	private static final int DEFAULT_CIRCUIT_BREAKER_COOLDOWN = 60;
+	
+	/**
+	 * The default PANGAEA web service end point
+	 */
+	private static final String DEFAULT_PANGAEA_WS_END_POINT = "https://ws.pangaea.de/ws/services/PangaVista";
+	
+	/**
+	 * The default base URL for PANGAEA data files
+	 */
+	private static final String DEFAULT_PANGAEA_DATA_URL = "https://doi.pangaea.de/10.1594/PANGAEA.";
+	
+	/**
+	 * The default time that cached downloads are used without checking them, in seconds
+	 */
+	private static final int DEFAULT_CACHE_TTL = 86400;
+	
+	/**
+	 * The default maximum size of the download cache, in megabytes
+	 */
+	private static final int DEFAULT_CACHE_MAX_SIZE = 1024;
+	
+	/**
+	 * The default age at which stored metadata is fetched again, in days
+	 */
+	private static final int DEFAULT_METADATA_STORE_MAX_AGE = 30;
+	
+	/**
+	 * The default number of CDI summaries written to the database in each batch
+	 */
+	private static final int DEFAULT_DB_BATCH_SIZE = 50;
+	
+	/**
+	 * The default longest time that CDI summaries wait to be written to the database, in seconds
+	 */
+	private static final int DEFAULT_DB_FLUSH_INTERVAL = 10;
+	
+	/**
+	 * The default type of database
+	 */
+	private static final String DEFAULT_DB_DIALECT = "mysql";
+	
+	/**
+	 * The default number of database connections that can be open at once
+	 */
+	private static final int DEFAULT_DB_POOL_SIZE = 4;
+	
+	/**
+	 * The default time after which an idle database connection is replaced, in seconds
+	 */
+	private static final int DEFAULT_DB_MAX_IDLE_TIME = 3600;
+	
+	/**
+	 * The default number of CDI summaries that can wait for the summary writer
+	 */
+	private static final int DEFAULT_DB_WRITE_QUEUE_SIZE = 500;
+	
 	/**
 	 * Lookup table of importers
 	 */
@@ -128,6 +349,16 @@ public class Config extends Properties {
 	 */
 	private int retryWaitTime;
 	
+	/**
+	 * The longest wait between network retries, in seconds
+	 */
+	private int retryMaxWaitTime;
+	
+	/**
+	 * The longest time a network operation can take including retries, in seconds
+	 */
+	private int retryMaxElapsedTime;
+	
 	/**
 	 * The database server
 	 */
@@ -158,6 +389,111 @@ public class Config extends Properties {
 	 */
 	private URL csrDownloadUrl;
 	
+	/**
+	 * The number of data sets to prefetch
+	 */
+	private int prefetchDepth;
+	
+	/**
+	 * The maximum size of prefetched data, in megabytes
+	 */
+	private int prefetchBudget;
+	
+	/**
+	 * The time after which a PANGAEA session is renewed, in seconds
+	 */
+	private int pangaeaSessionLifetime;
+	
+	/**
+	 * The wait before retrying a new PANGAEA session, in milliseconds
+	 */
+	private int pangaeaSessionReadyWait;
+	
+	/**
+	 * The maximum request rate for the PANGAEA web service
+	 */
+	private int pangaeaWsRate;
+	
+	/**
+	 * The maximum number of simultaneous requests to the PANGAEA web service
+	 */
+	private int pangaeaWsMaxConcurrent;
+	
+	/**
+	 * The maximum request rate for the PANGAEA data server
+	 */
+	private int pangaeaDataRate;
+	
+	/**
+	 * The maximum number of simultaneous requests to the PANGAEA data server
+	 */
+	private int pangaeaDataMaxConcurrent;
+	
+	/**
+	 * The number of consecutive failures after which requests to a server are paused
+	 */
+	private int circuitBreakerThreshold;
+	
+	/**
+	 * The time that requests to a failing server are paused, in seconds
+	 */
+	private int circuitBreakerCooldown;
+	
+	/**
+	 * The PANGAEA web service end point
+	 */
+	private URL pangaeaWsEndPoint;
+	
+	/**
+	 * The base URL for PANGAEA data files
+	 */
+	private URL pangaeaDataUrl;
+	
+	/**
+	 * The time that cached downloads are used without checking them, in seconds
+	 */
+	private int cacheTimeToLive;
+	
+	/**
+	 * The maximum size of the download cache, in megabytes
+	 */
+	private int cacheMaxSize;
+	
+	/**
+	 * The age at which stored metadata is fetched again, in days
+	 */
+	private int metadataStoreMaxAge;
+	
+	/**
+	 * The number of CDI summaries written to the database in each batch
+	 */
+	private int dbBatchSize;
+	
+	/**
+	 * The longest time that CDI summaries wait to be written to the database, in seconds
+	 */
+	private int dbFlushInterval;
+	
+	/**
+	 * The SQL dialect for the database
+	 */
+	private SqlDialect dbDialect;
+	
+	/**
+	 * The number of database connections that can be open at once
+	 */
+	private int dbPoolSize;
+	
+	/**
+	 * The time after which an idle database connection is replaced, in seconds
+	 */
+	private int dbMaxIdleTime;
+	
+	/**
+	 * The number of CDI summaries that can wait for the summary writer
+	 */
+	private int dbWriteQueueSize;
+	
 	/**
 	 * Initialise and load the configuration
 	 * @param configReader A reader for the config file
@@ -171,17 +507,56 @@ public class Config extends Properties {
 		checkNemoTemplatesDir();
 		checkNemoOutputDir();
 		checkNemoWorkingDir();
-		extractImporters();
 		setupCSRUrl();
 		
 		networkRetries = extractZeroPositiveInteger(NETWORK_RETRIES_PROPERTY);
 		retryWaitTime = extractZeroPositiveInteger(RETRY_WAIT_TIME_PROPERTY);
+		retryMaxWaitTime = extractZeroPositiveInteger(RETRY_MAX_WAIT_TIME_PROPERTY, DEFAULT_RETRY_MAX_WAIT_TIME);
+		retryMaxElapsedTime = extractPositiveInteger(RETRY_MAX_ELAPSED_TIME_PROPERTY, DEFAULT_RETRY_MAX_ELAPSED_TIME);
 		
 		dbServer = getProperty(DB_SERVER_PROPERTY);
 		dbPort = extractPositiveInteger(DB_PORT_PROPERTY);
 		dbName = getProperty(DB_NAME_PROPERTY);
 		dbUser = getProperty(DB_USER_PROPERTY);
 		dbPassword = getProperty(DB_PASSWORD_PROPERTY);
+		
+		prefetchDepth = extractZeroPositiveInteger(PREFETCH_DEPTH_PROPERTY, DEFAULT_PREFETCH_DEPTH);
+		prefetchBudget = extractPositiveInteger(PREFETCH_BUDGET_PROPERTY, DEFAULT_PREFETCH_BUDGET);
+		
+		pangaeaSessionLifetime = extractPositiveInteger(PANGAEA_SESSION_LIFETIME_PROPERTY, DEFAULT_PANGAEA_SESSION_LIFETIME);
+		pangaeaSessionReadyWait = extractZeroPositiveInteger(PANGAEA_SESSION_READY_WAIT_PROPERTY, DEFAULT_PANGAEA_SESSION_READY_WAIT);
+		
+		pangaeaWsRate = extractPositiveInteger(PANGAEA_WS_RATE_PROPERTY, DEFAULT_PANGAEA_REQUEST_RATE);
+		pangaeaWsMaxConcurrent = extractPositiveInteger(PANGAEA_WS_CONCURRENT_PROPERTY, DEFAULT_PANGAEA_MAX_CONCURRENT);
+		pangaeaDataRate = extractPositiveInteger(PANGAEA_DATA_RATE_PROPERTY, DEFAULT_PANGAEA_REQUEST_RATE);
+		pangaeaDataMaxConcurrent = extractPositiveInteger(PANGAEA_DATA_CONCURRENT_PROPERTY, DEFAULT_PANGAEA_MAX_CONCURRENT);
+		circuitBreakerThreshold = extractPositiveInteger(CIRCUIT_BREAKER_THRESHOLD_PROPERTY, DEFAULT_CIRCUIT_BREAKER_THRESHOLD);
+		circuitBreakerCooldown = extractPositiveInteger(CIRCUIT_BREAKER_COOLDOWN_PROPERTY, DEFAULT_CIRCUIT_BREAKER_COOLDOWN);
+		
+		pangaeaWsEndPoint = extractUrl(PANGAEA_WS_END_POINT_PROPERTY, DEFAULT_PANGAEA_WS_END_POINT);
+		pangaeaDataUrl = extractUrl(PANGAEA_DATA_URL_PROPERTY, DEFAULT_PANGAEA_DATA_URL);
+		
+		cacheTimeToLive = extractZeroPositiveInteger(CACHE_TTL_PROPERTY, DEFAULT_CACHE_TTL);
+		cacheMaxSize = extractZeroPositiveInteger(CACHE_MAX_SIZE_PROPERTY, DEFAULT_CACHE_MAX_SIZE);
+		
+		metadataStoreMaxAge = extractZeroPositiveInteger(METADATA_STORE_MAX_AGE_PROPERTY, DEFAULT_METADATA_STORE_MAX_AGE);
+		
+		dbBatchSize = extractPositiveInteger(DB_BATCH_SIZE_PROPERTY, DEFAULT_DB_BATCH_SIZE);
+		dbFlushInterval = extractPositiveInteger(DB_FLUSH_INTERVAL_PROPERTY, DEFAULT_DB_FLUSH_INTERVAL);
+		
+		dbDialect = SqlDialect.getDialect(getProperty(DB_DIALECT_PROPERTY, DEFAULT_DB_DIALECT));
+		if (null == dbDialect) {
+			throw new ConfigException(DB_DIALECT_PROPERTY + " must be one of " + SqlDialect.getDialectNames());
+		}
+		
+		dbPoolSize = extractPositiveInteger(DB_POOL_SIZE_PROPERTY, DEFAULT_DB_POOL_SIZE);
+		dbMaxIdleTime = extractPositiveInteger(DB_MAX_IDLE_TIME_PROPERTY, DEFAULT_DB_MAX_IDLE_TIME);
+		
+		dbWriteQueueSize = extractPositiveInteger(DB_WRITE_QUEUE_SIZE_PROPERTY, DEFAULT_DB_WRITE_QUEUE_SIZE);
+		
+		// The importers read their settings when they are created,
+		// so this must come after everything else has been loaded
+		extractImporters();
 	}
 	
 	/**
@@ -339,6 +714,21 @@ public class Config extends Properties {
 		}
 	}
 	
+	/**
+	 * Extract a URL from a named property, using a default if the property is not set
+	 * @param propertyKey The property
+	 * @param defaultValue The default URL
+	 * @return The URL
+	 * @throws ConfigException If the URL is invalid
+	 */
+	private URL extractUrl(String propertyKey, String defaultValue) throws ConfigException {
+		try {
+			return new URL(getProperty(propertyKey, defaultValue));
+		} catch (MalformedURLException e) {
+			throw new ConfigException(propertyKey + " is not a valid URL", e);
+		}
+	}
+	
 	/**
 	 * Check a directory for existence, directoryness, readability and (if required) writeability
 	 * @throws ConfigException If the directory has none of those things.
@@ -382,6 +772,25 @@ public class Config extends Properties {
 		return result;
 	}
 	
+	/**
+	 * Parse a number from an optional property. The number must be an integer,
+	 * and must be either zero or positive. If the property is not set, the
+	 * default value is returned.
+	 * @param propertyKey The property
+	 * @param defaultValue The value to use if the property is not set
+	 * @return The parsed number
+	 * @throws ConfigException If the number cannot be parsed, or is negative
+	 */
+	private int extractZeroPositiveInteger(String propertyKey, int defaultValue) throws ConfigException {
+		int result = defaultValue;
+		
+		if (null != getProperty(propertyKey)) {
+			result = extractZeroPositiveInteger(propertyKey);
+		}
+		
+		return result;
+	}
+	
 	/**
 	 * Parse a number from a named property. The number must be a positive integer,
 	 * @param propertyKey The property
@@ -408,6 +817,24 @@ public class Config extends Properties {
 		return result;
 	}
 	
+	/**
+	 * Parse a number from an optional property. The number must be a positive integer.
+	 * If the property is not set, the default value is returned.
+	 * @param propertyKey The property
+	 * @param defaultValue The value to use if the property is not set
+	 * @return The parsed number
+	 * @throws ConfigException If the number cannot be parsed, or is not positive
+	 */
+	private int extractPositiveInteger(String propertyKey, int defaultValue) throws ConfigException {
+		int result = defaultValue;
+		
+		if (null != getProperty(propertyKey)) {
+			result = extractPositiveInteger(propertyKey);
+		}
+		
+		return result;
+	}
+	
 	/**
 	 * Get the temporary directory
 	 * @return The temporary directory
@@ -456,6 +883,24 @@ public class Config extends Properties {
 		return retryWaitTime;
 	}
 	
+	/**
+	 * Get the longest time to wait between retries of a network operation.
+	 * The wait doubles after each failure, starting from {@link #getRetryWaitTime()},
+	 * until it reaches this value.
+	 * @return The maximum wait time in seconds
+	 */
+	public int getRetryMaxWaitTime() {
+		return retryMaxWaitTime;
+	}
+	
+	/**
+	 * Get the longest time that a network operation can take, including all its retries
+	 * @return The maximum elapsed time in seconds
+	 */
+	public int getRetryMaxElapsedTime() {
+		return retryMaxElapsedTime;
+	}
+	
 	/**
 	 * Get the database server
 	 * @return The database server
@@ -503,4 +948,187 @@ public class Config extends Properties {
 	public URL getCSRDownloadUrl() {
 		return csrDownloadUrl;
 	}
+	
+	/**
+	 * Get the number of data sets to prefetch ahead of the one being processed.
+	 * Zero means that prefetching is disabled.
+	 * @return The prefetch depth
+	 */
+	public int getPrefetchDepth() {
+		return prefetchDepth;
+	}
+	
+	/**
+	 * Get the maximum number of bytes of prefetched data that can be
+	 * held in the temp directory at any one time. This is approximate,
+	 * because it is checked when each data set is scheduled, before
+	 * its download starts.
+	 * @return The prefetch budget in bytes
+	 */
+	public long getPrefetchBudget() {
+		return prefetchBudget * 1048576L;
+	}
+	
+	/**
+	 * Get the time after which a PANGAEA web service session is renewed
+	 * @return The session lifetime in seconds
+	 */
+	public int getPangaeaSessionLifetime() {
+		return pangaeaSessionLifetime;
+	}
+	
+	/**
+	 * Get the time to wait before retrying a newly registered PANGAEA
+	 * session that the web service says is not valid
+	 * @return The wait time in milliseconds
+	 */
+	public int getPangaeaSessionReadyWait() {
+		return pangaeaSessionReadyWait;
+	}
+	
+	/**
+	 * Get the maximum number of requests per second that can be sent to the PANGAEA web service
+	 * @return The maximum request rate
+	 */
+	public int getPangaeaWsRequestRate() {
+		return pangaeaWsRate;
+	}
+	
+	/**
+	 * Get the maximum number of requests that can be in progress at once on the PANGAEA web service
+	 * @return The maximum number of simultaneous requests
+	 */
+	public int getPangaeaWsMaxConcurrent() {
+		return pangaeaWsMaxConcurrent;
+	}
+	
+	/**
+	 * Get the maximum number of requests per second that can be sent to the PANGAEA data server
+	 * @return The maximum request rate
+	 */
+	public int getPangaeaDataRequestRate() {
+		return pangaeaDataRate;
+	}
+	
+	/**
+	 * Get the maximum number of requests that can be in progress at once on the PANGAEA data server
+	 * @return The maximum number of simultaneous requests
+	 */
+	public int getPangaeaDataMaxConcurrent() {
+		return pangaeaDataMaxConcurrent;
+	}
+	
+	/**
+	 * Get the number of consecutive failed requests to a server
+	 * after which no more requests are sent for a while
+	 * @return The failure threshold
+	 */
+	public int getCircuitBreakerThreshold() {
+		return circuitBreakerThreshold;
+	}
+	
+	/**
+	 * Get the time that requests to a server are paused after repeated failures
+	 * @return The pause time in seconds
+	 */
+	public int getCircuitBreakerCooldown() {
+		return circuitBreakerCooldown;
+	}
+	
+	/**
+	 * Get the end point of the PANGAEA web service
+	 * @return The web service end point
+	 */
+	public URL getPangaeaWsEndPoint() {
+		return pangaeaWsEndPoint;
+	}
+	
+	/**
+	 * Get the base URL for downloading PANGAEA data files.
+	 * The data set ID is appended to this URL.
+	 * @return The base URL
+	 */
+	public URL getPangaeaDataUrl() {
+		return pangaeaDataUrl;
+	}
+	
+	/**
+	 * Get the time for which cached downloads are used without
+	 * checking them against the server
+	 * @return The time to live in seconds
+	 */
+	public int getCacheTimeToLive() {
+		return cacheTimeToLive;
+	}
+	
+	/**
+	 * Get the maximum size of the download cache.
+	 * Zero means that the cache is disabled.
+	 * @return The maximum cache size in bytes
+	 */
+	public long getCacheMaxSize() {
+		return cacheMaxSize * 1048576L;
+	}
+	
+	/**
+	 * Get the age at which harvested metadata in the local
+	 * metadata store is fetched again. Zero means that the
+	 * store is disabled.
+	 * @return The maximum age in milliseconds
+	 */
+	public long getMetadataStoreMaxAge() {
+		return metadataStoreMaxAge * 86400000L;
+	}
+	
+	/**
+	 * Get the number of CDI summaries written to the database in each batch
+	 * @return The batch size
+	 */
+	public int getDBBatchSize() {
+		return dbBatchSize;
+	}
+	
+	/**
+	 * Get the longest time that CDI summaries wait to be written
+	 * to the database before an incomplete batch is written
+	 * @return The flush interval in seconds
+	 */
+	public int getDBFlushInterval() {
+		return dbFlushInterval;
+	}
+	
+	/**
+	 * Get the SQL dialect for the database
+	 * @return The SQL dialect
+	 */
+	public SqlDialect getDBDialect() {
+		return dbDialect;
+	}
+	
+	/**
+	 * Get the number of database connections that can be open at once
+	 * @return The connection pool size
+	 */
+	public int getDBPoolSize() {
+		return dbPoolSize;
+	}
+	
+	/**
+	 * Get the time after which an idle database connection is replaced
+	 * instead of being reused. This should be shorter than the database
+	 * server's own idle timeout.
+	 * @return The maximum idle time in seconds
+	 */
+	public int getDBMaxIdleTime() {
+		return dbMaxIdleTime;
+	}
+	
+	/**
+	 * Get the number of CDI summaries that can wait to be written to
+	 * the database before the generator has to wait for the writer
+	 * @return The queue size
+	 */
+	public int getDBWriteQueueSize() {
+		return dbWriteQueueSize;
+	}
 }
@@ -1,51 +1,299 @@
 package no.bcdc.cdigenerator.generators;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
 
+import no.bcdc.cdigenerator.CDIGenerator;
 import no.bcdc.cdigenerator.Config;
 import no.bcdc.cdigenerator.ConfigException;
-import no.bcdc.cdigenerator.importers.ImporterException;
-import no.bcdc.cdigenerator.importers.InvalidLookupValueException;
 
 /**
- * Database calls for the CDI Database
+ * Database calls for the CDI Database.
+ * 
+ * <p>
+ *   Connections come from a {@link ConnectionPool}, so the methods of this class
+ *   can be called from several threads at once. Only the in-memory state (the
+ *   fingerprints and the table being written to) is locked; database work is
+ *   done on the borrowed connection without holding the lock.
+ * </p>
+ * 
  * @author Steve Jones
  *
  */
 public class CDIDB {
-
+	
 	/**
-	 * Statement to clear the CDI summary table
+	 * The CDI summary table
 	 */
-	private static final String CLEAR_CDI_STATEMENT = "TRUNCATE TABLE cdi_summary";
+	private static final String SUMMARY_TABLE = "cdi_summary";
 	
 	/**
-	 * Query for identifying a platform ID
+	 * The table that the CDI summaries are written to during a rebuild
 	 */
-	private static final String GET_PLATFORM_ID_QUERY = "SELECT id, dataset_id FROM cdi_platforms WHERE platform_code = ? AND start_date <= ?";
+	private static final String STAGING_TABLE = "cdi_summary_staging";
+	
+	/**
+	 * The name given to the old CDI summary table when it is replaced by the staging table
+	 */
+	private static final String OLD_TABLE = "cdi_summary_old";
+	
+	/**
+	 * The export table, which holds everything MIKADO needs for each CDI in a single record
+	 */
+	private static final String EXPORT_TABLE = "cdi_export";
+	
+	/**
+	 * The export table that is built during a rebuild
+	 */
+	private static final String EXPORT_STAGING_TABLE = "cdi_export_staging";
+	
+	/**
+	 * The name given to the old export table when it is replaced by the staging table
+	 */
+	private static final String EXPORT_OLD_TABLE = "cdi_export_old";
+	
+	/**
+	 * Statement to create the export table. The generator owns this table, so it is created for every dialect.
+	 */
+	private static final String CREATE_EXPORT_TABLE_STATEMENT = "CREATE TABLE IF NOT EXISTS " + EXPORT_TABLE + " ("
+			+ "local_cdi_id VARCHAR(80) NOT NULL PRIMARY KEY, "
+			+ "dataset_name VARCHAR(80), "
+			+ "dataset_id VARCHAR(255), "
+			+ "abstract TEXT, "
+			+ "cruise_name VARCHAR(255), "
+			+ "cruise_start_date DATE, "
+			+ "start_date VARCHAR(24), "
+			+ "end_date VARCHAR(24), "
+			+ "west_longitude DOUBLE, "
+			+ "east_longitude DOUBLE, "
+			+ "south_latitude DOUBLE, "
+			+ "north_latitude DOUBLE, "
+			+ "min_depth DOUBLE, "
+			+ "max_depth DOUBLE, "
+			+ "distribution_data_size VARCHAR(20), "
+			+ "doi VARCHAR(255), "
+			+ "doi_url VARCHAR(255), "
+			+ "qc_comment VARCHAR(1000), "
+			+ "cdi_partner VARCHAR(20), "
+			+ "revision_date DATE, "
+			+ "holding_centre VARCHAR(20), "
+			+ "distributor VARCHAR(20), "
+			+ "horizontal_datum VARCHAR(20), "
+			+ "access_restriction VARCHAR(20), "
+			+ "format_name VARCHAR(80), "
+			+ "format_version VARCHAR(20), "
+			+ "qc_name VARCHAR(80), "
+			+ "qc_date DATE, "
+			+ "measuring_area_type VARCHAR(20), "
+			+ "platform_type VARCHAR(20), "
+			+ "originator VARCHAR(20))";
+	
+	/**
+	 * The columns of the export table, with the column of the summary ({@code s}),
+	 * fixed values ({@code f}) or platforms ({@code p} or {@code o}) table that each one comes from
+	 */
+	private static final String[][] EXPORT_COLUMNS = {
+			{"local_cdi_id", "s.local_cdi_id"},
+			{"dataset_name", "s.dataset_name"},
+			{"dataset_id", "s.dataset_id"},
+			{"abstract", "s.abstract"},
+			{"cruise_name", "s.cruise_name"},
+			{"cruise_start_date", "s.cruise_start_date"},
+			{"start_date", "s.start_date"},
+			{"end_date", "s.end_date"},
+			{"west_longitude", "s.west_longitude"},
+			{"east_longitude", "s.east_longitude"},
+			{"south_latitude", "s.south_latitude"},
+			{"north_latitude", "s.north_latitude"},
+			{"min_depth", "s.min_depth"},
+			{"max_depth", "s.max_depth"},
+			{"distribution_data_size", "s.distribution_data_size"},
+			{"doi", "s.doi"},
+			{"doi_url", "s.doi_url"},
+			{"qc_comment", "s.qc_comment"},
+			{"cdi_partner", "f.cdi_partner"},
+			{"revision_date", "f.revision_date"},
+			{"holding_centre", "f.holding_centre"},
+			{"distributor", "f.distributor"},
+			{"horizontal_datum", "f.horizontal_datum"},
+			{"access_restriction", "f.access_restriction"},
+			{"format_name", "f.format_name"},
+			{"format_version", "f.format_version"},
+			{"qc_name", "f.qc_name"},
+			{"qc_date", "f.qc_date"},
+			{"measuring_area_type", "p.measuring_area_type"},
+			{"platform_type", "p.platform_type"},
+			{"originator", "o.originator"}
+	};
+	
+	/**
+	 * The export columns that hold times, which are formatted as ISO 8601 UTC timestamps for MIKADO
+	 */
+	private static final List<String> EXPORT_TIMESTAMP_COLUMNS = Arrays.asList("start_date", "end_date");
+	
+	/**
+	 * The change log, which records each CDI that is added, changed or removed
+	 */
+	private static final String CHANGES_TABLE = "cdi_changes";
+	
+	/**
+	 * Statement to create the change log. Versions are allocated by the database as records are added.
+	 * Summaries are only ever written by one thread at a time, so changes are committed in version order.
+	 */
+	private static final String CREATE_CHANGES_TABLE_STATEMENT = "CREATE TABLE IF NOT EXISTS " + CHANGES_TABLE + " ("
+			+ "version BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY, "
+			+ "local_cdi_id VARCHAR(80) NOT NULL, "
+			+ "change_type CHAR(1) NOT NULL)";
+	
+	/**
+	 * The table holding the range of change log versions covered by incremental exports
+	 */
+	private static final String EXPORT_STATE_TABLE = "cdi_export_state";
+	
+	/**
+	 * Statement to create the export state table
+	 */
+	private static final String CREATE_EXPORT_STATE_TABLE_STATEMENT = "CREATE TABLE IF NOT EXISTS " + EXPORT_STATE_TABLE + " ("
+			+ "id INT NOT NULL PRIMARY KEY, "
+			+ "exported_version BIGINT NOT NULL, "
+			+ "pending_version BIGINT NOT NULL)";
+	
+	/**
+	 * Statement to add the export state record if the table is empty
+	 */
+	private static final String INIT_EXPORT_STATE_STATEMENT = "INSERT INTO " + EXPORT_STATE_TABLE
+			+ " (id, exported_version, pending_version) SELECT 1, 0, 0 FROM " + EXPORT_STATE_TABLE + " HAVING COUNT(*) = 0";
+	
+	/**
+	 * Statement to log every CDI in the export table as added, so that the first incremental export covers all of them
+	 */
+	private static final String SEED_CHANGES_STATEMENT = "INSERT INTO " + CHANGES_TABLE + " (local_cdi_id, change_type)"
+			+ " SELECT local_cdi_id, 'I' FROM " + EXPORT_TABLE + " ORDER BY local_cdi_id";
+	
+	/**
+	 * Change type for a CDI that has been added
+	 */
+	private static final String CHANGE_INSERTED = "I";
+	
+	/**
+	 * Change type for a CDI whose summary has changed
+	 */
+	private static final String CHANGE_UPDATED = "U";
+	
+	/**
+	 * Change type for a CDI that has been removed
+	 */
+	private static final String CHANGE_DELETED = "D";
+	
+	/**
+	 * Statement to mark the start of an incremental export, which covers all the changes logged so far
+	 */
+	private static final String START_EXPORT_STATEMENT = "UPDATE " + EXPORT_STATE_TABLE
+			+ " SET pending_version = (SELECT COALESCE(MAX(version), 0) FROM " + CHANGES_TABLE + ")";
+	
+	/**
+	 * Query for the CDIs removed in the changes covered by the current incremental export
+	 */
+	private static final String GET_REMOVED_CDIS_QUERY = "SELECT DISTINCT c.local_cdi_id FROM " + CHANGES_TABLE + " c"
+			+ " INNER JOIN " + EXPORT_STATE_TABLE + " x ON c.version > x.exported_version AND c.version <= x.pending_version"
+			+ " WHERE c.change_type = '" + CHANGE_DELETED + "'"
+			+ " AND NOT EXISTS (SELECT 1 FROM " + EXPORT_TABLE + " e WHERE e.local_cdi_id = c.local_cdi_id)"
+			+ " ORDER BY c.local_cdi_id";
+	
+	/**
+	 * Statement to mark the current incremental export as finished
+	 */
+	private static final String FINISH_EXPORT_STATEMENT = "UPDATE " + EXPORT_STATE_TABLE + " SET exported_version = pending_version";
+	
+	/**
+	 * Statement to remove the changes that have been exported from the change log
+	 */
+	private static final String PURGE_CHANGES_STATEMENT = "DELETE FROM " + CHANGES_TABLE
+			+ " WHERE version <= (SELECT exported_version FROM " + EXPORT_STATE_TABLE + ")";
+	
+	/**
+	 * Query for the last exported change log version
+	 */
+	private static final String GET_EXPORTED_VERSION_QUERY = "SELECT exported_version FROM " + EXPORT_STATE_TABLE;
+	
+	/**
+	 * The largest number of summaries written by a single statement
+	 */
+	private static final int MAX_ROWS_PER_STATEMENT = 500;
+	
+	/**
+	 * The key column of the CDI summary table
+	 */
+	private static final String SUMMARY_KEY_COLUMN = "local_cdi_id";
+	
+	/**
+	 * The columns of the CDI summary table, in the order their values are stored
+	 */
+	private static final List<String> SUMMARY_COLUMNS = Arrays.asList(
+			"local_cdi_id", "platform_id", "dataset_name", "dataset_id", "doi", "doi_url",
+			"abstract", "cruise_name", "cruise_start_date", "west_longitude", "east_longitude",
+			"south_latitude", "north_latitude", "start_date", "end_date", "min_depth", "max_depth",
+			"distribution_data_size", "documentation_url", "qc_comment",
+			"curves_description", "curves_name", "curves_coordinates", "csr_reference");
+	
+	/**
+	 * Query to see whether the export table has any records
+	 */
+	private static final String GET_EXPORT_RECORD_QUERY = "SELECT local_cdi_id FROM " + EXPORT_TABLE;
 	
-	private static final String DELETE_CDI_STATEMENT = "DELETE FROM cdi_summary WHERE local_cdi_id = ?";
-
 	/**
-	 * Query for inserting a CDI Summary
+	 * Query for the existing CDI summaries
 	 */
-	private static final String STORE_CDI_SUMMARY_STATEMENT = "INSERT INTO cdi_summary ("
-			+ "local_cdi_id, platform_id, dataset_name, dataset_id, doi, doi_url, "
-			+ "abstract, cruise_name, cruise_start_date, west_longitude, east_longitude, "
-			+ "south_latitude, north_latitude, start_date, end_date, min_depth, max_depth, "
-			+ "distribution_data_size, documentation_url, qc_comment, "
-		    + "curves_description, curves_name, curves_coordinates, csr_reference) "
-			+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+	private static final String GET_CDI_SUMMARIES_QUERY = "SELECT " + SqlDialect.columnList(SUMMARY_COLUMNS) + " FROM " + SUMMARY_TABLE;
 	
 	/**
-	 * The database connection
+	 * The database connections
 	 */
-	private Connection dbConnection;
+	private ConnectionPool pool;
+	
+	/**
+	 * The SQL dialect of the database
+	 */
+	private SqlDialect dialect;
+	
+	/**
+	 * The table that CDI summaries are written to. This is the staging table during a rebuild.
+	 */
+	private String targetTable = SUMMARY_TABLE;
+	
+	/**
+	 * The in-memory copy of the platforms table
+	 */
+	private volatile PlatformIndex platformIndex = null;
+	
+	/**
+	 * Fingerprints of the values of the CDI summaries in the database, keyed by Local CDI ID.
+	 * These are loaded when the first batch is written.
+	 */
+	private Map<String, String> fingerprints = null;
+	
+	/**
+	 * Fingerprints of the CDI summaries in the live table while a rebuild is in progress.
+	 * These are compared with the rebuilt summaries to work out which CDIs have changed.
+	 */
+	private Map<String, String> liveFingerprints = null;
+	
+	/**
+	 * The thread that writes the CDI summaries
+	 */
+	private SummaryWriter writer;
 	
 	/**
 	 * Constructor initialises the database connection
@@ -53,24 +301,126 @@ public class CDIDB {
 	 * @throws ConfigException If the database connection cannot be established
 	 */
 	public CDIDB(Config config) throws ConfigException {
+		dialect = config.getDBDialect();
 		initDBConnection(config);
+		
+		writer = new SummaryWriter(this, config.getDBBatchSize(), config.getDBFlushInterval() * 1000L, config.getDBWriteQueueSize());
 	}
 	
 	/**
-	 * Empty the CDI Summary table ready for a new data set to be added
-	 * @throws DatabaseException If an error occurs
+	 * Start rebuilding the CDI Summary table from scratch. Until {@link #finishRebuild()}
+	 * is called, summaries are written to an empty staging table instead of the live table,
+	 * so MIKADO keeps seeing the complete set of old summaries while the new ones are written.
+	 * Summaries queued before this is called are written to the live table.
+	 * @throws DatabaseException If the live summaries cannot be read, or the staging table cannot be created
 	 */
-	public void clearCdiSummary() throws DatabaseException {
+	public void startRebuild() throws DatabaseException {
+		writer.flush();
 		
-		PreparedStatement stmt = null;
+		PooledConnection connection = null;
 		
 		try {
-			stmt = dbConnection.prepareStatement(CLEAR_CDI_STATEMENT);
-			stmt.execute();
+			connection = pool.borrow();
+			
+			Map<String, String> live;
+			synchronized (this) {
+				live = fingerprints;
+			}
+			
+			if (null == live) {
+				live = loadFingerprints(connection);
+			}
+			
+			executeStatements(connection, dialect.getCreateStagingTableStatements(SUMMARY_TABLE, SUMMARY_KEY_COLUMN, STAGING_TABLE));
+			
+			synchronized (this) {
+				targetTable = STAGING_TABLE;
+				liveFingerprints = null == fingerprints ? live : fingerprints;
+				fingerprints = new HashMap<String, String>();
+			}
 		} catch (SQLException e) {
-			throw new DatabaseException("Error while clearing cdi_summary table", e);
+			failed(connection, e);
+			throw new DatabaseException("Error while creating CDI summary staging table", e);
 		} finally {
-			closeStatements(stmt);
+			pool.release(connection);
+		}
+	}
+	
+	/**
+	 * Finish a rebuild started with {@link #startRebuild()}. Any queued summaries
+	 * are written, a new export table is built from the staging table, and then
+	 * both replace the live CDI Summary and export tables. Every summary for the
+	 * rebuild must have been queued before this is called.
+	 * 
+	 * Because the whole export table is rebuilt, this also picks up any changes
+	 * made to the fixed values and platforms tables since the summaries were written.
+	 * 
+	 * The CDIs that the rebuild added, changed or removed are recorded in the change log
+	 * before the tables are swapped. The swap can't be part of the same transaction,
+	 * so if it fails the log may list changes that never reached the live tables.
+	 * Those CDIs are exported again unnecessarily, but no change is ever missed.
+	 * 
+	 * @throws DatabaseException If the tables cannot be swapped. The live tables are left as they were.
+	 */
+	public void finishRebuild() throws DatabaseException {
+		writer.flush();
+		
+		boolean rebuilding;
+		List<String> ids = new ArrayList<String>();
+		List<String> changeTypes = new ArrayList<String>();
+		
+		synchronized (this) {
+			rebuilding = targetTable.equals(STAGING_TABLE);
+			if (rebuilding) {
+				for (Map.Entry<String, String> entry : fingerprints.entrySet()) {
+					String liveFingerprint = liveFingerprints.get(entry.getKey());
+					if (null == liveFingerprint) {
+						ids.add(entry.getKey());
+						changeTypes.add(CHANGE_INSERTED);
+					} else if (!liveFingerprint.equals(entry.getValue())) {
+						ids.add(entry.getKey());
+						changeTypes.add(CHANGE_UPDATED);
+					}
+				}
+				
+				for (String id : liveFingerprints.keySet()) {
+					if (!fingerprints.containsKey(id)) {
+						ids.add(id);
+						changeTypes.add(CHANGE_DELETED);
+					}
+				}
+			}
+		}
+		
+		if (rebuilding) {
+			PooledConnection connection = null;
+			
+			try {
+				connection = pool.borrow();
+				executeStatements(connection, dialect.getCreateStagingTableStatements(EXPORT_TABLE, SUMMARY_KEY_COLUMN, EXPORT_STAGING_TABLE));
+				connection.prepare(getExportStatement(EXPORT_STAGING_TABLE, STAGING_TABLE, 0)).executeUpdate();
+				
+				connection.getConnection().setAutoCommit(false);
+				logChanges(connection, ids, changeTypes);
+				connection.getConnection().commit();
+				connection.reset();
+				
+				executeStatements(connection, dialect.getSwapTableStatements(
+						Arrays.asList(SUMMARY_TABLE, EXPORT_TABLE),
+						Arrays.asList(STAGING_TABLE, EXPORT_STAGING_TABLE),
+						Arrays.asList(OLD_TABLE, EXPORT_OLD_TABLE)));
+				
+				// The fingerprints of the staging table now describe the live table
+				synchronized (this) {
+					targetTable = SUMMARY_TABLE;
+					liveFingerprints = null;
+				}
+			} catch (SQLException e) {
+				failed(connection, e);
+				throw new DatabaseException("Error while replacing CDI summary table", e);
+			} finally {
+				pool.release(connection);
+			}
 		}
 	}
 	
@@ -81,6 +431,9 @@ public class CDIDB {
 	 * Just using the platform code isn't enough, because platforms can change hands over time.
 	 * So we use the start date of the data set to determine who 'owned' the platform at that particular time.
 	 * 
+	 * The platforms table is loaded into memory the first time this is called. Call
+	 * {@link #refreshPlatforms()} to pick up any changes made to the table after that.
+	 * 
 	 * @param platformCode The platform code. E.g. the 4-letter NODC ship code
 	 * @param startDate The start date for the data set.
 	 * @return The platform ID
@@ -88,155 +441,532 @@ public class CDIDB {
 	 * @throws MissingDatabaseDataException If the platform ID cannot be determined for the given data. This means information must be added to the database.
 	 */
 	public long getPlatformId(String platformCode, LocalDate startDate, String datasetId) throws DatabaseException, MissingDatabaseDataException {
+		PlatformIndex index = platformIndex;
+		if (null == index) {
+			index = refreshPlatforms();
+		}
+		
+		return index.getPlatformId(platformCode, startDate, datasetId);
+	}
+	
+	/**
+	 * Load the platforms table into memory, replacing any copy that was loaded before
+	 * @return The platform index
+	 * @throws DatabaseException If the platforms cannot be loaded
+	 */
+	public PlatformIndex refreshPlatforms() throws DatabaseException {
+		PooledConnection connection = null;
+		
+		try {
+			connection = pool.borrow();
+			platformIndex = PlatformIndex.load(connection.getConnection());
+			return platformIndex;
+		} catch (SQLException e) {
+			failed(connection, e);
+			throw new DatabaseException("Error while loading platforms", e);
+		} finally {
+			pool.release(connection);
+		}
+	}
+	
+	/**
+	 * Queue a CDI summary to be stored in the database ready for processing by MIKADO.
+	 * 
+	 * The summary's values are copied into a {@link SummaryRow} and handed to the summary
+	 * writer thread, so the caller can move on to the next data set. This only waits
+	 * for the database if the writer's queue is full. The summary is written with the
+	 * next batch, which happens when the batch is full, when the flush interval has
+	 * passed, or when {@link #flush()} is called. The listener is told whether the
+	 * summary was stored.
+	 * 
+	 * @param summary The CDI Summary object
+	 * @param listener The listener to be told the outcome
+	 * @throws DatabaseException If the summary writer has stopped, or the thread is interrupted while waiting for space in the writer's queue
+	 */
+	public void storeCdiSummary(CDISummary summary, SummaryStoreListener listener) throws DatabaseException {
+		
+		Object[] values = new Object[SUMMARY_COLUMNS.size()];
+		
+		values[0] = summary.getLocalCdiId();
+		values[1] = summary.getPlatformId();
+		values[2] = summary.getDataSetName();
+		values[3] = summary.getDataSetId();
+		values[4] = summary.getDoi();
+		values[5] = summary.getDoiUrl();
+		values[6] = summary.getAbstract();
+		values[7] = summary.getCruiseName();
+		values[8] = java.sql.Date.valueOf(summary.getStartDate());
+		values[9] = summary.getWestLongitude();
+		values[10] = summary.getEastLongitude();
+		values[11] = summary.getSouthLatitude();
+		values[12] = summary.getNorthLatitude();
+		values[13] = javaMstoMySqlMs(summary.getStartDateTime());
+		values[14] = javaMstoMySqlMs(summary.getEndDateTime());
+		values[15] = summary.getMinDepth();
+		values[16] = summary.getMaxDepth();
+		values[17] = summary.getDistributionDataSize();
+		values[18] = summary.getDocumentationUrl();
+		values[19] = summary.getQcComment();
+		values[20] = summary.getCurvesDescription();
+		values[21] = summary.getCurvesName();
+		values[22] = summary.getCurvesCoordinates();
+		values[23] = summary.getCsrReference();
+		
+		try {
+			writer.submit(new QueuedSummary(new SummaryRow(summary.getLocalCdiId(), values), listener));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DatabaseException("Interrupted while queueing CDI Summary", new SQLException(e));
+		}
+	}
+	
+	/**
+	 * Wait until all queued CDI summaries have been written to the database
+	 * and their listeners have been told the outcome
+	 */
+	public void flush() {
+		writer.flush();
+	}
+	
+	/**
+	 * Mark the start of an incremental MIKADO export. The export covers every change
+	 * logged since the last export was finished, up to now. Changes logged while the
+	 * export is running are left for the next one.
+	 * 
+	 * MIKADO can't remove CDIs, so the CDIs that have been removed are returned
+	 * instead. These must be withdrawn by hand.
+	 * 
+	 * @return The Local CDI IDs of the CDIs removed since the last export
+	 * @throws DatabaseException If the export cannot be started
+	 */
+	public List<String> startIncrementalExport() throws DatabaseException {
+		writer.flush();
 		
-		long id = -1;
+		List<String> removed = new ArrayList<String>();
 		
-		PreparedStatement stmt = null;
+		PooledConnection connection = null;
 		ResultSet records = null;
 		
 		try {
-			stmt = dbConnection.prepareStatement(GET_PLATFORM_ID_QUERY);
-			stmt.setString(1, platformCode);
-			stmt.setDate(2, java.sql.Date.valueOf(startDate));
+			connection = pool.borrow();
+			connection.prepare(START_EXPORT_STATEMENT).executeUpdate();
 			
-			records = stmt.executeQuery();
-			if (!records.next()) {
-				throw new MissingDatabaseDataException(platformCode, startDate, null);
-			} else {
-				long platformId = records.getLong(1);
-				String dbDatasetId = records.getString(2);
+			records = connection.prepare(GET_REMOVED_CDIS_QUERY).executeQuery();
+			while (records.next()) {
+				removed.add(records.getString(1));
+			}
+		} catch (SQLException e) {
+			failed(connection, e);
+			throw new DatabaseException("Error while starting incremental export", e);
+		} finally {
+			closeResultSets(records);
+			pool.release(connection);
+		}
+		
+		return removed;
+	}
+	
+	/**
+	 * Mark the incremental MIKADO export started with {@link #startIncrementalExport()}
+	 * as finished. The changes it covered are removed from the change log.
+	 * @return The change log version that has now been exported
+	 * @throws DatabaseException If the export cannot be marked as finished
+	 */
+	public long finishIncrementalExport() throws DatabaseException {
+		PooledConnection connection = null;
+		ResultSet records = null;
+		
+		try {
+			connection = pool.borrow();
+			connection.getConnection().setAutoCommit(false);
+			connection.prepare(FINISH_EXPORT_STATEMENT).executeUpdate();
+			connection.prepare(PURGE_CHANGES_STATEMENT).executeUpdate();
+			
+			records = connection.prepare(GET_EXPORTED_VERSION_QUERY).executeQuery();
+			records.next();
+			long version = records.getLong(1);
+			
+			connection.getConnection().commit();
+			return version;
+		} catch (SQLException e) {
+			failed(connection, e);
+			throw new DatabaseException("Error while finishing incremental export", e);
+		} finally {
+			closeResultSets(records);
+			pool.release(connection);
+		}
+	}
+	
+	/**
+	 * Write a batch of CDI summaries to the database. Summaries that are identical
+	 * to the ones already in the database are not written again. The rest are written
+	 * in a single transaction. If that fails, each summary is written in its own
+	 * transaction so that only the summaries that can't be stored are reported
+	 * as failed. This is only called from the summary writer thread.
+	 * @param summaries The summaries
+	 */
+	protected void writeSummaries(List<QueuedSummary> summaries) {
+		
+		if (!summaries.isEmpty()) {
+			List<QueuedSummary> batch = new ArrayList<QueuedSummary>(summaries.size());
+			List<QueuedSummary> unchanged = new ArrayList<QueuedSummary>();
+			
+			String table;
+			Map<String, String> written;
+			synchronized (this) {
+				table = targetTable;
+				written = fingerprints;
+			}
+			
+			PooledConnection connection = null;
+			try {
+				connection = pool.borrow();
+				if (null == written) {
+					Map<String, String> loaded = loadFingerprints(connection);
+					synchronized (this) {
+						if (null == fingerprints) {
+							fingerprints = loaded;
+						}
+						table = targetTable;
+						written = fingerprints;
+					}
+				}
 				
-				if (null == dbDatasetId || dbDatasetId.length() == 0) {
-					id = platformId;
-				} else {
-					while (id == -1 && !records.isAfterLast()) {
-						if (dbDatasetId.equals(datasetId)) {
-							id = platformId;
+				synchronized (this) {
+					for (QueuedSummary queued : summaries) {
+						if (queued.row.getFingerprint().equals(written.get(queued.row.getLocalCdiId()))) {
+							unchanged.add(queued);
 						} else {
-							records.next();
+							batch.add(queued);
 						}
 					}
 				}
+			} catch (SQLException e) {
+				failed(connection, e);
+				
+				// Write everything instead
+				unchanged.clear();
+				batch.clear();
+				batch.addAll(summaries);
+			}
+			
+			for (QueuedSummary queued : unchanged) {
+				queued.stored();
+			}
+			
+			try {
+				if (null == connection) {
+					connection = pool.borrow();
+				}
 				
-				if (id == -1) {
-					throw new MissingDatabaseDataException(platformCode, startDate, datasetId);
+				writeBatch(connection, table, written, batch);
+				for (QueuedSummary queued : batch) {
+					queued.stored();
 				}
+			} catch (SQLException e) {
+				failed(connection, e);
 				
+				for (QueuedSummary queued : batch) {
+					try {
+						if (null == connection || connection.isBroken()) {
+							pool.release(connection);
+							connection = null;
+							connection = pool.borrow();
+						}
+						
+						writeBatch(connection, table, written, Collections.singletonList(queued));
+						queued.stored();
+					} catch (SQLException e2) {
+						failed(connection, e2);
+						queued.failed(new DatabaseException("Error while storing CDI Summary", e2));
+					}
+				}
+			} finally {
+				pool.release(connection);
 			}
+		}
+	}
+	
+	/**
+	 * Write any queued summaries, stop the summary writer and close the database connections
+	 */
+	public void close() {
+		writer.close();
+		pool.close();
+	}
+	
+	/**
+	 * Write a batch of summaries in a single transaction, replacing any existing records.
+	 * The summaries are written with multi-row statements, so the whole batch normally
+	 * takes a single round trip to the database. Their export records are updated
+	 * in the same transaction and recorded in the change log, except during a rebuild,
+	 * when the export table and change log are brought up to date in one go at the end.
+	 * @param connection The database connection
+	 * @param table The table to write to
+	 * @param written The fingerprints of the summaries in the table, or {@code null} if they are not known
+	 * @param batch The summaries
+	 * @throws SQLException If the batch cannot be written. The transaction is rolled back.
+	 */
+	private void writeBatch(PooledConnection connection, String table, Map<String, String> written, List<QueuedSummary> batch) throws SQLException {
+		
+		if (!batch.isEmpty()) {
+			Connection dbConnection = connection.getConnection();
 			
-		} catch (SQLException e) {
-			throw new DatabaseException("Error while retrieving platform ID", e);
+			List<String> changeTypes = new ArrayList<String>(batch.size());
+			synchronized (this) {
+				for (QueuedSummary queued : batch) {
+					if (null != written && !written.containsKey(queued.row.getLocalCdiId())) {
+						changeTypes.add(CHANGE_INSERTED);
+					} else {
+						changeTypes.add(CHANGE_UPDATED);
+					}
+				}
+			}
+			
+			dbConnection.setAutoCommit(false);
+			try {
+				for (int start = 0; start < batch.size(); start += MAX_ROWS_PER_STATEMENT) {
+					List<QueuedSummary> rows = batch.subList(start, Math.min(batch.size(), start + MAX_ROWS_PER_STATEMENT));
+					PreparedStatement upsert = connection.prepare(dialect.getUpsertStatement(table, SUMMARY_KEY_COLUMN, SUMMARY_COLUMNS, rows.size()));
+					
+					int parameter = 1;
+					for (QueuedSummary queued : rows) {
+						for (int i = 0; i < queued.row.size(); i++) {
+							Object value = queued.row.getValue(i);
+							if (null == value) {
+								upsert.setNull(parameter, Types.VARCHAR);
+							} else {
+								upsert.setObject(parameter, value);
+							}
+							parameter++;
+						}
+					}
+					
+					upsert.executeUpdate();
+					
+					if (table.equals(SUMMARY_TABLE)) {
+						PreparedStatement export = connection.prepare(getExportStatement(EXPORT_TABLE, SUMMARY_TABLE, rows.size()));
+						List<String> ids = new ArrayList<String>(rows.size());
+						for (int i = 0; i < rows.size(); i++) {
+							export.setString(i + 1, rows.get(i).row.getLocalCdiId());
+							ids.add(rows.get(i).row.getLocalCdiId());
+						}
+						export.executeUpdate();
+						
+						logChanges(connection, ids, changeTypes.subList(start, start + rows.size()));
+					}
+				}
+				
+				dbConnection.commit();
+				
+				if (null != written) {
+					synchronized (this) {
+						for (QueuedSummary queued : batch) {
+							written.put(queued.row.getLocalCdiId(), queued.row.getFingerprint());
+						}
+					}
+				}
+			} catch (SQLException e) {
+				try {
+					dbConnection.rollback();
+				} catch (SQLException e2) {
+					connection.failed(e2);
+				}
+				throw e;
+			} finally {
+				connection.reset();
+			}
+		}
+	}
+	
+	/**
+	 * Record changes to CDIs in the change log. The changes are given versions in the order
+	 * they are listed. This doesn't commit, so the changes can be part of a larger transaction.
+	 * @param connection The database connection
+	 * @param ids The Local CDI IDs
+	 * @param changeTypes The type of change made to each CDI
+	 * @throws SQLException If the changes cannot be recorded
+	 */
+	private void logChanges(PooledConnection connection, List<String> ids, List<String> changeTypes) throws SQLException {
+		for (int start = 0; start < ids.size(); start += MAX_ROWS_PER_STATEMENT) {
+			int end = Math.min(ids.size(), start + MAX_ROWS_PER_STATEMENT);
+			PreparedStatement insert = connection.prepare("INSERT INTO " + CHANGES_TABLE
+					+ " (local_cdi_id, change_type) VALUES " + SqlDialect.parameterRows(2, end - start));
+			
+			int parameter = 1;
+			for (int i = start; i < end; i++) {
+				insert.setString(parameter++, ids.get(i));
+				insert.setString(parameter++, changeTypes.get(i));
+			}
+			
+			insert.executeUpdate();
+		}
+	}
+	
+	/**
+	 * Load the fingerprints of the CDI summaries already in the database
+	 * @param connection The database connection
+	 * @return The fingerprints, keyed by Local CDI ID
+	 * @throws SQLException If the summaries cannot be read
+	 */
+	private Map<String, String> loadFingerprints(PooledConnection connection) throws SQLException {
+		Map<String, String> loaded = new HashMap<String, String>();
+		
+		ResultSet records = null;
+		
+		try {
+			records = connection.prepare(GET_CDI_SUMMARIES_QUERY).executeQuery();
+			
+			Object[] values = new Object[SUMMARY_COLUMNS.size()];
+			while (records.next()) {
+				for (int i = 0; i < values.length; i++) {
+					values[i] = records.getObject(i + 1);
+				}
+				loaded.put(records.getString(1), SummaryRow.fingerprint(values));
+			}
 		} finally {
 			closeResultSets(records);
-			closeStatements(stmt);
 		}
 		
-		return id;
+		return loaded;
 	}
 	
 	/**
-	 * Store a CDI summary in the database ready for processing by MIKADO
-	 * @param summary The CDI Summary object
-	 * @throws DatabaseException If an error occurs while communicating with the database
-	 * @throws ImporterException If an error occurs while looking up a value from the data or metadata
-	 * @throws MissingDatabaseDataException If data required from the database is missing
-	 * @throws InvalidLookupValueException If any of the looked up values are invalid
+	 * Set up the connection pool, check that the database can be reached,
+	 * and create any tables that the dialect sets up itself
 	 */
-	public void storeCdiSummary(CDISummary summary) throws DatabaseException, ImporterException, MissingDatabaseDataException, InvalidLookupValueException {
+	private void initDBConnection(Config config) throws ConfigException {
 		
-		deleteExistingRecord(summary);
-		PreparedStatement stmt = null;
+		String connectionString = dialect.getConnectionUrl(config.getDBServer(), config.getDBPort(), config.getDBName());
+		pool = new ConnectionPool(connectionString, config.getDBUser(), config.getDBPassword(), config.getDBPoolSize(), config.getDBMaxIdleTime() * 1000L);
 		
+		PooledConnection connection = null;
 		try {
+			connection = pool.borrow();
+		} catch (SQLException e) {
+			throw new ConfigException("Could not connect to database", e);
+		}
+		
+		try {
+			executeStatements(connection, dialect.getSchemaStatements());
+			executeStatements(connection, Arrays.asList(CREATE_EXPORT_TABLE_STATEMENT, CREATE_CHANGES_TABLE_STATEMENT,
+					CREATE_EXPORT_STATE_TABLE_STATEMENT));
 			
-			stmt = dbConnection.prepareStatement(STORE_CDI_SUMMARY_STATEMENT);
-			
-			stmt.setString(1, summary.getLocalCdiId());
-			stmt.setLong(2, summary.getPlatformId());
-			stmt.setString(3, summary.getDataSetName());
-			stmt.setString(4, summary.getDataSetId());
-			stmt.setString(5, summary.getDoi());
-			stmt.setString(6, summary.getDoiUrl());
-			stmt.setString(7, summary.getAbstract());
-			stmt.setString(8, summary.getCruiseName());
-			stmt.setDate(9, java.sql.Date.valueOf(summary.getStartDate()));
-			stmt.setDouble(10, summary.getWestLongitude());
-			stmt.setDouble(11, summary.getEastLongitude());
-			stmt.setDouble(12, summary.getSouthLatitude());
-			stmt.setDouble(13, summary.getNorthLatitude());
-			stmt.setLong(14, javaMstoMySqlMs(summary.getStartDateTime()));
-			stmt.setLong(15, javaMstoMySqlMs(summary.getEndDateTime()));
-			stmt.setDouble(16, summary.getMinDepth());
-			stmt.setDouble(17, summary.getMaxDepth());
-			stmt.setString(18, summary.getDistributionDataSize());
-			stmt.setString(19, summary.getDocumentationUrl());
-			stmt.setString(20, summary.getQcComment());
-			stmt.setString(21, summary.getCurvesDescription());
-			stmt.setString(22, summary.getCurvesName());
-			stmt.setString(23, summary.getCurvesCoordinates());
-			stmt.setString(24, summary.getCsrReference());
-			
-			stmt.execute();
+			// Summaries that are never written again would never get export records,
+			// so a new export table is filled in from the existing summaries
+			if (isExportTableEmpty(connection)) {
+				connection.prepare(getExportStatement(EXPORT_TABLE, SUMMARY_TABLE, 0)).executeUpdate();
+			}
 			
+			// When incremental exports are first set up, nothing has been exported yet
+			connection.getConnection().setAutoCommit(false);
+			if (connection.prepare(INIT_EXPORT_STATE_STATEMENT).executeUpdate() > 0) {
+				connection.prepare(SEED_CHANGES_STATEMENT).executeUpdate();
+			}
+			connection.getConnection().commit();
+			connection.reset();
 		} catch (SQLException e) {
-			throw new DatabaseException("Error while storing CDI Summary", e);
+			connection.failed(e);
+			throw new ConfigException("Could not set up database tables", e);
 		} finally {
-			closeStatements(stmt);
+			pool.release(connection);
 		}
 	}
 	
 	/**
-	 * Delete a pre-existing record for a CDI summary, if it exists
-	 * @param summary The CDI summary
+	 * Determine whether the export table has no records
+	 * @param connection The database connection
+	 * @return {@code true} if the export table is empty; {@code false} if it has any records
+	 * @throws SQLException If the export table cannot be read
 	 */
-	private void deleteExistingRecord(CDISummary summary) throws DatabaseException {
-		
-		PreparedStatement stmt = null;
-		
+	private boolean isExportTableEmpty(PooledConnection connection) throws SQLException {
+		Statement stmt = connection.getConnection().createStatement();
 		try {
-			stmt = dbConnection.prepareStatement(DELETE_CDI_STATEMENT);
-			stmt.setString(1, summary.getLocalCdiId());
-			stmt.execute();
-		} catch (SQLException e) {
-			throw new DatabaseException("Error deleting existing CDI Summary", e);
+			stmt.setMaxRows(1);
+			ResultSet records = stmt.executeQuery(GET_EXPORT_RECORD_QUERY);
+			try {
+				return !records.next();
+			} finally {
+				closeResultSets(records);
+			}
 		} finally {
-			closeStatements(stmt);
+			stmt.close();
 		}
 	}
 	
 	/**
-	 * Connect to the database
+	 * Build the statement that fills in export records from the CDI summaries,
+	 * fixed values and platforms. As in the MIKADO template, the platform type and
+	 * measuring area type come from the platform record covering the cruise start date.
+	 * @param exportTable The export table to be filled in
+	 * @param summaryTable The CDI summary table to read
+	 * @param ids The number of Local CDI IDs to export, which are the statement's parameters.
+	 *            If this is zero, every summary is exported.
+	 * @return The statement
 	 */
-	private void initDBConnection(Config config) throws ConfigException {
-
-	    StringBuilder connectionString = new StringBuilder();
-	    connectionString.append("jdbc:mysql://");
-	    connectionString.append(config.getDBServer());
-	    connectionString.append(':');
-	    connectionString.append(config.getDBPort());
-	    connectionString.append('/');
-	    connectionString.append(config.getDBName());
-	    
-	    try {
-	    	dbConnection = DriverManager.getConnection(connectionString.toString(), config.getDBUser(), config.getDBPassword());
-	    } catch (SQLException e) {
-	    	throw new ConfigException("Could not connect to database", e);
-	    }
+	private String getExportStatement(String exportTable, String summaryTable, int ids) {
+		List<String> columns = new ArrayList<String>(EXPORT_COLUMNS.length);
+		StringBuilder query = new StringBuilder("SELECT ");
+		
+		for (int i = 0; i < EXPORT_COLUMNS.length; i++) {
+			String column = EXPORT_COLUMNS[i][0];
+			columns.add(column);
+			
+			if (i > 0) {
+				query.append(", ");
+			}
+			
+			if (EXPORT_TIMESTAMP_COLUMNS.contains(column)) {
+				query.append(dialect.getUtcTimestampExpression(EXPORT_COLUMNS[i][1]));
+			} else {
+				query.append(EXPORT_COLUMNS[i][1]);
+			}
+			
+			query.append(" AS ");
+			query.append(column);
+		}
+		
+		query.append(" FROM ");
+		query.append(summaryTable);
+		query.append(" s LEFT JOIN cdi_fixed_values f ON f.dataset = s.dataset_name");
+		query.append(" LEFT JOIN cdi_platforms p ON p.id = s.platform_id AND p.start_date <= s.cruise_start_date");
+		query.append(" AND (p.end_date IS NULL OR p.end_date >= s.cruise_start_date)");
+		query.append(" LEFT JOIN cdi_platforms o ON o.id = s.platform_id");
+		
+		if (ids > 0) {
+			query.append(" WHERE s.local_cdi_id IN (");
+			query.append(SqlDialect.parameterList(ids));
+			query.append(')');
+		}
+		
+		return dialect.getUpsertQueryStatement(exportTable, SUMMARY_KEY_COLUMN, columns, query.toString());
 	}
 	
 	/**
-	 * Close a set of PreparedStatement objects, ignoring any errors
+	 * Execute a list of statements that take no parameters
+	 * @param connection The database connection
 	 * @param statements The statements
+	 * @throws SQLException If any of the statements fails. The remaining statements are not executed.
 	 */
-	private void closeStatements(PreparedStatement... statements) {
-		for (PreparedStatement stmt : statements) {
-			if (null != stmt) {
-				try {
-					stmt.close();
-				} catch (SQLException e) {
-					// Do nothing
-				}
+	private void executeStatements(PooledConnection connection, List<String> statements) throws SQLException {
+		Statement stmt = connection.getConnection().createStatement();
+		try {
+			for (String statement : statements) {
+				stmt.execute(statement);
 			}
+		} finally {
+			stmt.close();
+		}
+	}
+	
+	/**
+	 * Record an error raised while using a borrowed connection
+	 * @param connection The connection. May be {@code null} if the connection could not be borrowed.
+	 * @param e The error
+	 */
+	private void failed(PooledConnection connection, SQLException e) {
+		if (null != connection) {
+			connection.failed(e);
 		}
 	}
 	
@@ -264,4 +994,84 @@ public class CDIDB {
 	private long javaMstoMySqlMs(long javaMs) {
 		return javaMs / 1000;
 	}
+	
+	/**
+	 * A CDI summary waiting to be written to the database
+	 */
+	protected static class QueuedSummary {
+		
+		/**
+		 * The summary's column values
+		 */
+		protected final SummaryRow row;
+		
+		/**
+		 * The listener to be told the outcome
+		 */
+		protected final SummaryStoreListener listener;
+		
+		/**
+		 * An earlier summary for the same CDI that this one replaced before it was written
+		 */
+		protected QueuedSummary replaced = null;
+		
+		/**
+		 * Indicates whether the listener has been told the outcome
+		 */
+		private volatile boolean reported = false;
+		
+		/**
+		 * Constructor
+		 * @param row The summary's column values
+		 * @param listener The listener to be told the outcome
+		 */
+		private QueuedSummary(SummaryRow row, SummaryStoreListener listener) {
+			this.row = row;
+			this.listener = listener;
+		}
+		
+		/**
+		 * Tell the listener that the summary has been stored, along with
+		 * the listeners of any summaries that it replaced
+		 */
+		protected void stored() {
+			reported = true;
+			try {
+				listener.summaryStored(row.getLocalCdiId());
+			} catch (RuntimeException e) {
+				// Don't let a bad listener stop the other summaries being reported
+				CDIGenerator.getLogger().log(Level.SEVERE, "Error in CDI summary listener", e);
+			}
+			
+			if (null != replaced) {
+				replaced.stored();
+			}
+		}
+		
+		/**
+		 * Tell the listener that the summary could not be stored, along with
+		 * the listeners of any summaries that it replaced
+		 * @param error The error that prevented it from being stored
+		 */
+		protected void failed(DatabaseException error) {
+			reported = true;
+			try {
+				listener.summaryFailed(row.getLocalCdiId(), error);
+			} catch (RuntimeException e) {
+				CDIGenerator.getLogger().log(Level.SEVERE, "Error in CDI summary listener", e);
+			}
+			
+			if (null != replaced) {
+				replaced.failed(error);
+			}
+		}
+		
+		/**
+		 * Determine whether the listener has been told the outcome
+		 * @return {@code true} if the outcome has been reported; {@code false} if it hasn't
+		 */
+		protected boolean isReported() {
+			return reported;
+		}
+	}
 }
@@ -1,9 +1,16 @@
 package no.bcdc.cdigenerator.generators;
 
 import java.io.File;
+import java.io.Serializable;
 import java.math.RoundingMode;
 import java.text.DecimalFormat;
 import java.time.LocalDate;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import no.bcdc.cdigenerator.importers.Importer;
 import no.bcdc.cdigenerator.importers.ImporterException;
@@ -14,51 +21,150 @@ import no.bcdc.cdigenerator.lookups.CSRReferenceLookup;
 /**
  * Simple object to hold all the details to be added to the CDI summary in the database
  * for MIKADO to use.
+ * 
+ * <p>
+ *   A summary is a snapshot of the data set: every value is looked up once, by a
+ *   {@link Builder}, and the summary can't be changed afterwards. It doesn't refer
+ *   back to the importer, so it stays valid after the importer has moved on to the
+ *   next data set.
+ * </p>
+ * 
  * @author Steve Jones
  *
  */
-public class CDISummary {
-
+public class CDISummary implements Serializable {
+	
 	/**
-	 * The database tools object
+	 * The serial version UID
 	 */
-	private CDIDB cdiDb;
+	private static final long serialVersionUID = -3526040137861329212L;
 	
 	/**
-	 * The CSR Reference Lookup object
+	 * The local CDI ID
 	 */
-	private CSRReferenceLookup csrLookup;
+	private String localCdiId;
 	
 	/**
-	 * The importer for the current data set
+	 * The internal platform ID
 	 */
-	private Importer importer;
+	private long platformId;
 	
 	/**
-	 * The local CDI ID
+	 * The data set name
 	 */
-	private String localCdiId;
+	private String dataSetName;
 	
 	/**
-	 * The NEMO model
+	 * The data set ID
 	 */
-	private NemoModel nemoModel;
+	private String dataSetId;
 	
 	/**
-	 * Constructor puts everything in place to retrieve the required information
-	 * 
+	 * The DOI
+	 */
+	private String doi;
+	
+	/**
+	 * The DOI URL
+	 */
+	private String doiUrl;
+	
+	/**
+	 * The abstract
+	 */
+	private String abstractText;
+	
+	/**
+	 * The cruise name
+	 */
+	private String cruiseName;
+	
+	/**
+	 * The cruise start date
+	 */
+	private LocalDate startDate;
+	
+	/**
+	 * The western longitude boundary
+	 */
+	private double westLongitude;
+	
+	/**
+	 * The eastern longitude boundary
+	 */
+	private double eastLongitude;
+	
+	/**
+	 * The southern latitude boundary
+	 */
+	private double southLatitude;
+	
+	/**
+	 * The northern latitude boundary
+	 */
+	private double northLatitude;
+	
+	/**
+	 * The start date and time, in milliseconds since the epoch
+	 */
+	private long startDateTime;
+	
+	/**
+	 * The end date and time, in milliseconds since the epoch
+	 */
+	private long endDateTime;
+	
+	/**
+	 * The size of the NEMO output file in Mb
+	 */
+	private String distributionDataSize;
+	
+	/**
+	 * The GML Curves description
+	 */
+	private String curvesDescription;
+	
+	/**
+	 * The GML Curves name
+	 */
+	private String curvesName;
+	
+	/**
+	 * The GML Curves coordinates
+	 */
+	private String curvesCoordinates;
+	
+	/**
+	 * The Cruise Summary Report reference
+	 */
+	private String csrReference;
+	
+	/**
+	 * The documentation URL
+	 */
+	private String documentationUrl;
+	
+	/**
+	 * The QC comment
+	 */
+	private String qcComment;
+	
+	/**
+	 * The minimum measurement depth
+	 */
+	private double minDepth;
+	
+	/**
+	 * The maximum measurement depth
+	 */
+	private double maxDepth;
+	
+	/**
+	 * Summaries are created by the {@link Builder}
 	 * @param localCdiId The Local CDI ID of the data set
-	 * @param cdiDb The database utility object
-	 * @param csrLookup The CSR Reference Lookup object
-	 * @param importer The importer for this data set
-	 * @param model The NEMO model for this data set
 	 */
-	public CDISummary(String localCdiId, CDIDB cdiDb, CSRReferenceLookup csrLookup, Importer importer, NemoModel model) {
+	private CDISummary(String localCdiId) {
 		this.localCdiId = localCdiId;
-		this.cdiDb = cdiDb;
-		this.csrLookup = csrLookup;
-		this.importer = importer;
-		this.nemoModel = model;
 	}
 	
 	/**
@@ -81,227 +187,348 @@ public class CDISummary {
 	 * to ensure the correct details are retrieved.
 	 * 
 	 * @return The internal platform ID
-	 * @throws ImporterException If the details required for the database search cannot be retrieved
-	 * @throws DatabaseException If an error occurs while looking up the platform ID
-	 * @throws MissingDatabaseDataException If the platform details are missing from the database
-	 * @throws InvalidLookupValueException If any of the looked up values are invalid
 	 */
-	public long getPlatformId() throws ImporterException, DatabaseException, MissingDatabaseDataException, InvalidLookupValueException {
-		return cdiDb.getPlatformId(importer.getPlatformCode(), importer.getStartDate(), importer.getDataSetId());
+	public long getPlatformId() {
+		return platformId;
 	}
-
+	
 	/**
 	 * Retrieve the data set name
 	 * @return The data set name
-	 * @throws ImporterException If the data set name cannot be retrieved
 	 */
-	public String getDataSetName() throws ImporterException {
-		return importer.getDataSetName();
+	public String getDataSetName() {
+		return dataSetName;
 	}
-
+	
 	/**
 	 * Retrieve the data set ID
 	 * @return The data set ID
-	 * @throws ImporterException If the data set ID cannot be retrieved
 	 */
-	public String getDataSetId() throws ImporterException {
-		return importer.getDataSetId();
+	public String getDataSetId() {
+		return dataSetId;
 	}
-
+	
 	/**
 	 * Retrieve the data set's DOI
 	 * @return The data set' DOI
-	 * @throws ImporterException If the DOI cannot be retrieved
 	 */
-	public String getDoi() throws ImporterException {
-		return importer.getDoi();
+	public String getDoi() {
+		return doi;
 	}
 	
 	/**
 	 * Retrieve the full URL for the data set's DOI
 	 * @return The DOI URL
-	 * @throws ImporterException If the DOI URL cannot be retrieved
 	 */
-	public String getDoiUrl() throws ImporterException {
-		return importer.getDoiUrl();
+	public String getDoiUrl() {
+		return doiUrl;
 	}
 	
 	/**
 	 * Retrieve the abstract for the data set
 	 * @return The abstract
-	 * @throws ImporterException If the abstract cannot be retrieved
 	 */
-	public String getAbstract() throws ImporterException {
-		return importer.getAbstract();
+	public String getAbstract() {
+		return abstractText;
 	}
 	
 	/**
 	 * Retrieve the cruise name for the data set
 	 * @return The cruise name
-	 * @throws ImporterException If the cruise name cannot be retrieved
 	 */
-	public String getCruiseName() throws ImporterException {
-		return importer.getCruiseName();
+	public String getCruiseName() {
+		return cruiseName;
 	}
 	
 	/**
 	 * Retrieve the start date of the cruise
 	 * @return The cruise start date
-	 * @throws ImporterException If the start date cannot be retrieved
-	 * @throws InvalidLookupValueException If the date is invalid
 	 */
-	public LocalDate getStartDate() throws ImporterException, InvalidLookupValueException {
-		return importer.getStartDate();
+	public LocalDate getStartDate() {
+		return startDate;
 	}
 	
 	/**
 	 * Retrieve the western longitude boundary of the data set
 	 * @return The western longitude boundary
-	 * @throws ImporterException If the boundary cannot be retrieved
-	 * @throws InvalidLookupValueException If the retrieved value is invalid
 	 */
-	public double getWestLongitude() throws ImporterException, InvalidLookupValueException {
-		return importer.getWestLongitude();
+	public double getWestLongitude() {
+		return westLongitude;
 	}
 	
 	/**
 	 * Retrieve the eastern longitude boundary of the data set
 	 * @return The eastern longitude boundary
-	 * @throws ImporterException If the boundary cannot be retrieved
-	 * @throws InvalidLookupValueException If the retrieved value is invalid
 	 */
-	public double getEastLongitude() throws ImporterException, InvalidLookupValueException {
-		return importer.getEastLongitude();
+	public double getEastLongitude() {
+		return eastLongitude;
 	}
 	
 	/**
 	 * Retrieve the southern latitude boundary of the data set
 	 * @return The southern latitude boundary
-	 * @throws ImporterException If the boundary cannot be retrieved
-	 * @throws InvalidLookupValueException If the retrieved value is invalid
 	 */
-	public double getSouthLatitude() throws ImporterException, InvalidLookupValueException {
-		return importer.getSouthLatitude();
+	public double getSouthLatitude() {
+		return southLatitude;
 	}
 	
 	/**
 	 * Retrieve the northern latitude boundary of the data set
 	 * @return The northern latitude boundary
-	 * @throws ImporterException If the boundary cannot be retrieved
-	 * @throws InvalidLookupValueException If the retrieved value is invalid
 	 */
-	public double getNorthLatitude() throws ImporterException, InvalidLookupValueException {
-		return importer.getNorthLatitude();
+	public double getNorthLatitude() {
+		return northLatitude;
 	}
 	
 	/**
 	 * Get the start date and time of the data set
 	 * @return The start date
-	 * @throws ImporterException If the start date cannot be retrieved
-	 * @throws InvalidLookupValueException If the date is invalid
 	 */
-	public long getStartDateTime() throws ImporterException, InvalidLookupValueException {
-		return importer.getStartDateTime();
+	public long getStartDateTime() {
+		return startDateTime;
 	}
 	
 	/**
 	 * Get the end date and time of the data set
 	 * @return The end date
-	 * @throws ImporterException If the end date cannot be retrieved
-	 * @throws InvalidLookupValueException If the date is invalid
 	 */
-	public long getEndDateTime() throws ImporterException, InvalidLookupValueException {
-		return importer.getEndDateTime();
+	public long getEndDateTime() {
+		return endDateTime;
 	}
 	
 	/**
 	 * Get the size of the NEMO output file in Mb.
-	 * This is returned as a String so it can be represented to two decimal places
+	 * This is a String so it can be represented to two decimal places
 	 * @return The NEMO output file size
-	 * @throws ImporterException If the NEMO output file is missing
 	 */
-	public String getDistributionDataSize() throws ImporterException {
-		File nemoOutputFile = nemoModel.getOutputFile(localCdiId);
-		if (!nemoOutputFile.exists()) {
-			throw new ImporterException("Cannot find NEMO output file");
-		}
-		
-		long fileSize = nemoOutputFile.length();
-		
-		DecimalFormat df = new DecimalFormat("0.00");
-		df.setRoundingMode(RoundingMode.HALF_UP);
-		return df.format(((double) fileSize) / 1048576.0);
+	public String getDistributionDataSize() {
+		return distributionDataSize;
 	}
 	
 	/**
 	 * Get the GML Curves Description
 	 * @return The GML Curves description
-	 * @throws ImporterException If the curves description cannot be retrieved
 	 */
-	public String getCurvesDescription() throws ImporterException {
-		return importer.getCurvesDescription();
+	public String getCurvesDescription() {
+		return curvesDescription;
 	}
 	
 	/**
 	 * Get the GML Curves Name
 	 * @return The GML Curves Name
-	 * @throws ImporterException If the curves name cannot be retrieved
 	 */
-	public String getCurvesName() throws ImporterException {
-		return importer.getCurvesName();
+	public String getCurvesName() {
+		return curvesName;
 	}
-
+	
 	/**
 	 * Get the GML Curves Coordinates string
 	 * @return The GML Curves coordinates
-	 * @throws ImporterException If the curves coordinates cannot be retrieved
 	 */
-	public String getCurvesCoordinates() throws ImporterException {
-		return importer.getCurvesCoordinates();
+	public String getCurvesCoordinates() {
+		return curvesCoordinates;
 	}
-
+	
 	/**
 	 * Get the Cruise Summary Report reference for the data set
 	 * @return The CSR reference
-	 * @throws ImporterException If the CSR reference cannot be extracted
 	 */
-	public String getCsrReference() throws ImporterException, InvalidLookupValueException {
-		return csrLookup.getCSRReference(importer.getPlatformCode(), getStartDate());
+	public String getCsrReference() {
+		return csrReference;
 	}
 	
 	/**
 	 * Get the URL containing further documentation for the data set
 	 * @return The documentation URL
-	 * @throws ImporterException If the documentation URL cannot be extracted
 	 */
-	public String getDocumentationUrl() throws ImporterException {
-		return importer.getDocumentationUrl();
+	public String getDocumentationUrl() {
+		return documentationUrl;
 	}
 	
 	/**
 	 * Get the QC comment for the data set
 	 * @return The QC comment
-	 * @throws ImporterException If the QC comment cannot be extracted
 	 */
-	public String getQcComment() throws ImporterException {
-		return importer.getQcComment();
+	public String getQcComment() {
+		return qcComment;
 	}
 	
 	/**
 	 * Get the minimum measurement depth for the data set
 	 * @return The minimum measurement depth for the data set
-	 * @throws ImporterException If the minimum measurement depth cannot be retrieved
 	 */
-	public double getMinDepth() throws ImporterException {
-		return importer.getMinDepth();
+	public double getMinDepth() {
+		return minDepth;
 	}
 	
 	/**
 	 * Get the maximum measurement depth for the data set
 	 * @return The maximum measurement depth for the data set
-	 * @throws ImporterException If the maximum measurement depth cannot be retrieved
 	 */
-	public double getMaxDepth() throws ImporterException {
-		return importer.getMaxDepth();
+	public double getMaxDepth() {
+		return maxDepth;
+	}
+	
+	/**
+	 * Builds CDI summaries.
+	 * 
+	 * <p>
+	 *   The platform ID, CSR reference and NEMO output file size don't need the
+	 *   importer once the platform code and start date are known, so they are looked
+	 *   up on other threads while the importer's values are being read. The importer's
+	 *   values are all read on the calling thread, because the importer's metadata
+	 *   document is not safe to read from several threads at once.
+	 * </p>
+	 */
+	public static class Builder {
+		
+		/**
+		 * Threads for the lookups that don't need the importer
+		 */
+		private static final ExecutorService LOOKUP_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "CDI summary lookup");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		/**
+		 * The database tools object
+		 */
+		private CDIDB cdiDb;
+		
+		/**
+		 * The CSR Reference Lookup object
+		 */
+		private CSRReferenceLookup csrLookup;
+		
+		/**
+		 * Constructor
+		 * @param cdiDb The database utility object
+		 * @param csrLookup The CSR Reference Lookup object
+		 */
+		public Builder(CDIDB cdiDb, CSRReferenceLookup csrLookup) {
+			this.cdiDb = cdiDb;
+			this.csrLookup = csrLookup;
+		}
+		
+		/**
+		 * Build the CDI summary for the importer's current data set
+		 * @param localCdiId The Local CDI ID of the data set
+		 * @param importer The importer for this data set
+		 * @param model The NEMO model for this data set
+		 * @return The summary
+		 * @throws ImporterException If any of the values cannot be retrieved, or the NEMO output file is missing
+		 * @throws DatabaseException If an error occurs while looking up the platform ID
+		 * @throws MissingDatabaseDataException If the platform details are missing from the database
+		 * @throws InvalidLookupValueException If any of the looked up values are invalid
+		 */
+		public CDISummary build(String localCdiId, Importer importer, NemoModel model) throws ImporterException, DatabaseException, MissingDatabaseDataException, InvalidLookupValueException {
+			
+			final String platformCode = importer.getPlatformCode();
+			final LocalDate startDate = importer.getStartDate();
+			final String dataSetId = importer.getDataSetId();
+			final File nemoOutputFile = model.getOutputFile(localCdiId);
+			
+			Future<Long> platformId = LOOKUP_EXECUTOR.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					return cdiDb.getPlatformId(platformCode, startDate, dataSetId);
+				}
+			});
+			
+			Future<String> csrReference = LOOKUP_EXECUTOR.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return csrLookup.getCSRReference(platformCode, startDate);
+				}
+			});
+			
+			Future<String> distributionDataSize = LOOKUP_EXECUTOR.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return getFileSize(nemoOutputFile);
+				}
+			});
+			
+			CDISummary summary = new CDISummary(localCdiId);
+			summary.dataSetId = dataSetId;
+			summary.startDate = startDate;
+			summary.dataSetName = importer.getDataSetName();
+			summary.doi = importer.getDoi();
+			summary.doiUrl = importer.getDoiUrl();
+			summary.abstractText = importer.getAbstract();
+			summary.cruiseName = importer.getCruiseName();
+			summary.westLongitude = importer.getWestLongitude();
+			summary.eastLongitude = importer.getEastLongitude();
+			summary.southLatitude = importer.getSouthLatitude();
+			summary.northLatitude = importer.getNorthLatitude();
+			summary.startDateTime = importer.getStartDateTime();
+			summary.endDateTime = importer.getEndDateTime();
+			summary.minDepth = importer.getMinDepth();
+			summary.maxDepth = importer.getMaxDepth();
+			summary.documentationUrl = importer.getDocumentationUrl();
+			summary.qcComment = importer.getQcComment();
+			summary.curvesDescription = importer.getCurvesDescription();
+			summary.curvesName = importer.getCurvesName();
+			summary.curvesCoordinates = importer.getCurvesCoordinates();
+			
+			summary.platformId = getResult(platformId);
+			summary.csrReference = getResult(csrReference);
+			summary.distributionDataSize = getResult(distributionDataSize);
+			
+			return summary;
+		}
+		
+		/**
+		 * Get the size of a NEMO output file in Mb, to two decimal places
+		 * @param nemoOutputFile The NEMO output file
+		 * @return The file size
+		 * @throws ImporterException If the NEMO output file is missing
+		 */
+		private static String getFileSize(File nemoOutputFile) throws ImporterException {
+			if (!nemoOutputFile.exists()) {
+				throw new ImporterException("Cannot find NEMO output file");
+			}
+			
+			long fileSize = nemoOutputFile.length();
+			
+			DecimalFormat df = new DecimalFormat("0.00");
+			df.setRoundingMode(RoundingMode.HALF_UP);
+			return df.format(((double) fileSize) / 1048576.0);
+		}
+		
+		/**
+		 * Wait for a lookup to finish and get its result. Any error from the lookup
+		 * is thrown as it was thrown by the lookup.
+		 * @param lookup The lookup
+		 * @return The result
+		 * @throws ImporterException If the lookup failed with an ImporterException, or was interrupted
+		 * @throws DatabaseException If the lookup failed with a DatabaseException
+		 * @throws MissingDatabaseDataException If the lookup failed with a MissingDatabaseDataException
+		 */
+		private static <T> T getResult(Future<T> lookup) throws ImporterException, DatabaseException, MissingDatabaseDataException {
+			try {
+				return lookup.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ImporterException("Interrupted while building CDI summary", e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof ImporterException) {
+					throw (ImporterException) cause;
+				} else if (cause instanceof DatabaseException) {
+					throw (DatabaseException) cause;
+				} else if (cause instanceof MissingDatabaseDataException) {
+					throw (MissingDatabaseDataException) cause;
+				} else if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else {
+					throw new ImporterException("Error while building CDI summary", cause);
+				}
+			}
+		}
 	}
 }
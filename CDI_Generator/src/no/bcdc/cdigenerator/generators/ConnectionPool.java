@@ -0,0 +1,187 @@
+package no.bcdc.cdigenerator.generators;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A small pool of database connections.
+ *
+ * <p>
+ *   Connections are opened when they are first needed, up to the size of the pool.
+ *   A thread that borrows a connection when all of them are in use waits until
+ *   one is released. The most recently released connection is handed out first,
+ *   so a pool that is larger than it needs to be leaves its spare connections idle.
+ * </p>
+ *
+ * <p>
+ *   A connection that has been idle for a while is checked before it is handed out,
+ *   and one that has been idle for longer than the maximum idle time is replaced
+ *   without being checked, because the server will probably have closed it already
+ *   (MySQL closes connections after {@code wait_timeout}). Connections that fail
+ *   while they are in use are replaced when they are released.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class ConnectionPool {
+	
+	/**
+	 * Connections that have been idle for longer than this are checked before they are borrowed, in milliseconds
+	 */
+	private static final long VALIDATION_IDLE_TIME = 5000L;
+	
+	/**
+	 * The time allowed for checking a connection, in seconds
+	 */
+	private static final int VALIDATION_TIMEOUT = 5;
+	
+	/**
+	 * The database URL
+	 */
+	private String url;
+	
+	/**
+	 * The database user
+	 */
+	private String user;
+	
+	/**
+	 * The database password
+	 */
+	private String password;
+	
+	/**
+	 * Connections that have been idle for longer than this are replaced, in milliseconds
+	 */
+	private long maxIdleTime;
+	
+	/**
+	 * Permits for borrowing connections. There is one permit for each connection in the pool.
+	 */
+	private Semaphore permits;
+	
+	/**
+	 * The idle connections, most recently released first
+	 */
+	private LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+	
+	/**
+	 * Indicates whether the pool has been closed
+	 */
+	private volatile boolean closed = false;
+	
+	/**
+	 * Constructor. No connections are opened until they are borrowed.
+	 * @param url The database URL
+	 * @param user The database user
+	 * @param password The database password
+	 * @param size The number of connections in the pool
+	 * @param maxIdleTime Connections that have been idle for longer than this are replaced, in milliseconds
+	 */
+	public ConnectionPool(String url, String user, String password, int size, long maxIdleTime) {
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.maxIdleTime = maxIdleTime;
+		this.permits = new Semaphore(size, true);
+	}
+	
+	/**
+	 * Borrow a connection, waiting until one is available. The connection must be
+	 * given back with {@link #release(PooledConnection)} once it is finished with.
+	 * @return The connection
+	 * @throws SQLException If a connection cannot be opened, or the pool has been closed
+	 */
+	public PooledConnection borrow() throws SQLException {
+		
+		if (closed) {
+			throw new SQLException("The connection pool has been closed");
+		}
+		
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a database connection", e);
+		}
+		
+		try {
+			PooledConnection connection = idle.pollFirst();
+			while (null != connection && !isUsable(connection)) {
+				connection.discard();
+				connection = idle.pollFirst();
+			}
+			
+			if (null == connection) {
+				connection = new PooledConnection(DriverManager.getConnection(url, user, password));
+			}
+			
+			return connection;
+		} catch (SQLException e) {
+			permits.release();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Give a borrowed connection back to the pool. A connection that failed
+	 * while it was borrowed is closed, and will be replaced when it is next needed.
+	 * @param connection The connection
+	 */
+	public void release(PooledConnection connection) {
+		
+		if (null != connection) {
+			if (!connection.isBroken()) {
+				connection.reset();
+			}
+			
+			if (closed || connection.isBroken()) {
+				connection.discard();
+			} else {
+				connection.setLastUsed(System.currentTimeMillis());
+				idle.offerFirst(connection);
+			}
+			
+			permits.release();
+		}
+	}
+	
+	/**
+	 * Close the idle connections. Connections that are still borrowed
+	 * are closed when they are released.
+	 */
+	public void close() {
+		closed = true;
+		
+		PooledConnection connection = idle.pollFirst();
+		while (null != connection) {
+			connection.discard();
+			connection = idle.pollFirst();
+		}
+	}
+	
+	/**
+	 * Determine whether an idle connection can be handed out
+	 * @param connection The connection
+	 * @return {@code true} if the connection can be used; {@code false} if it must be replaced
+	 */
+	private boolean isUsable(PooledConnection connection) {
+		boolean usable = true;
+		
+		long idleTime = System.currentTimeMillis() - connection.getLastUsed();
+		if (idleTime > maxIdleTime) {
+			usable = false;
+		} else if (idleTime > VALIDATION_IDLE_TIME) {
+			try {
+				usable = connection.getConnection().isValid(VALIDATION_TIMEOUT);
+			} catch (SQLException e) {
+				usable = false;
+			}
+		}
+		
+		return usable;
+	}
+}
@@ -5,7 +5,12 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -17,6 +22,7 @@ import no.bcdc.cdigenerator.Config;
 import no.bcdc.cdigenerator.importers.Importer;
 import no.bcdc.cdigenerator.importers.ImporterException;
 import no.bcdc.cdigenerator.importers.NemoModel;
+import no.bcdc.cdigenerator.importers.Prefetcher;
 import no.bcdc.cdigenerator.importers.ValueLookupException;
 import no.bcdc.cdigenerator.lookups.CSRReferenceLookup;
 
@@ -68,9 +74,14 @@ public abstract class Generator {
 	private CDIDB cdiDb = null;
 	
 	/**
-	 * The CSR Reference Lookup
+	 * The builder for CDI summaries
 	 */
-	private CSRReferenceLookup csrLookup = null;
+	private CDISummary.Builder summaryBuilder = null;
+	
+	/**
+	 * Indicates whether only the metadata is to be harvested, without generating CDI entries
+	 */
+	private boolean harvestOnly = false;
 	
 	/**
 	 * Base constructor - stores the configuration
@@ -80,6 +91,15 @@ public abstract class Generator {
 		this.config = config;
 	}
 
+	/**
+	 * Set whether the generator should only harvest the metadata for the
+	 * chosen data sets, ready for a later run, instead of generating CDI entries
+	 * @param harvestOnly {@code true} to only harvest metadata; {@code false} to generate CDI entries
+	 */
+	public void setHarvestOnly(boolean harvestOnly) {
+		this.harvestOnly = harvestOnly;
+	}
+	
 	/**
 	 * Starts the generator. This is the main program.
 	 * @throws Exception Any errors are passed up to be handled by the main method. Ideally there shouldn't be any, obviously
@@ -87,92 +107,204 @@ public abstract class Generator {
 	public void start() throws Exception {
 		
 		boolean quit = false;
+		boolean rebuilding = false;
 		
-		cdiDb = new CDIDB(config);
-		csrLookup = new CSRReferenceLookup(config);
-		
-		if (clearCdiDb()) {
-			cdiDb.clearCdiSummary();
+		// Harvesting metadata doesn't need the database
+		if (!harvestOnly) {
+			cdiDb = new CDIDB(config);
 		}
 		
-		while (!quit) {
-			importer = getImporterChoice();
-			if (null == importer) {
-				quit = true;
-			} else {
-				importer.setGenerator(this);
-				List<String> dataSetIds = getDataSetIds(importer.getDataSetIdsDescriptor());
-				if (null != dataSetIds) {
-					progressMax = dataSetIds.size();
-					int idsComplete = 0;
-					List<String> succeededIds = new ArrayList<String>();
-					List<String> failedIds = new ArrayList<String>();
-					setProgress(idsComplete);
-					for (String id : dataSetIds) {
-	
-						currentDataSetId = id;
+		try {
+			if (null != cdiDb) {
+				summaryBuilder = new CDISummary.Builder(cdiDb, new CSRReferenceLookup(config));
+				
+				// The summaries are written to a staging table, which replaces
+				// the live table once everything has been processed
+				if (clearCdiDb()) {
+					cdiDb.startRebuild();
+					rebuilding = true;
+				}
+			}
+			
+			while (!quit) {
+				importer = getImporterChoice();
+				if (null == importer) {
+					quit = true;
+				} else {
+					importer.setGenerator(this);
+					List<String> dataSetIds = getDataSetIds(importer.getDataSetIdsDescriptor());
+					if (null != dataSetIds) {
+						progressMax = dataSetIds.size();
+						// Summaries can be stored by the database flush timer, so these must be thread safe
+						List<String> succeededIds = Collections.synchronizedList(new ArrayList<String>());
+						List<String> failedIds = Collections.synchronizedList(new ArrayList<String>());
+						setProgress(0);
 						
-						try {
+						if (harvestOnly) {
+							harvestMetadata(dataSetIds, succeededIds, failedIds);
+						} else {
+							processDataSets(dataSetIds, succeededIds, failedIds);
+						}
+						
+						setProgressMessage("\nProcessing complete. " + succeededIds.size() + " succeeded, " + failedIds.size() + " failed. See log for full list.\n");
+						logProcessedIds(succeededIds, failedIds);
+					}
+				}
+			}
+			
+			if (rebuilding) {
+				setProgressMessage("Replacing CDI Summary table\n");
+				cdiDb.finishRebuild();
+			}
+		} finally {
+			// Stop the summary writer and close the database connections, even if processing failed
+			if (null != cdiDb) {
+				cdiDb.close();
+			}
+		}
+	}
+	
+	/**
+	 * Generate the CDI entries for a set of data sets
+	 * @param dataSetIds The data set IDs
+	 * @param succeededIds The list to which successfully processed IDs are added
+	 * @param failedIds The list to which failed IDs are added
+	 * @throws Exception If a fatal error occurs
+	 */
+	private void processDataSets(List<String> dataSetIds, final List<String> succeededIds, final List<String> failedIds) throws Exception {
+		int idsComplete = 0;
+		
+		Prefetcher prefetcher = null;
+		if (config.getPrefetchDepth() > 0) {
+			prefetcher = new Prefetcher(config, importer, dataSetIds);
+			importer.setPrefetcher(prefetcher);
+		}
+		
+		try {
+			for (int i = 0; i < dataSetIds.size(); i++) {
+		
+				String id = dataSetIds.get(i);
+				currentDataSetId = id;
+				
+				if (null != prefetcher) {
+					prefetcher.advance(i);
+				}
+				
+				try {
+				
+					boolean dataRetrieved = importer.retrieveData(id);
+					
+					if (dataRetrieved) {
+						List<NemoModel> modelsToRun = importer.getModelsToRun();
+						String localCdiId = importer.getLocalCdiId();
 						
-							boolean dataRetrieved = importer.retrieveData(id);
+						int modelsProcessed = 0;
+						for (NemoModel model : modelsToRun) {
+							modelsProcessed++;
+							setProgressMessage("Generating model " + modelsProcessed + " of " + modelsToRun.size());
+															
+							String modelTemplate = FileUtils.readFileToString(model.getModelTemplateFile(), StandardCharsets.UTF_8);
+							String populatedTemplate = null;
+							
+							try {
+								populatedTemplate = importer.populateModelTemplate(modelTemplate);
+							} catch (ValueLookupException e) {
+								setProgressMessage("NEMO template population failed: " + e.getMessage());
+								failedIds.add(id);
+							} // Importer exceptions are fatal, so we just let them get thrown.
 							
-							if (dataRetrieved) {
-								List<NemoModel> modelsToRun = importer.getModelsToRun();
+							// Write the model file to disk
+							if (null != populatedTemplate) {
+								File modelFile = model.getPopulatedTemplateFile(id);
+								PrintWriter modelOut = new PrintWriter(modelFile);
+								modelOut.print(populatedTemplate);
+								modelOut.close();
 								
-								int modelsProcessed = 0;
-								for (NemoModel model : modelsToRun) {
-									modelsProcessed++;
-									setProgressMessage("Generating model " + modelsProcessed + " of " + modelsToRun.size());
-																	
-									String modelTemplate = FileUtils.readFileToString(model.getModelTemplateFile(), StandardCharsets.UTF_8);
-									String populatedTemplate = null;
-									
-									try {
-										populatedTemplate = importer.populateModelTemplate(modelTemplate);
-									} catch (ValueLookupException e) {
-										setProgressMessage("NEMO template population failed: " + e.getMessage());
-										failedIds.add(id);
-									} // Importer exceptions are fatal, so we just let them get thrown.
+								// Run NEMO
+								setProgressMessage("Running NEMO (Model " + modelsProcessed + " of " + modelsToRun.size() + ')');
+								boolean nemoSucceeded = runNemo(id, localCdiId, model);
+								
+								if (!nemoSucceeded) {
+									failedIds.add(id);
+								} else {
+									setProgressMessage("Building CDI Summary data (Model " + modelsProcessed + " of " + modelsToRun.size() + ')');
+									CDISummary cdiSummary = summaryBuilder.build(localCdiId, importer, model);
 									
-									// Write the model file to disk
-									if (null != populatedTemplate) {
-										File modelFile = model.getPopulatedTemplateFile(id);
-										PrintWriter modelOut = new PrintWriter(modelFile);
-										modelOut.print(populatedTemplate);
-										modelOut.close();
-										
-										// Run NEMO
-										setProgressMessage("Running NEMO (Model " + modelsProcessed + " of " + modelsToRun.size() + ')');
-										boolean nemoSucceeded = runNemo(id, model);
+									setProgressMessage("Queueing CDI Summary data for database (Model " + modelsProcessed + " of " + modelsToRun.size() + ')');
+									final String storedId = id;
+									cdiDb.storeCdiSummary(cdiSummary, new SummaryStoreListener() {
+										@Override
+										public void summaryStored(String localCdiId) {
+											succeededIds.add(storedId);
+										}
 										
-										if (!nemoSucceeded) {
-											failedIds.add(id);
-										} else {
-											setProgressMessage("Building CDI Summary data (Model " + modelsProcessed + " of " + modelsToRun.size() + ')');
-											CDISummary cdiSummary = new CDISummary(importer.getLocalCdiId(), cdiDb, csrLookup, importer, model);
-											
-											setProgressMessage("Adding CDI Summary data to database (Model " + modelsProcessed + " of " + modelsToRun.size() + ')');
-											cdiDb.storeCdiSummary(cdiSummary);
-											
-											succeededIds.add(id);
+										@Override
+										public void summaryFailed(String localCdiId, DatabaseException error) {
+											getLogger().log(Level.WARNING, "Error while storing CDI summary for '" + storedId + "'", error);
+											failedIds.add(storedId);
 										}
-									}
+									});
 								}
 							}
-							
-							idsComplete++;
-							setProgress(idsComplete);
-
-						} catch (Exception e) {
-							getLogger().log(Level.WARNING, "Error while processing '" + currentDataSetId + "'", e);
-							e.printStackTrace();
 						}
 					}
 					
-					setProgressMessage("\nProcessing complete. " + succeededIds.size() + " succeeded, " + failedIds.size() + " failed. See log for full list.\n");
-					logProcessedIds(succeededIds, failedIds);
+					idsComplete++;
+					setProgress(idsComplete);
+
+				} catch (Exception e) {
+					getLogger().log(Level.WARNING, "Error while processing '" + currentDataSetId + "'", e);
+					e.printStackTrace();
+				}
+			}
+			
+			// Write the last batch of summaries so they are all in the final counts
+			cdiDb.flush();
+		} finally {
+			// Stop the prefetcher even if processing failed, so its downloads don't outlive the run
+			if (null != prefetcher) {
+				prefetcher.shutdown();
+				importer.setPrefetcher(null);
+			}
+		}
+	}
+	
+	/**
+	 * Harvest the metadata for a set of data sets so it is available locally for
+	 * later runs, without processing the data sets. Several requests are kept
+	 * in progress at once, as allowed by the importer.
+	 * @param dataSetIds The data set IDs
+	 * @param succeededIds The list to which successfully harvested IDs are added
+	 * @param failedIds The list to which failed IDs are added
+	 */
+	private void harvestMetadata(List<String> dataSetIds, List<String> succeededIds, List<String> failedIds) {
+		int idsComplete = 0;
+		int concurrency = Math.max(1, importer.getHarvestConcurrency());
+		
+		LinkedHashMap<String, Future<String>> requests = new LinkedHashMap<String, Future<String>>();
+		Iterator<String> idIterator = dataSetIds.iterator();
+		
+		while (idIterator.hasNext() || !requests.isEmpty()) {
+			while (idIterator.hasNext() && requests.size() < concurrency) {
+				String id = idIterator.next();
+				if (!requests.containsKey(id)) {
+					requests.put(id, importer.startMetadataHarvest(id));
 				}
 			}
+			
+			Map.Entry<String, Future<String>> request = requests.entrySet().iterator().next();
+			requests.remove(request.getKey());
+			
+			currentDataSetId = request.getKey();
+			setProgressMessage("Harvesting metadata...");
+			if (importer.completeMetadataHarvest(request.getKey(), request.getValue())) {
+				succeededIds.add(request.getKey());
+			} else {
+				failedIds.add(request.getKey());
+			}
+			
+			idsComplete++;
+			setProgress(idsComplete);
 		}
 	}
 	
@@ -232,13 +364,15 @@ public abstract class Generator {
 	/**
 	 * Execute NEMO for the given data set
 	 * @param dataSetId The current data set ID
+	 * @param localCdiId The Local CDI ID of the data set
+	 * @param model The NEMO model
 	 * @throws ImporterException If the NEMO command could not be created
 	 */
-	private boolean runNemo(String dataSetId, NemoModel model) throws ImporterException, ExternalProcessFailedException {
+	private boolean runNemo(String dataSetId, String localCdiId, NemoModel model) throws ImporterException, ExternalProcessFailedException {
 		
 		boolean nemoOK = true;
 		
-		List<String> nemoCommand = buildNemoCommand(dataSetId, model);
+		List<String> nemoCommand = buildNemoCommand(dataSetId, localCdiId, model);
 		logCommand("NEMO", nemoCommand);
 		
 		ProcessBuilder processBuilder = new ProcessBuilder(nemoCommand);
@@ -279,10 +413,12 @@ public abstract class Generator {
 	/**
 	 * Create the NEMO command for the given data set
 	 * @param dataSetId The ID of the data set
+	 * @param localCdiId The Local CDI ID of the data set
+	 * @param model The NEMO model
 	 * @return The NEMO command line
 	 * @throws ImporterException If the command line cannot be created
 	 */
-	private List<String> buildNemoCommand(String dataSetId, NemoModel model) throws ImporterException {
+	private List<String> buildNemoCommand(String dataSetId, String localCdiId, NemoModel model) throws ImporterException {
 		
 		List<String> command = new ArrayList<String>();
 		
@@ -292,12 +428,12 @@ public abstract class Generator {
 		command.add("-m");
 		command.add('"' + model.getPopulatedTemplateFile(dataSetId).getAbsolutePath() + '"');
 		command.add("-o");
-		command.add('"' + model.getOutputFile(importer.getLocalCdiId()).getAbsolutePath() + '"');
+		command.add('"' + model.getOutputFile(localCdiId).getAbsolutePath() + '"');
 		command.add("-c");
 		command.add(model.getOutputFormat());
 		command.add("-multi");
 		command.add("-cdiSummary");
-		command.add('"' + model.getSummaryFile(importer.getLocalCdiId()).getAbsolutePath() + '"');
+		command.add('"' + model.getSummaryFile(localCdiId).getAbsolutePath() + '"');
 		
 		return command;		
 	}
@@ -0,0 +1,162 @@
+package no.bcdc.cdigenerator.generators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SQL for an embedded H2 database.
+ * 
+ * <p>
+ *   The database runs inside the CDI Generator, so no database server is needed.
+ *   This is intended for testing and profiling: MIKADO still needs a MySQL database.
+ *   The {@code db.database} setting is the H2 database name, e.g. {@code ./cdi} for
+ *   a database file in the current directory or {@code mem:cdi} for a database that
+ *   only lasts as long as the CDI Generator is running. The server and port are not used.
+ * </p>
+ * 
+ * <p>
+ *   The MIKADO tables are created if they don't exist, following the layout in
+ *   {@code Documentation/NEMO_MIKADO_setup/SOCATv3.md}. The platforms, fixed values
+ *   and parameters tables are created empty, and must be filled in before the
+ *   generator is run, as they would be for MySQL.
+ * </p>
+ * 
+ * @author Steve Jones
+ *
+ */
+public class H2Dialect extends SqlDialect {
+	
+	/**
+	 * The statements that create the MIKADO tables
+	 */
+	private static final List<String> SCHEMA_STATEMENTS = Arrays.asList(
+			"CREATE TABLE IF NOT EXISTS cdi_summary ("
+			+ "local_cdi_id VARCHAR(80) NOT NULL PRIMARY KEY, "
+			+ "platform_id BIGINT, "
+			+ "dataset_name VARCHAR(80), "
+			+ "dataset_id VARCHAR(255), "
+			+ "doi VARCHAR(255), "
+			+ "doi_url VARCHAR(255), "
+			+ "abstract VARCHAR(1000000), "
+			+ "holding_centre VARCHAR(20), "
+			+ "cruise_name VARCHAR(255), "
+			+ "cruise_start_date DATE, "
+			+ "west_longitude DOUBLE, "
+			+ "east_longitude DOUBLE, "
+			+ "south_latitude DOUBLE, "
+			+ "north_latitude DOUBLE, "
+			+ "start_date BIGINT, "
+			+ "end_date BIGINT, "
+			+ "min_depth DOUBLE, "
+			+ "max_depth DOUBLE, "
+			+ "distribution_data_size VARCHAR(20), "
+			+ "documentation_url VARCHAR(255), "
+			+ "qc_comment VARCHAR(1000), "
+			+ "curves_description VARCHAR(1000), "
+			+ "curves_name VARCHAR(255), "
+			+ "curves_coordinates VARCHAR(1000000), "
+			+ "csr_reference VARCHAR(80))",
+			
+			"CREATE TABLE IF NOT EXISTS cdi_platforms ("
+			+ "id BIGINT NOT NULL PRIMARY KEY, "
+			+ "platform_code VARCHAR(20) NOT NULL, "
+			+ "dataset_id VARCHAR(255), "
+			+ "measuring_area_type VARCHAR(20), "
+			+ "platform_type VARCHAR(20), "
+			+ "originator VARCHAR(20), "
+			+ "start_date DATE NOT NULL, "
+			+ "end_date DATE)",
+			
+			"CREATE TABLE IF NOT EXISTS cdi_fixed_values ("
+			+ "dataset VARCHAR(80) NOT NULL PRIMARY KEY, "
+			+ "cdi_partner VARCHAR(20), "
+			+ "horizontal_datum VARCHAR(20), "
+			+ "revision_date DATE, "
+			+ "holding_centre VARCHAR(20), "
+			+ "access_restriction VARCHAR(20), "
+			+ "distributor VARCHAR(20), "
+			+ "format_name VARCHAR(80), "
+			+ "format_version VARCHAR(20), "
+			+ "qc_name VARCHAR(80), "
+			+ "qc_date DATE)",
+			
+			"CREATE TABLE IF NOT EXISTS cdi_parameters ("
+			+ "dataset VARCHAR(80) NOT NULL, "
+			+ "parameter VARCHAR(20) NOT NULL, "
+			+ "PRIMARY KEY (dataset, parameter))");
+	
+	@Override
+	public String getName() {
+		return "h2";
+	}
+	
+	@Override
+	public String getConnectionUrl(String server, int port, String database) {
+		return "jdbc:h2:" + database;
+	}
+	
+	/**
+	 * Uses H2's {@code MERGE INTO ... KEY}, which updates the record
+	 * with the same key if there is one and inserts a new record if not.
+	 */
+	@Override
+	public String getUpsertStatement(String table, String keyColumn, List<String> columns, int rows) {
+		StringBuilder statement = new StringBuilder();
+		
+		statement.append("MERGE INTO ");
+		statement.append(table);
+		statement.append(" (");
+		statement.append(columnList(columns));
+		statement.append(") KEY (");
+		statement.append(keyColumn);
+		statement.append(") VALUES ");
+		statement.append(parameterRows(columns.size(), rows));
+		
+		return statement.toString();
+	}
+	
+	@Override
+	public List<String> getCreateStagingTableStatements(String table, String keyColumn, String stagingTable) {
+		return Arrays.asList(
+				"DROP TABLE IF EXISTS " + stagingTable,
+				"CREATE TABLE " + stagingTable + " AS SELECT * FROM " + table + " WITH NO DATA",
+				"ALTER TABLE " + stagingTable + " ALTER COLUMN " + keyColumn + " SET NOT NULL",
+				"ALTER TABLE " + stagingTable + " ADD PRIMARY KEY (" + keyColumn + ")");
+	}
+	
+	/**
+	 * H2 can only rename one table at a time, so there is a brief moment
+	 * when each table doesn't exist. That doesn't matter for an embedded
+	 * database, which nothing else can connect to.
+	 */
+	@Override
+	public List<String> getSwapTableStatements(List<String> tables, List<String> stagingTables, List<String> oldTables) {
+		List<String> statements = new ArrayList<String>();
+		
+		for (int i = 0; i < tables.size(); i++) {
+			statements.add("DROP TABLE IF EXISTS " + oldTables.get(i));
+			statements.add("ALTER TABLE " + tables.get(i) + " RENAME TO " + oldTables.get(i));
+			statements.add("ALTER TABLE " + stagingTables.get(i) + " RENAME TO " + tables.get(i));
+			statements.add("DROP TABLE " + oldTables.get(i));
+		}
+		
+		return statements;
+	}
+	
+	@Override
+	public String getUpsertQueryStatement(String table, String keyColumn, List<String> columns, String query) {
+		return "MERGE INTO " + table + " (" + columnList(columns) + ") KEY (" + keyColumn + ") " + query;
+	}
+	
+	@Override
+	public String getUtcTimestampExpression(String column) {
+		return "FORMATDATETIME(DATEADD(SECOND, " + column + ", TIMESTAMP WITH TIME ZONE '1970-01-01 00:00:00+00'), "
+				+ "'yyyy-MM-dd''T''HH:mm:ss.SSS''Z''', 'en', 'UTC')";
+	}
+	
+	@Override
+	public List<String> getSchemaStatements() {
+		return SCHEMA_STATEMENTS;
+	}
+}
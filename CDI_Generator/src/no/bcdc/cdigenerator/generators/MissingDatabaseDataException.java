@@ -1,6 +1,5 @@
 package no.bcdc.cdigenerator.generators;
 
-import java.text.SimpleDateFormat;
 import java.time.LocalDate;
 
 /**
@@ -40,7 +39,7 @@ public class MissingDatabaseDataException extends Exception {
 		StringBuilder message = new StringBuilder("The platform ID for platform ");
 		message.append(platformCode);
 		message.append(" and start date ");
-		message.append(new SimpleDateFormat("yyy-MM-dd").format(startDate));
+		message.append(startDate.toString());
 		
 		if (null != datasetId) {
 			message.append(" for dataset ID ");
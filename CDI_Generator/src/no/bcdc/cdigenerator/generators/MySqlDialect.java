@@ -0,0 +1,138 @@
+package no.bcdc.cdigenerator.generators;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SQL for MySQL databases
+ * @author Steve Jones
+ *
+ */
+public class MySqlDialect extends SqlDialect {
+	
+	/**
+	 * The alias for the new values of a record in an upsert
+	 */
+	private static final String NEW_ROW_ALIAS = "new_row";
+	
+	@Override
+	public String getName() {
+		return "mysql";
+	}
+	
+	@Override
+	public String getConnectionUrl(String server, int port, String database) {
+		return "jdbc:mysql://" + server + ':' + port + '/' + database;
+	}
+	
+	/**
+	 * Uses {@code INSERT ... ON DUPLICATE KEY UPDATE}, which replaces
+	 * the record in place without deleting it first. The new values are
+	 * given a row alias, which needs MySQL 8.0.19 or later.
+	 */
+	@Override
+	public String getUpsertStatement(String table, String keyColumn, List<String> columns, int rows) {
+		StringBuilder statement = new StringBuilder();
+		
+		statement.append("INSERT INTO ");
+		statement.append(table);
+		statement.append(" (");
+		statement.append(columnList(columns));
+		statement.append(") VALUES ");
+		statement.append(parameterRows(columns.size(), rows));
+		statement.append(" AS ");
+		statement.append(NEW_ROW_ALIAS);
+		appendUpdateClause(statement, table, keyColumn, columns);
+		
+		return statement.toString();
+	}
+	
+	/**
+	 * The query is wrapped in a derived table, so the update clause can refer
+	 * to its columns by name without them being confused with the columns of
+	 * the tables it reads.
+	 */
+	@Override
+	public String getUpsertQueryStatement(String table, String keyColumn, List<String> columns, String query) {
+		StringBuilder statement = new StringBuilder();
+		
+		statement.append("INSERT INTO ");
+		statement.append(table);
+		statement.append(" (");
+		statement.append(columnList(columns));
+		statement.append(") SELECT * FROM (");
+		statement.append(query);
+		statement.append(") AS ");
+		statement.append(NEW_ROW_ALIAS);
+		appendUpdateClause(statement, table, keyColumn, columns);
+		
+		return statement.toString();
+	}
+	
+	@Override
+	public String getUtcTimestampExpression(String column) {
+		return "DATE_FORMAT(CONVERT_TZ(FROM_UNIXTIME(" + column + "), @@session.time_zone, '+00:00'), '%Y-%m-%dT%H:%i:%S.000Z')";
+	}
+	
+	/**
+	 * Add the {@code ON DUPLICATE KEY UPDATE} clause to an insert statement,
+	 * copying each column from the new values with the row alias
+	 * @param statement The statement
+	 * @param table The table name
+	 * @param keyColumn The name of the key column
+	 * @param columns The names of all the columns, including the key
+	 */
+	private void appendUpdateClause(StringBuilder statement, String table, String keyColumn, List<String> columns) {
+		statement.append(" ON DUPLICATE KEY UPDATE ");
+		
+		boolean first = true;
+		for (String column : columns) {
+			if (!column.equals(keyColumn)) {
+				if (!first) {
+					statement.append(", ");
+				}
+				statement.append(table);
+				statement.append('.');
+				statement.append(column);
+				statement.append(" = ");
+				statement.append(NEW_ROW_ALIAS);
+				statement.append('.');
+				statement.append(column);
+				first = false;
+			}
+		}
+	}
+	
+	@Override
+	public List<String> getCreateStagingTableStatements(String table, String keyColumn, String stagingTable) {
+		return Arrays.asList(
+				"DROP TABLE IF EXISTS " + stagingTable,
+				"CREATE TABLE " + stagingTable + " LIKE " + table);
+	}
+	
+	/**
+	 * A single {@code RENAME TABLE} swaps all the tables atomically, so
+	 * other connections see either the old tables or the new ones.
+	 */
+	@Override
+	public List<String> getSwapTableStatements(List<String> tables, List<String> stagingTables, List<String> oldTables) {
+		List<String> statements = new ArrayList<String>();
+		
+		StringBuilder rename = new StringBuilder("RENAME TABLE ");
+		for (int i = 0; i < tables.size(); i++) {
+			statements.add("DROP TABLE IF EXISTS " + oldTables.get(i));
+			if (i > 0) {
+				rename.append(", ");
+			}
+			rename.append(tables.get(i) + " TO " + oldTables.get(i) + ", " + stagingTables.get(i) + " TO " + tables.get(i));
+		}
+		statements.add(rename.toString());
+		
+		for (String oldTable : oldTables) {
+			statements.add("DROP TABLE " + oldTable);
+		}
+		
+		return statements;
+	}
+}
@@ -0,0 +1,270 @@
+package no.bcdc.cdigenerator.generators;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory copy of the {@code cdi_platforms} table, for finding platform IDs
+ * without querying the database for every data set.
+ * 
+ * <p>
+ *   Platforms can change hands over time, so each platform code has a set of
+ *   records with the date from which each one applies. A record can also apply
+ *   to one data set only, which overrides the general records for that data set.
+ *   The records for each platform are sorted by start date so the right one can be
+ *   found with a binary search.
+ * </p>
+ * 
+ * <p>
+ *   The index does not change once it is built. Call {@link CDIDB#refreshPlatforms()}
+ *   to load a new copy if the table is changed.
+ * </p>
+ * 
+ * @author Steve Jones
+ *
+ */
+public class PlatformIndex {
+	
+	/**
+	 * Query for all the platform records
+	 */
+	private static final String GET_PLATFORMS_QUERY = "SELECT id, platform_code, start_date, dataset_id FROM cdi_platforms";
+	
+	/**
+	 * The general records for each platform code
+	 */
+	private Map<String, Intervals> platforms = new HashMap<String, Intervals>();
+	
+	/**
+	 * The data set specific records for each platform code, keyed by platform code and then data set ID
+	 */
+	private Map<String, Map<String, Intervals>> overrides = new HashMap<String, Map<String, Intervals>>();
+	
+	/**
+	 * Load the index from the database
+	 * @param connection The database connection
+	 * @return The index
+	 * @throws SQLException If the platform records cannot be read
+	 */
+	public static PlatformIndex load(Connection connection) throws SQLException {
+		
+		Map<String, List<Record>> generalRecords = new HashMap<String, List<Record>>();
+		Map<String, Map<String, List<Record>>> overrideRecords = new HashMap<String, Map<String, List<Record>>>();
+		
+		PreparedStatement stmt = null;
+		ResultSet records = null;
+		
+		try {
+			stmt = connection.prepareStatement(GET_PLATFORMS_QUERY);
+			records = stmt.executeQuery();
+			
+			while (records.next()) {
+				Record record = new Record(records.getDate(3).toLocalDate().toEpochDay(), records.getLong(1));
+				String platformCode = records.getString(2);
+				String datasetId = records.getString(4);
+				
+				List<Record> list;
+				if (null == datasetId || datasetId.length() == 0) {
+					list = generalRecords.get(platformCode);
+					if (null == list) {
+						list = new ArrayList<Record>();
+						generalRecords.put(platformCode, list);
+					}
+				} else {
+					Map<String, List<Record>> platformOverrides = overrideRecords.get(platformCode);
+					if (null == platformOverrides) {
+						platformOverrides = new HashMap<String, List<Record>>();
+						overrideRecords.put(platformCode, platformOverrides);
+					}
+					
+					list = platformOverrides.get(datasetId);
+					if (null == list) {
+						list = new ArrayList<Record>();
+						platformOverrides.put(datasetId, list);
+					}
+				}
+				
+				list.add(record);
+			}
+		} finally {
+			if (null != records) {
+				records.close();
+			}
+			if (null != stmt) {
+				stmt.close();
+			}
+		}
+		
+		PlatformIndex index = new PlatformIndex();
+		
+		for (Map.Entry<String, List<Record>> entry : generalRecords.entrySet()) {
+			index.platforms.put(entry.getKey(), new Intervals(entry.getValue()));
+		}
+		
+		for (Map.Entry<String, Map<String, List<Record>>> entry : overrideRecords.entrySet()) {
+			Map<String, Intervals> platformOverrides = new HashMap<String, Intervals>();
+			for (Map.Entry<String, List<Record>> datasetEntry : entry.getValue().entrySet()) {
+				platformOverrides.put(datasetEntry.getKey(), new Intervals(datasetEntry.getValue()));
+			}
+			index.overrides.put(entry.getKey(), platformOverrides);
+		}
+		
+		return index;
+	}
+	
+	/**
+	 * The index can only be built by {@link #load(Connection)}
+	 */
+	private PlatformIndex() {
+		// Nothing to do
+	}
+	
+	/**
+	 * Get the platform ID for a platform code, data set start date and data set.
+	 * A record for the specific data set is used if there is one; otherwise the
+	 * general record that applies on the start date is used.
+	 * @param platformCode The platform code
+	 * @param startDate The start date of the data set
+	 * @param datasetId The data set ID
+	 * @return The platform ID
+	 * @throws MissingDatabaseDataException If there is no record for the platform on the start date
+	 */
+	public long getPlatformId(String platformCode, LocalDate startDate, String datasetId) throws MissingDatabaseDataException {
+		
+		long day = startDate.toEpochDay();
+		long result = -1;
+		
+		Map<String, Intervals> platformOverrides = overrides.get(platformCode);
+		if (null != platformOverrides && null != datasetId) {
+			Intervals datasetIntervals = platformOverrides.get(datasetId);
+			if (null != datasetIntervals) {
+				result = datasetIntervals.find(day);
+			}
+		}
+		
+		if (result == -1) {
+			Intervals intervals = platforms.get(platformCode);
+			if (null != intervals) {
+				result = intervals.find(day);
+			}
+		}
+		
+		if (result == -1) {
+			if (null == platformOverrides) {
+				throw new MissingDatabaseDataException(platformCode, startDate, null);
+			} else {
+				throw new MissingDatabaseDataException(platformCode, startDate, datasetId);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Get the number of platform codes in the index
+	 * @return The number of platform codes
+	 */
+	public int size() {
+		int result = platforms.size();
+		for (String platformCode : overrides.keySet()) {
+			if (!platforms.containsKey(platformCode)) {
+				result++;
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * A platform record from the database
+	 */
+	private static class Record implements Comparable<Record> {
+		
+		/**
+		 * The start date, as a day number
+		 */
+		private long startDay;
+		
+		/**
+		 * The platform ID
+		 */
+		private long id;
+		
+		/**
+		 * Constructor
+		 * @param startDay The start date, as a day number
+		 * @param id The platform ID
+		 */
+		private Record(long startDay, long id) {
+			this.startDay = startDay;
+			this.id = id;
+		}
+		
+		@Override
+		public int compareTo(Record other) {
+			return Long.compare(startDay, other.startDay);
+		}
+	}
+	
+	/**
+	 * The records for a platform, sorted by start date
+	 */
+	private static class Intervals {
+		
+		/**
+		 * The start dates, as day numbers
+		 */
+		private long[] startDays;
+		
+		/**
+		 * The platform IDs for each start date
+		 */
+		private long[] ids;
+		
+		/**
+		 * Build the intervals from a set of records
+		 * @param records The records
+		 */
+		private Intervals(List<Record> records) {
+			Collections.sort(records);
+			startDays = new long[records.size()];
+			ids = new long[records.size()];
+			for (int i = 0; i < records.size(); i++) {
+				startDays[i] = records.get(i).startDay;
+				ids[i] = records.get(i).id;
+			}
+		}
+		
+		/**
+		 * Find the record that applies on a given day, i.e. the
+		 * one with the latest start date on or before that day
+		 * @param day The day number
+		 * @return The platform ID, or -1 if no record applies
+		 */
+		private long find(long day) {
+			long result = -1;
+			
+			int lo = 0;
+			int hi = startDays.length - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if (startDays[mid] <= day) {
+					result = ids[mid];
+					lo = mid + 1;
+				} else {
+					hi = mid - 1;
+				}
+			}
+			
+			return result;
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package no.bcdc.cdigenerator.generators;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A database connection borrowed from a {@link ConnectionPool}.
+ *
+ * <p>
+ *   Prepared statements are kept for as long as the connection is open, so each
+ *   statement is only prepared once per connection. The statements belong to the
+ *   connection and must not be closed by the code that uses them.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class PooledConnection {
+	
+	/**
+	 * The SQLSTATE class for connection errors
+	 */
+	private static final String CONNECTION_ERROR_CLASS = "08";
+	
+	/**
+	 * The database connection
+	 */
+	private Connection connection;
+	
+	/**
+	 * The prepared statements, keyed by SQL
+	 */
+	private Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+	
+	/**
+	 * The time that the connection was last released to the pool
+	 */
+	private long lastUsed;
+	
+	/**
+	 * Indicates whether the connection has failed and must be replaced
+	 */
+	private boolean broken = false;
+	
+	/**
+	 * Constructor
+	 * @param connection The database connection
+	 */
+	protected PooledConnection(Connection connection) {
+		this.connection = connection;
+		this.lastUsed = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Get the database connection
+	 * @return The database connection
+	 */
+	public Connection getConnection() {
+		return connection;
+	}
+	
+	/**
+	 * Get the prepared statement for some SQL, preparing it if this connection hasn't used it before
+	 * @param sql The SQL
+	 * @return The statement
+	 * @throws SQLException If the statement cannot be prepared
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = statements.get(sql);
+		if (null == stmt) {
+			try {
+				stmt = connection.prepareStatement(sql);
+			} catch (SQLException e) {
+				failed(e);
+				throw e;
+			}
+			statements.put(sql, stmt);
+		}
+		
+		return stmt;
+	}
+	
+	/**
+	 * Record an error raised while using the connection. If the error means
+	 * that the connection itself has failed, the connection will be replaced
+	 * when it is released.
+	 * @param e The error
+	 */
+	public void failed(SQLException e) {
+		String state = e.getSQLState();
+		if (null != state && state.startsWith(CONNECTION_ERROR_CLASS)) {
+			broken = true;
+		}
+	}
+	
+	/**
+	 * Determine whether the connection has failed
+	 * @return {@code true} if the connection has failed; {@code false} otherwise
+	 */
+	protected boolean isBroken() {
+		return broken;
+	}
+	
+	/**
+	 * Get the time that the connection was last released to the pool
+	 * @return The time
+	 */
+	protected long getLastUsed() {
+		return lastUsed;
+	}
+	
+	/**
+	 * Set the time that the connection was last released to the pool
+	 * @param lastUsed The time
+	 */
+	protected void setLastUsed(long lastUsed) {
+		this.lastUsed = lastUsed;
+	}
+	
+	/**
+	 * Put the connection back into auto-commit mode, rolling back any transaction
+	 * that was left open. The connection is marked as broken if this fails.
+	 */
+	protected void reset() {
+		try {
+			if (!connection.getAutoCommit()) {
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			broken = true;
+		}
+	}
+	
+	/**
+	 * Close the statements and the connection, ignoring any errors
+	 */
+	protected void discard() {
+		for (PreparedStatement stmt : statements.values()) {
+			try {
+				stmt.close();
+			} catch (SQLException e) {
+				// Do nothing
+			}
+		}
+		statements.clear();
+		
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			// Do nothing
+		}
+	}
+}
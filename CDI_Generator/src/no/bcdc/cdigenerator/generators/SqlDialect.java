@@ -0,0 +1,200 @@
+package no.bcdc.cdigenerator.generators;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The SQL that differs between the databases the CDI Generator can write to.
+ * The dialect is chosen with the {@code db.dialect} configuration setting.
+ * @author Steve Jones
+ *
+ */
+public abstract class SqlDialect {
+	
+	/**
+	 * The names of the available dialects
+	 */
+	private static final List<String> DIALECT_NAMES = Arrays.asList("mysql", "h2");
+	
+	/**
+	 * Get a dialect by name
+	 * @param name The dialect name
+	 * @return The dialect, or {@code null} if there is no dialect with that name
+	 */
+	public static SqlDialect getDialect(String name) {
+		SqlDialect result = null;
+		
+		switch (name.toLowerCase()) {
+		case "mysql": {
+			result = new MySqlDialect();
+			break;
+		}
+		case "h2": {
+			result = new H2Dialect();
+			break;
+		}
+		default: {
+			result = null;
+		}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Get the names of the available dialects
+	 * @return The dialect names
+	 */
+	public static List<String> getDialectNames() {
+		return DIALECT_NAMES;
+	}
+	
+	/**
+	 * Get the name of this dialect
+	 * @return The dialect name
+	 */
+	public abstract String getName();
+	
+	/**
+	 * Build the JDBC URL for a database
+	 * @param server The database server
+	 * @param port The database port
+	 * @param database The database name
+	 * @return The JDBC URL
+	 */
+	public abstract String getConnectionUrl(String server, int port, String database);
+	
+	/**
+	 * Build a statement that inserts a record, or replaces the existing record
+	 * with the same key, in a single statement. The statement takes one
+	 * parameter for each column, in the order given.
+	 * @param table The table name
+	 * @param keyColumn The name of the key column
+	 * @param columns The names of all the columns, including the key
+	 * @return The statement
+	 */
+	public String getUpsertStatement(String table, String keyColumn, List<String> columns) {
+		return getUpsertStatement(table, keyColumn, columns, 1);
+	}
+	
+	/**
+	 * Build a statement that inserts or replaces several records in a single statement.
+	 * The statement takes one parameter for each column of each record: all the
+	 * columns of the first record, in the order given, then all the columns
+	 * of the second record, and so on.
+	 * @param table The table name
+	 * @param keyColumn The name of the key column
+	 * @param columns The names of all the columns, including the key
+	 * @param rows The number of records
+	 * @return The statement
+	 */
+	public abstract String getUpsertStatement(String table, String keyColumn, List<String> columns, int rows);
+	
+	/**
+	 * Get the statements that create an empty staging table with the same
+	 * columns and key as an existing table, replacing any staging table
+	 * left behind by an earlier run
+	 * @param table The existing table
+	 * @param keyColumn The name of the key column
+	 * @param stagingTable The name of the staging table
+	 * @return The statements
+	 */
+	public abstract List<String> getCreateStagingTableStatements(String table, String keyColumn, String stagingTable);
+	
+	/**
+	 * Get the statements that replace a set of tables with their staging tables.
+	 * The old tables are renamed out of the way and then dropped. The lists
+	 * must all be the same length.
+	 * @param tables The tables to be replaced
+	 * @param stagingTables The staging table for each table
+	 * @param oldTables The name given to each old table before it is dropped
+	 * @return The statements
+	 */
+	public abstract List<String> getSwapTableStatements(List<String> tables, List<String> stagingTables, List<String> oldTables);
+	
+	/**
+	 * Build a statement that inserts the records returned by a query, replacing
+	 * any existing records with the same keys. The query must return the columns
+	 * in the order given, named after the table's columns.
+	 * @param table The table name
+	 * @param keyColumn The name of the key column
+	 * @param columns The names of all the columns, including the key
+	 * @param query The query
+	 * @return The statement
+	 */
+	public abstract String getUpsertQueryStatement(String table, String keyColumn, List<String> columns, String query);
+	
+	/**
+	 * Build an expression that formats a time, stored as seconds since the epoch,
+	 * as an ISO 8601 UTC timestamp, e.g. {@code 2015-06-01T12:30:00.000Z}
+	 * @param column The column containing the time
+	 * @return The expression
+	 */
+	public abstract String getUtcTimestampExpression(String column);
+	
+	/**
+	 * Get the statements that create any missing tables when the generator connects
+	 * to the database. By default there are none, and the tables must be set up
+	 * by hand as described in the MIKADO setup documentation.
+	 * @return The statements
+	 */
+	public List<String> getSchemaStatements() {
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * Build a comma separated list of column names
+	 * @param columns The column names
+	 * @return The column list
+	 */
+	protected static String columnList(List<String> columns) {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < columns.size(); i++) {
+			if (i > 0) {
+				result.append(", ");
+			}
+			result.append(columns.get(i));
+		}
+		
+		return result.toString();
+	}
+	
+	/**
+	 * Build a comma separated list of bracketed rows of parameter markers,
+	 * for the {@code VALUES} clause of a statement
+	 * @param columns The number of columns in each row
+	 * @param rows The number of rows
+	 * @return The rows
+	 */
+	protected static String parameterRows(int columns, int rows) {
+		String row = '(' + parameterList(columns) + ')';
+		
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < rows; i++) {
+			if (i > 0) {
+				result.append(", ");
+			}
+			result.append(row);
+		}
+		
+		return result.toString();
+	}
+	
+	/**
+	 * Build a comma separated list of parameter markers
+	 * @param count The number of parameters
+	 * @return The parameter list
+	 */
+	protected static String parameterList(int count) {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				result.append(", ");
+			}
+			result.append('?');
+		}
+		
+		return result.toString();
+	}
+}
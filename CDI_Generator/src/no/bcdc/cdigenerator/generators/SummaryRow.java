@@ -0,0 +1,114 @@
+package no.bcdc.cdigenerator.generators;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The column values of a CDI summary, ready to be written to the database.
+ *
+ * <p>
+ *   A row is a snapshot: it holds plain values that don't depend on the importer,
+ *   and it can't be changed once it is created, so it can be handed to another
+ *   thread while the importer moves on to the next data set.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public final class SummaryRow {
+	
+	/**
+	 * The Local CDI ID
+	 */
+	private final String localCdiId;
+	
+	/**
+	 * The column values
+	 */
+	private final Object[] values;
+	
+	/**
+	 * The fingerprint of the column values
+	 */
+	private final String fingerprint;
+	
+	/**
+	 * Constructor
+	 * @param localCdiId The Local CDI ID
+	 * @param values The column values, in column order
+	 */
+	public SummaryRow(String localCdiId, Object[] values) {
+		this.localCdiId = localCdiId;
+		this.values = values.clone();
+		this.fingerprint = fingerprint(this.values);
+	}
+	
+	/**
+	 * Get the Local CDI ID
+	 * @return The Local CDI ID
+	 */
+	public String getLocalCdiId() {
+		return localCdiId;
+	}
+	
+	/**
+	 * Get the number of column values
+	 * @return The number of values
+	 */
+	public int size() {
+		return values.length;
+	}
+	
+	/**
+	 * Get a column value
+	 * @param index The index of the column
+	 * @return The value
+	 */
+	public Object getValue(int index) {
+		return values[index];
+	}
+	
+	/**
+	 * Get the fingerprint of the column values. Two rows with the same
+	 * fingerprint will produce the same record in the database.
+	 * @return The fingerprint
+	 */
+	public String getFingerprint() {
+		return fingerprint;
+	}
+	
+	/**
+	 * Calculate a fingerprint of a CDI summary's values, so it can be compared with
+	 * the summary in the database. Values are compared as text, and numbers are
+	 * compared by value regardless of their type.
+	 * @param values The values
+	 * @return The fingerprint
+	 */
+	protected static String fingerprint(Object[] values) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			
+			for (Object value : values) {
+				String text;
+				if (null == value) {
+					text = "\u0000";
+				} else if (value instanceof Number) {
+					text = new BigDecimal(value.toString()).stripTrailingZeros().toPlainString();
+				} else {
+					text = value.toString();
+				}
+				
+				digest.update(text.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0x1F);
+			}
+			
+			return new BigInteger(1, digest.digest()).toString(16);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java implementation has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+}
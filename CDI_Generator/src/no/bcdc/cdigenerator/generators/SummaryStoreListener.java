@@ -0,0 +1,25 @@
+package no.bcdc.cdigenerator.generators;
+
+/**
+ * Receives the outcome of storing a CDI summary. Summaries are written to
+ * the database in batches by a {@link SummaryWriter}, so the outcome is reported
+ * some time after the summary was handed to {@link CDIDB#storeCdiSummary(CDISummary, SummaryStoreListener)},
+ * on the writer thread. If the writer has stopped, failures may be reported on another thread.
+ * @author Steve Jones
+ *
+ */
+public interface SummaryStoreListener {
+	
+	/**
+	 * Called when a CDI summary has been committed to the database
+	 * @param localCdiId The Local CDI ID of the summary
+	 */
+	public void summaryStored(String localCdiId);
+	
+	/**
+	 * Called when a CDI summary could not be stored
+	 * @param localCdiId The Local CDI ID of the summary
+	 * @param error The error that prevented it from being stored
+	 */
+	public void summaryFailed(String localCdiId, DatabaseException error);
+}
@@ -0,0 +1,274 @@
+package no.bcdc.cdigenerator.generators;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import no.bcdc.cdigenerator.CDIGenerator;
+
+/**
+ * Writes CDI summaries to the database on a dedicated thread.
+ *
+ * <p>
+ *   Summaries are handed over through a bounded queue, so the threads that
+ *   produce them only wait for the database when the queue is full. The writer
+ *   collects summaries into batches, and writes a batch when it is full or when
+ *   its oldest summary has waited for the flush interval. The outcome for each
+ *   summary is reported to its listener from the writer thread.
+ * </p>
+ *
+ * <p>
+ *   If the writer thread stops for any reason, every summary that hasn't been
+ *   written is reported as failed and any threads waiting for the writer are
+ *   released. Summaries submitted after that are refused.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class SummaryWriter implements Runnable {
+	
+	/**
+	 * How often a thread waiting for the writer checks that it is still running, in milliseconds
+	 */
+	private static final long CHECK_INTERVAL = 1000;
+	
+	/**
+	 * The database that the summaries are written to
+	 */
+	private CDIDB db;
+	
+	/**
+	 * The summaries waiting to be written, and any flush requests
+	 */
+	private BlockingQueue<Object> queue;
+	
+	/**
+	 * The number of summaries written in each batch
+	 */
+	private int batchSize;
+	
+	/**
+	 * The longest time a summary waits to be written, in milliseconds
+	 */
+	private long flushInterval;
+	
+	/**
+	 * The writer thread
+	 */
+	private Thread thread;
+	
+	/**
+	 * Set when the writer thread has stopped
+	 */
+	private volatile boolean stopped = false;
+	
+	/**
+	 * Constructor. Starts the writer thread.
+	 * @param db The database that the summaries are written to
+	 * @param batchSize The number of summaries written in each batch
+	 * @param flushInterval The longest time a summary waits to be written, in milliseconds
+	 * @param capacity The number of summaries that can be waiting before {@link #submit(CDIDB.QueuedSummary)} blocks
+	 */
+	public SummaryWriter(CDIDB db, int batchSize, long flushInterval, int capacity) {
+		this.db = db;
+		this.batchSize = batchSize;
+		this.flushInterval = flushInterval;
+		this.queue = new ArrayBlockingQueue<Object>(capacity);
+		
+		thread = new Thread(this, "CDI summary writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Add a summary to the queue, waiting for space if the queue is full
+	 * @param summary The summary
+	 * @throws InterruptedException If the thread is interrupted while waiting
+	 * @throws DatabaseException If the writer has stopped
+	 */
+	protected void submit(CDIDB.QueuedSummary summary) throws InterruptedException, DatabaseException {
+		enqueue(summary);
+	}
+	
+	/**
+	 * Wait until every summary submitted so far has been written. If the
+	 * writer has stopped, this returns straight away.
+	 */
+	public void flush() {
+		waitFor(new FlushRequest(false));
+	}
+	
+	/**
+	 * Write every summary submitted so far and stop the writer thread
+	 */
+	public void close() {
+		waitFor(new FlushRequest(true));
+	}
+	
+	/**
+	 * Put a flush request on the queue and wait for the writer to reach it
+	 * @param request The request
+	 */
+	private void waitFor(FlushRequest request) {
+		try {
+			enqueue(request);
+			while (!request.done.await(CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+				if (stopped) {
+					failPending();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (DatabaseException e) {
+			// The writer has stopped, so there is nothing to wait for
+		}
+	}
+	
+	/**
+	 * Add an item to the queue, waiting for space if the queue is full.
+	 * The writer is checked while we wait, so we never wait for a writer that has stopped.
+	 * @param item The item
+	 * @throws InterruptedException If the thread is interrupted while waiting
+	 * @throws DatabaseException If the writer has stopped
+	 */
+	private void enqueue(Object item) throws InterruptedException, DatabaseException {
+		boolean added = false;
+		while (!added) {
+			if (stopped) {
+				throw new DatabaseException("The CDI summary writer has stopped", null);
+			}
+			added = queue.offer(item, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+		
+		// If the writer stopped while the item was being added, nothing will take it off the queue
+		if (stopped) {
+			failPending();
+		}
+	}
+	
+	@Override
+	public void run() {
+		
+		// Summaries for the same ID replace each other until the batch is written
+		LinkedHashMap<String, CDIDB.QueuedSummary> batch = new LinkedHashMap<String, CDIDB.QueuedSummary>();
+		long deadline = 0;
+		boolean stop = false;
+		
+		try {
+			while (!stop) {
+				Object item;
+				if (batch.isEmpty()) {
+					item = queue.take();
+				} else {
+					item = queue.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+				}
+				
+				if (null == item) {
+					write(batch);
+				} else if (item instanceof FlushRequest) {
+					FlushRequest request = (FlushRequest) item;
+					write(batch);
+					stop = request.close;
+					request.done.countDown();
+				} else {
+					CDIDB.QueuedSummary summary = (CDIDB.QueuedSummary) item;
+					if (batch.isEmpty()) {
+						deadline = System.currentTimeMillis() + flushInterval;
+					}
+					
+					// A replaced summary is never written, so it shares the outcome of the one that replaced it
+					summary.replaced = batch.put(summary.row.getLocalCdiId(), summary);
+					
+					if (batch.size() >= batchSize) {
+						write(batch);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			CDIGenerator.getLogger().warning("CDI summary writer interrupted. " + batch.size() + " summaries were not written\n");
+		} catch (Throwable e) {
+			CDIGenerator.getLogger().log(Level.SEVERE, "CDI summary writer failed", e);
+		} finally {
+			stopped = true;
+			failUnreported(batch.values(), "The CDI summary writer has stopped");
+			failPending();
+		}
+	}
+	
+	/**
+	 * Write a batch of summaries and empty it
+	 * @param batch The batch
+	 */
+	private void write(LinkedHashMap<String, CDIDB.QueuedSummary> batch) {
+		if (!batch.isEmpty()) {
+			try {
+				db.writeSummaries(new ArrayList<CDIDB.QueuedSummary>(batch.values()));
+			} catch (RuntimeException e) {
+				// Report the summaries that weren't reached, and carry on with the next batch
+				CDIGenerator.getLogger().log(Level.SEVERE, "Error in CDI summary writer", e);
+				failUnreported(batch.values(), "Error while storing CDI Summary");
+			}
+			batch.clear();
+		}
+	}
+	
+	/**
+	 * Report every summary in a collection whose outcome hasn't been reported as failed
+	 * @param summaries The summaries
+	 * @param message The error message
+	 */
+	private void failUnreported(Collection<CDIDB.QueuedSummary> summaries, String message) {
+		for (CDIDB.QueuedSummary summary : summaries) {
+			if (!summary.isReported()) {
+				summary.failed(new DatabaseException(message, null));
+			}
+		}
+	}
+	
+	/**
+	 * Take everything off the queue once the writer has stopped. The
+	 * summaries are reported as failed and the flush requests are released.
+	 * This can be called from any thread.
+	 */
+	private void failPending() {
+		Object item = queue.poll();
+		while (null != item) {
+			if (item instanceof FlushRequest) {
+				((FlushRequest) item).done.countDown();
+			} else {
+				((CDIDB.QueuedSummary) item).failed(new DatabaseException("The CDI summary writer has stopped", null));
+			}
+			item = queue.poll();
+		}
+	}
+	
+	/**
+	 * A request to write all the summaries ahead of it in the queue
+	 */
+	private static class FlushRequest {
+		
+		/**
+		 * Indicates whether the writer should stop after the flush
+		 */
+		private boolean close;
+		
+		/**
+		 * Released when the flush is complete
+		 */
+		private CountDownLatch done = new CountDownLatch(1);
+		
+		/**
+		 * Constructor
+		 * @param close Indicates whether the writer should stop after the flush
+		 */
+		private FlushRequest(boolean close) {
+			this.close = close;
+		}
+	}
+}
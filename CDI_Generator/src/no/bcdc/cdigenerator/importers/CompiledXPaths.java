@@ -0,0 +1,78 @@
+package no.bcdc.cdigenerator.importers;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+
+/**
+ * A registry of compiled XPath expressions.
+ *
+ * <p>
+ *   Compiling an XPath is much more expensive than evaluating it, so each
+ *   expression is compiled the first time it is used and then reused.
+ *   Compiled expressions are not thread safe, so each thread has its own set.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class CompiledXPaths {
+	
+	/**
+	 * The namespace context for the expressions
+	 */
+	private NamespaceContext namespaceContext;
+	
+	/**
+	 * The compiled expressions for each thread, keyed by XPath
+	 */
+	private ThreadLocal<Map<String, XPathExpression>> expressions = new ThreadLocal<Map<String, XPathExpression>>() {
+		@Override
+		protected Map<String, XPathExpression> initialValue() {
+			return new HashMap<String, XPathExpression>();
+		}
+	};
+	
+	/**
+	 * The XPath compiler for each thread
+	 */
+	private ThreadLocal<XPath> compilers = new ThreadLocal<XPath>() {
+		@Override
+		protected XPath initialValue() {
+			XPath xPath = XmlParsers.newXPath();
+			if (null != namespaceContext) {
+				xPath.setNamespaceContext(namespaceContext);
+			}
+			return xPath;
+		}
+	};
+	
+	/**
+	 * Constructor
+	 * @param namespaceContext The namespace context for the expressions, or {@code null} if there isn't one
+	 */
+	public CompiledXPaths(NamespaceContext namespaceContext) {
+		this.namespaceContext = namespaceContext;
+	}
+	
+	/**
+	 * Get the compiled expression for an XPath, compiling it if this thread hasn't used it before
+	 * @param xPath The XPath
+	 * @return The compiled expression
+	 * @throws XPathExpressionException If the XPath is invalid
+	 */
+	public XPathExpression get(String xPath) throws XPathExpressionException {
+		Map<String, XPathExpression> threadExpressions = expressions.get();
+		XPathExpression result = threadExpressions.get(xPath);
+		if (null == result) {
+			result = compilers.get().compile(xPath);
+			threadExpressions.put(xPath, result);
+		}
+		
+		return result;
+	}
+}
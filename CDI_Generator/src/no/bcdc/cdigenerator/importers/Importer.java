@@ -1,12 +1,21 @@
 package no.bcdc.cdigenerator.importers;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.text.DecimalFormat;
 import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import no.bcdc.cdigenerator.CDIGenerator;
@@ -36,6 +45,28 @@ public abstract class Importer {
 	 */
 	private static final int STATE_TAG = 1;
 	
+	/**
+	 * The cache entry type for data
+	 */
+	protected static final String DATA_CACHE_TYPE = "data";
+	
+	/**
+	 * The cache entry type for metadata
+	 */
+	protected static final String METADATA_CACHE_TYPE = "metadata";
+	
+	/**
+	 * Threads for retrieving data and metadata in the background
+	 */
+	private static final ExecutorService RETRIEVAL_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Data retrieval");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
 	/**
 	 * The configuration
 	 */
@@ -46,6 +77,11 @@ public abstract class Importer {
 	 */
 	protected Generator generator;
 	
+	/**
+	 * The ID of the data set currently being retrieved
+	 */
+	protected String currentDataSetId = null;
+	
 	/**
 	 * The data set's data, as retrieved from the data source
 	 */
@@ -66,17 +102,33 @@ public abstract class Importer {
 	 */
 	protected boolean metadataCached = false;
 	
+	/**
+	 * The prefetcher for upcoming data sets, if one is in use
+	 */
+	protected Prefetcher prefetcher = null;
+	
+	/**
+	 * The cache of downloaded data and metadata
+	 */
+	protected RawDataCache cache;
+	
 	/**
 	 * The formatter for station numbers
 	 */
 	private DecimalFormat stationNumberFormatter = null;
 	
+	/**
+	 * The Local CDI ID of the current data set, once it has been built
+	 */
+	private String localCdiId = null;
+	
 	/**
 	 * The basic importer has no constructor activities
 	 */
 	public Importer(Config config) {
 		this.config = config;
 		stationNumberFormatter = new DecimalFormat("000000");
+		cache = RawDataCache.getInstance(config);
 	}
 	
 	/**
@@ -86,6 +138,15 @@ public abstract class Importer {
 		this.generator = generator;
 	}
 	
+	/**
+	 * Set the prefetcher that retrieves upcoming data sets in the background.
+	 * Set to {@code null} to retrieve all data directly.
+	 * @param prefetcher The prefetcher
+	 */
+	public void setPrefetcher(Prefetcher prefetcher) {
+		this.prefetcher = prefetcher;
+	}
+	
 	/**
 	 * Begin the importing process
 	 * @param generator The generator, so we can send/receive information to/from it.
@@ -93,14 +154,32 @@ public abstract class Importer {
 	public boolean retrieveData(String dataSetId) {
 		
 		boolean success = true;
+		Future<String> metadataRequest = null;
+		currentDataSetId = dataSetId;
+		localCdiId = null;
 		
 		try {
 			File dataFile = getDataFile(dataSetId);
 			File metadataFile = new File(config.getTempDir(), dataSetId + "_metadata");
 			
-			// Retrieve the data
-			generator.setProgressMessage("Retrieving data...");
-			data = getDataSetData(dataSetId);
+			// See if the data has already been fetched in the background
+			PrefetchedDataSet prefetched = null;
+			if (null != prefetcher) {
+				prefetched = prefetcher.take(dataSetId);
+			}
+			
+			// Retrieve the data and metadata. The metadata request runs alongside
+			// the data request, so we only have to wait for the slower of the two.
+			if (null == prefetched) {
+				generator.setProgressMessage("Retrieving data and metadata...");
+				metadataRequest = fetchDataSetMetadata(dataSetId);
+				data = awaitRetrieval(fetchDataSetData(dataSetId), "Data");
+			} else {
+				data = prefetched.getData();
+			}
+			
+			dataCached = cache.wasServedFromCache(getCacheKey(DATA_CACHE_TYPE, dataSetId));
+			
 			if (data == null) {
 				generator.setProgressMessage("Data retrieval failed. Aborting.");
 				generator.logMessage(dataSetId, "Data retrieval failed. Aborting");
@@ -117,8 +196,15 @@ public abstract class Importer {
 			}
 		
 			if (success) {
-				generator.setProgressMessage("Retrieving metadata...");
-				metadata = getDataSetMetadata(dataSetId);
+				if (null == prefetched) {
+					generator.setProgressMessage("Retrieving metadata...");
+					metadata = awaitRetrieval(metadataRequest, "Metadata");
+				} else {
+					metadata = prefetched.getMetadata();
+				}
+				
+				metadataCached = cache.wasServedFromCache(getCacheKey(METADATA_CACHE_TYPE, dataSetId));
+				
 				if (null == metadata) {
 					generator.setProgressMessage("Metadata retrieval failed. Aborting.");
 					generator.logMessage(dataSetId, "Metadata retrieval failed. Aborting");
@@ -127,6 +213,14 @@ public abstract class Importer {
 			}
 			
 			if (success) {
+				if (dataCached && metadataCached) {
+					generator.logMessage(dataSetId, "Data and metadata taken from the cache");
+				} else if (dataCached) {
+					generator.logMessage(dataSetId, "Data taken from the cache");
+				} else if (metadataCached) {
+					generator.logMessage(dataSetId, "Metadata taken from the cache");
+				}
+				
 				preprocessMetadata();
 
 				PrintWriter metadataOut = new PrintWriter(metadataFile);
@@ -141,11 +235,217 @@ public abstract class Importer {
 			generator.setProgressMessage(e.getMessage());
 			generator.logMessage(dataSetId, "Error retrieving and storing data");
 			success = false;
+		} finally {
+			// Don't leave the metadata request running if we've given up on this data set
+			if (null != metadataRequest) {
+				metadataRequest.cancel(true);
+			}
+		}
+		
+		return success;
+	}
+	
+	/**
+	 * Start retrieving the metadata for a data set so that it can be kept
+	 * for later runs, without processing the data set
+	 * @param dataSetId The data set ID
+	 * @return The metadata request
+	 * @see #completeMetadataHarvest(String, Future)
+	 */
+	public Future<String> startMetadataHarvest(String dataSetId) {
+		return fetchDataSetMetadata(dataSetId);
+	}
+	
+	/**
+	 * Wait for a metadata request started by {@link #startMetadataHarvest(String)}
+	 * to finish, and keep the retrieved metadata
+	 * @param dataSetId The data set ID
+	 * @param request The metadata request
+	 * @return {@code true} if the metadata was harvested; {@code false} if it could not be retrieved
+	 */
+	public boolean completeMetadataHarvest(String dataSetId, Future<String> request) {
+		boolean success = false;
+		
+		try {
+			String harvested = awaitRetrieval(request, "Metadata");
+			if (null == harvested) {
+				generator.logMessage(dataSetId, "Metadata retrieval failed");
+			} else {
+				keepHarvestedMetadata(dataSetId, harvested);
+				success = true;
+			}
+		} catch (DataSetNotFoundException e) {
+			generator.logMessage(dataSetId, "Data set not found");
+		} catch (ImporterException e) {
+			getLogger().log(Level.WARNING, "Error harvesting metadata for '" + dataSetId + "'", e);
+			generator.logMessage(dataSetId, "Error harvesting metadata");
 		}
 		
 		return success;
 	}
 	
+	/**
+	 * Keep harvested metadata for later runs. Retrieved metadata is
+	 * already in the download cache, so by default nothing more is done.
+	 * Importers with their own metadata store should override this.
+	 * @param dataSetId The data set ID
+	 * @param harvested The harvested metadata
+	 * @throws ImporterException If the metadata cannot be kept
+	 */
+	protected void keepHarvestedMetadata(String dataSetId, String harvested) throws ImporterException {
+		// Nothing to do
+	}
+	
+	/**
+	 * Get the number of metadata requests that should be in progress at once
+	 * when harvesting metadata
+	 * @return The number of metadata requests
+	 */
+	public int getHarvestConcurrency() {
+		return 1;
+	}
+	
+	/**
+	 * Get the data for a data set. If the cache holds a copy that has been
+	 * checked recently it is used; otherwise the data is requested from
+	 * the data source in the background.
+	 * @param dataSetId The data set ID
+	 * @return The data request
+	 */
+	protected Future<String> fetchDataSetData(String dataSetId) {
+		Future<String> result = getFreshCacheEntry(getCacheKey(DATA_CACHE_TYPE, dataSetId));
+		if (null == result) {
+			result = requestDataSetData(dataSetId);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Get the metadata for a data set. If the cache holds a copy that has been
+	 * checked recently it is used; otherwise the metadata is requested from
+	 * the data source in the background.
+	 * @param dataSetId The data set ID
+	 * @return The metadata request
+	 */
+	protected Future<String> fetchDataSetMetadata(String dataSetId) {
+		Future<String> result = getFreshCacheEntry(getCacheKey(METADATA_CACHE_TYPE, dataSetId));
+		if (null == result) {
+			result = requestDataSetMetadata(dataSetId);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Get the content of a cache entry that has been checked recently
+	 * @param key The cache key
+	 * @return The content, or {@code null} if there is no fresh entry
+	 */
+	private Future<String> getFreshCacheEntry(String key) {
+		CompletableFuture<String> result = null;
+		
+		RawDataCache.Entry entry = cache.getFresh(key);
+		if (null != entry) {
+			try {
+				result = CompletableFuture.completedFuture(entry.getContent());
+				cache.markUsed(key);
+			} catch (IOException e) {
+				// Download it again instead
+				result = null;
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Get the key under which data or metadata for a data set is cached
+	 * @param type The cache entry type ({@link #DATA_CACHE_TYPE} or {@link #METADATA_CACHE_TYPE})
+	 * @param dataSetId The data set ID
+	 * @return The cache key
+	 */
+	protected String getCacheKey(String type, String dataSetId) {
+		return RawDataCache.makeKey(getCacheNamespace(), type, dataSetId);
+	}
+	
+	/**
+	 * Get the name under which this importer's downloads are cached. Importers
+	 * that download from the same source should use the same name, so that
+	 * they can share the cached copies. The default is the importer's name.
+	 * @return The cache name
+	 */
+	protected String getCacheNamespace() {
+		return getName();
+	}
+	
+	/**
+	 * Start retrieving the data for a data set in the background.
+	 * 
+	 * The default implementation calls {@link #getDataSetData(String)} on a
+	 * background thread and stores the result in the cache. Importers that can
+	 * retrieve data without tying up a thread should override this.
+	 * 
+	 * @param dataSetId The data set ID
+	 * @return The pending data request
+	 */
+	protected Future<String> requestDataSetData(final String dataSetId) {
+		return RETRIEVAL_EXECUTOR.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				String data = getDataSetData(dataSetId);
+				cache.put(getCacheKey(DATA_CACHE_TYPE, dataSetId), data, null, null);
+				return data;
+			}
+		});
+	}
+	
+	/**
+	 * Start retrieving the metadata for a data set in the background.
+	 * 
+	 * The default implementation calls {@link #getDataSetMetadata(String)} on a
+	 * background thread and stores the result in the cache. Importers that can
+	 * retrieve metadata without tying up a thread should override this.
+	 * 
+	 * @param dataSetId The data set ID
+	 * @return The pending metadata request
+	 */
+	protected Future<String> requestDataSetMetadata(final String dataSetId) {
+		return RETRIEVAL_EXECUTOR.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				String metadata = getDataSetMetadata(dataSetId);
+				cache.put(getCacheKey(METADATA_CACHE_TYPE, dataSetId), metadata, null, null);
+				return metadata;
+			}
+		});
+	}
+	
+	/**
+	 * Wait for a background data or metadata request to complete
+	 * @param request The request
+	 * @param requestType The type of request ("Data" or "Metadata"), for error messages
+	 * @return The retrieved data, or {@code null} if it could not be retrieved
+	 * @throws ImporterException If an error occurred during the retrieval
+	 * @throws DataSetNotFoundException If the data set does not exist
+	 */
+	protected String awaitRetrieval(Future<String> request, String requestType) throws ImporterException, DataSetNotFoundException {
+		try {
+			return request.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof DataSetNotFoundException) {
+				throw (DataSetNotFoundException) e.getCause();
+			} else if (e.getCause() instanceof ImporterException) {
+				throw (ImporterException) e.getCause();
+			} else {
+				throw new ImporterException(requestType + " retrieval failed", e.getCause());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ImporterException(requestType + " retrieval interrupted", e);
+		}
+	}
+	
 	/**
 	 * Returns the location where the data file should be stored on disk for NEMO
 	 * @param dataSetId The data set ID
@@ -391,20 +691,25 @@ public abstract class Importer {
 	public abstract List<String> getNemoOutputFormats();
 	
 	/**
-	 * Generate the Local CDI ID for the current data set
+	 * Generate the Local CDI ID for the current data set. The ID is
+	 * only built once for each data set.
 	 * @return The Local CDI ID
 	 * @throws ImporterException If the components of the ID string cannot be retrieved
 	 */
 	public String getLocalCdiId() throws ImporterException {
-		StringBuilder localCdiId = new StringBuilder();
-		
-		localCdiId.append(getDataSetInternalId());
-		localCdiId.append('_');
-		localCdiId.append(stationNumberFormatter.format(getStationNumber()));
-		localCdiId.append('_');
-		localCdiId.append(getNemoDataType());
+		if (null == localCdiId) {
+			StringBuilder id = new StringBuilder();
+			
+			id.append(getDataSetInternalId());
+			id.append('_');
+			id.append(stationNumberFormatter.format(getStationNumber()));
+			id.append('_');
+			id.append(getNemoDataType());
+			
+			localCdiId = id.toString();
+		}
 		
-		return localCdiId.toString();
+		return localCdiId;
 	}
 
 	/**
@@ -0,0 +1,310 @@
+package no.bcdc.cdigenerator.importers.Pangaea;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.IOUtils;
+
+import no.bcdc.cdigenerator.importers.XmlParsers;
+import no.bcdc.cdigenerator.network.HttpStatusException;
+
+/**
+ * A minimal SOAP client for the two PangaVista operations that we use:
+ * {@code registerSession} and {@code metadata}.
+ *
+ * <p>
+ *   Requests are written directly as RPC/encoded SOAP envelopes and sent over
+ *   a plain HTTP connection, so the JVM's keep-alive pool reuses connections
+ *   between calls. Responses are read with a streaming XML reader that only
+ *   picks out the return value or fault.
+ * </p>
+ *
+ * <p>
+ *   SOAP faults are thrown as {@link PangaVistaFaultException}s, whose
+ *   message is the fault string sent by the service.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class PangaVistaClient {
+	
+	/**
+	 * The SOAP envelope namespace
+	 */
+	private static final String SOAP_ENVELOPE_NS = "http://schemas.xmlsoap.org/soap/envelope/";
+	
+	/**
+	 * The SOAP encoding namespace
+	 */
+	private static final String SOAP_ENCODING_NS = "http://schemas.xmlsoap.org/soap/encoding/";
+	
+	/**
+	 * The time allowed to connect to the service, in milliseconds
+	 */
+	private static final int CONNECT_TIMEOUT = 30000;
+	
+	/**
+	 * The time allowed to wait for a response from the service, in milliseconds
+	 */
+	private static final int READ_TIMEOUT = 300000;
+	
+	/**
+	 * The web service end point
+	 */
+	private String endPoint;
+	
+	/**
+	 * The namespace of the service operations
+	 */
+	private String operationNamespace;
+	
+	/**
+	 * Constructor
+	 * @param endPoint The web service end point
+	 * @param operationNamespace The namespace of the service operations
+	 */
+	public PangaVistaClient(String endPoint, String operationNamespace) {
+		this.endPoint = endPoint;
+		this.operationNamespace = operationNamespace;
+	}
+	
+	/**
+	 * Register a new session with the web service
+	 * @return The session ID
+	 * @throws IOException If the call fails
+	 */
+	public String registerSession() throws IOException {
+		return call(PangaVistaImporter.OPERATION_REGISTER_SESSION, new String[0], new String[0]);
+	}
+	
+	/**
+	 * Retrieve the metadata XML for a data set
+	 * @param sessionId The session ID
+	 * @param uri The data set URI or ID
+	 * @return The metadata XML
+	 * @throws IOException If the call fails
+	 */
+	public String getMetadata(String sessionId, String uri) throws IOException {
+		return call(PangaVistaImporter.OPERATION_METADATA, new String[] {"session", "URI"}, new String[] {sessionId, uri});
+	}
+	
+	/**
+	 * Call a web service operation that returns a string
+	 * @param operation The operation name
+	 * @param parameterNames The names of the operation's parameters
+	 * @param parameterValues The parameter values
+	 * @return The value returned by the operation
+	 * @throws IOException If the call fails
+	 */
+	private String call(String operation, String[] parameterNames, String[] parameterValues) throws IOException {
+		
+		byte[] request = makeEnvelope(operation, parameterNames, parameterValues);
+		
+		HttpURLConnection conn = (HttpURLConnection) new URL(endPoint).openConnection();
+		conn.setConnectTimeout(CONNECT_TIMEOUT);
+		conn.setReadTimeout(READ_TIMEOUT);
+		conn.setRequestMethod("POST");
+		conn.setDoOutput(true);
+		conn.setRequestProperty("Content-Type", "text/xml; charset=utf-8");
+		conn.setRequestProperty("SOAPAction", "\"\"");
+		conn.setFixedLengthStreamingMode(request.length);
+		
+		OutputStream out = conn.getOutputStream();
+		try {
+			out.write(request);
+		} finally {
+			out.close();
+		}
+		
+		// SOAP faults come back with a server error status
+		int status = conn.getResponseCode();
+		InputStream in = status < HttpURLConnection.HTTP_BAD_REQUEST ? conn.getInputStream() : conn.getErrorStream();
+		if (null == in) {
+			throw new HttpStatusException(endPoint, status);
+		}
+		
+		// The stream must be read to the end and closed so the connection can be reused
+		try {
+			byte[] response = IOUtils.toByteArray(in);
+			return parseResponse(response, status);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Build the SOAP envelope for an operation call
+	 * @param operation The operation name
+	 * @param parameterNames The names of the operation's parameters
+	 * @param parameterValues The parameter values
+	 * @return The envelope
+	 */
+	private byte[] makeEnvelope(String operation, String[] parameterNames, String[] parameterValues) {
+		StringBuilder envelope = new StringBuilder();
+		envelope.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		envelope.append("<soapenv:Envelope xmlns:soapenv=\"");
+		envelope.append(SOAP_ENVELOPE_NS);
+		envelope.append("\" xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">");
+		envelope.append("<soapenv:Body><ns1:");
+		envelope.append(operation);
+		envelope.append(" soapenv:encodingStyle=\"");
+		envelope.append(SOAP_ENCODING_NS);
+		envelope.append("\" xmlns:ns1=\"");
+		envelope.append(operationNamespace);
+		envelope.append("\">");
+		
+		for (int i = 0; i < parameterNames.length; i++) {
+			envelope.append('<');
+			envelope.append(parameterNames[i]);
+			envelope.append(" xsi:type=\"xsd:string\">");
+			appendEscaped(envelope, parameterValues[i]);
+			envelope.append("</");
+			envelope.append(parameterNames[i]);
+			envelope.append('>');
+		}
+		
+		envelope.append("</ns1:");
+		envelope.append(operation);
+		envelope.append("></soapenv:Body></soapenv:Envelope>");
+		
+		return envelope.toString().getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Add a value to an XML document, escaping any special characters
+	 * @param xml The XML document
+	 * @param value The value
+	 */
+	private void appendEscaped(StringBuilder xml, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '<': {
+				xml.append("&lt;");
+				break;
+			}
+			case '>': {
+				xml.append("&gt;");
+				break;
+			}
+			case '&': {
+				xml.append("&amp;");
+				break;
+			}
+			case '"': {
+				xml.append("&quot;");
+				break;
+			}
+			default: {
+				xml.append(c);
+			}
+			}
+		}
+	}
+	
+	/**
+	 * Extract the return value or fault from a SOAP response.
+	 *
+	 * <p>
+	 *   The return value is the text of the first element inside the operation's
+	 *   response element. If the service has used multi-reference encoding, the
+	 *   element will refer to a separate {@code multiRef} element holding the value.
+	 * </p>
+	 *
+	 * @param response The response
+	 * @param status The HTTP status of the response
+	 * @return The return value
+	 * @throws IOException If the response contains a fault or cannot be parsed
+	 */
+	private String parseResponse(byte[] response, int status) throws IOException {
+		
+		String result = null;
+		boolean resultFound = false;
+		String href = null;
+		Map<String, String> multiRefs = null;
+		
+		String faultCode = null;
+		String faultString = null;
+		boolean inFault = false;
+		
+		XMLStreamReader reader = null;
+		try {
+			reader = XmlParsers.createStreamReader(new ByteArrayInputStream(response));
+			
+			// Depth 1 is the envelope, 2 is the body, 3 is the response or fault
+			int depth = 0;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.END_ELEMENT) {
+					depth--;
+					if (depth == 2) {
+						inFault = false;
+					}
+				} else if (event == XMLStreamConstants.START_ELEMENT) {
+					depth++;
+					String name = reader.getLocalName();
+					
+					if (depth == 3 && SOAP_ENVELOPE_NS.equals(reader.getNamespaceURI()) && name.equals("Fault")) {
+						inFault = true;
+					} else if (depth == 3 && name.equals("multiRef")) {
+						if (null == multiRefs) {
+							multiRefs = new HashMap<String, String>();
+						}
+						String id = reader.getAttributeValue(null, "id");
+						multiRefs.put(id, reader.getElementText());
+						depth--;
+					} else if (depth == 4 && inFault && name.equals("faultcode")) {
+						faultCode = reader.getElementText();
+						depth--;
+					} else if (depth == 4 && inFault && name.equals("faultstring")) {
+						faultString = reader.getElementText();
+						depth--;
+					} else if (depth == 4 && !inFault && !resultFound) {
+						resultFound = true;
+						href = reader.getAttributeValue(null, "href");
+						if (null == href) {
+							result = reader.getElementText();
+							depth--;
+						}
+					}
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Invalid response from PangaVista service", e);
+		} finally {
+			if (null != reader) {
+				try {
+					reader.close();
+				} catch (XMLStreamException e) {
+					// Do nothing
+				}
+			}
+		}
+		
+		if (null != faultString || null != faultCode) {
+			throw new PangaVistaFaultException(faultCode, faultString);
+		} else if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+			throw new HttpStatusException(endPoint, status);
+		} else if (!resultFound) {
+			throw new IOException("No return value in response from PangaVista service");
+		}
+		
+		if (null != href) {
+			result = null == multiRefs ? null : multiRefs.get(href.substring(1));
+		}
+		
+		return result;
+	}
+}
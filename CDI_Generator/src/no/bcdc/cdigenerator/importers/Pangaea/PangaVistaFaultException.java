@@ -0,0 +1,37 @@
+package no.bcdc.cdigenerator.importers.Pangaea;
+
+import java.io.IOException;
+
+/**
+ * Exception for SOAP faults returned by the PangaVista web service.
+ * The exception message is the fault string sent by the service.
+ * @author Steve Jones
+ *
+ */
+public class PangaVistaFaultException extends IOException {
+	
+	private static final long serialVersionUID = -6094238170913411203L;
+	
+	/**
+	 * The fault code
+	 */
+	private String faultCode;
+	
+	/**
+	 * Constructor
+	 * @param faultCode The fault code
+	 * @param faultString The fault string
+	 */
+	public PangaVistaFaultException(String faultCode, String faultString) {
+		super(faultString);
+		this.faultCode = faultCode;
+	}
+	
+	/**
+	 * Get the fault code
+	 * @return The fault code
+	 */
+	public String getFaultCode() {
+		return faultCode;
+	}
+}
@@ -1,9 +1,9 @@
 package no.bcdc.cdigenerator.importers.Pangaea;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
@@ -11,142 +11,121 @@ import java.time.LocalDate;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 
-import javax.net.ssl.HttpsURLConnection;
-import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.rpc.ParameterMode;
-import javax.xml.xpath.XPath;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
-import org.apache.axis.Constants;
-import org.apache.axis.client.Call;
-import org.apache.axis.client.Service;
 import org.apache.commons.io.IOUtils;
 import org.w3c.dom.Document;
 
 import no.bcdc.cdigenerator.Config;
+import no.bcdc.cdigenerator.importers.CompiledXPaths;
 import no.bcdc.cdigenerator.importers.DataSetNotFoundException;
 import no.bcdc.cdigenerator.importers.Importer;
 import no.bcdc.cdigenerator.importers.ImporterException;
 import no.bcdc.cdigenerator.importers.InvalidLookupValueException;
+import no.bcdc.cdigenerator.importers.RawDataCache;
 import no.bcdc.cdigenerator.importers.UnrecognisedNemoTagException;
 import no.bcdc.cdigenerator.importers.ValueLookupException;
+import no.bcdc.cdigenerator.importers.XmlParsers;
+import no.bcdc.cdigenerator.network.EndpointGuard;
+import no.bcdc.cdigenerator.network.HttpStatusException;
+import no.bcdc.cdigenerator.network.RetryPolicy;
+import no.bcdc.cdigenerator.network.RetryScheduler;
 
 public abstract class PangaVistaImporter extends Importer {
 
 	/**
-	 * The URI for the PangaVista web service
-	 */
-	protected static final String END_POINT = "https://ws.pangaea.de/ws/services/PangaVista";
-	
-	/**
-	 * XPath for ship name through event basis
-	 */
-	private static final String XPATH_EVENT_BASIS = "/MetaData/event/basis/name";
-	
-	/**
-	 * XPath for ship name through event name
-	 */
-	private static final String XPATH_EVENT_NAME = "/MetaData/event/campaign/name";
-	
-	/**
-	 * XPath for the first author's last name
-	 */
-	private static final String XPATH_AUTHOR_LAST_NAME = "/Metadata/citation/author/lastName";
-	
-	/**
-	 * XPath for the first author's first name
-	 */
-	private static final String XPATH_AUTHOR_FIRST_NAME = "/Metadata/citation/author/firstName";
-	
-	/**
-	 * XPath for the DOI
+	 * The SOAP URI
 	 */
-	private static final String XPATH_DOI = "/MetaData/citation/URI";
+	protected static final String OPERATION_NAME_URI = "http://soapinterop.org/";
 	
 	/**
-	 * XPath for the abstract
+	 * The command name for registering a new session
 	 */
-	private static final String XPATH_ABSTRACT = "/MetaData/citation/title";
+	protected static final String OPERATION_REGISTER_SESSION = "registerSession";
 	
 	/**
-	 * XPath for west longitude
+	 * The command name for retrieving a data set's metadata
 	 */
-	private static final String XPATH_WEST_LONGITUDE = "/MetaData/extent/geographic/westBoundLongitude";
+	protected static final String OPERATION_METADATA = "metadata";
 	
 	/**
-	 * XPath for east longitude
+	 * The error string returned when a session has expired
 	 */
-	private static final String XPATH_EAST_LONGITUDE = "/MetaData/extent/geographic/eastBoundLongitude";
+	protected static final String EXPIRED_SESSION_ERROR = "You must register a valid session first!";
 	
 	/**
-	 * XPath for south latitude
+	 * The error string returned when the data set cannot be found
 	 */
-	private static final String XPATH_SOUTH_LATITUDE = "/MetaData/extent/geographic/southBoundLatitude";
+	protected static final String DATASET_NOT_FOUND_ERROR = "This is not a valid PANGAEA DOI or DATASETID";
 	
 	/**
-	 * XPath for north latitude
+	 * The name under which PANGAEA downloads are cached
 	 */
-	private static final String XPATH_NORTH_LATITUDE = "/MetaData/extent/geographic/northBoundLatitude";
+	private static final String CACHE_NAMESPACE = "pangaea";
 	
 	/**
-	 * XPath for the start time
+	 * The compiled XPaths for metadata files, shared by all PANGAEA importers
 	 */
-	private static final String XPATH_START_TIME = "/MetaData/extent/temporal/minDateTime";
+	private static final CompiledXPaths XPATHS = new CompiledXPaths(new PangaeaMetadataNamespaceContext());
 	
 	/**
-	 * XPath for the end time
+	 * The manager for the PangaVista session, shared with all other importers
 	 */
-	private static final String XPATH_END_TIME = "/MetaData/extent/temporal/maxDateTime";
+	private PangaVistaSessionManager sessionManager;
 	
 	/**
-	 * The SOAP URI
+	 * The policy for retrying failed network requests
 	 */
-	protected static final String OPERATION_NAME_URI = "http://soapinterop.org/";
+	private RetryPolicy retryPolicy;
 	
 	/**
-	 * The command name for registering a new session
+	 * The guard for the PANGAEA web service, shared with all other importers
 	 */
-	protected static final String OPERATION_REGISTER_SESSION = "registerSession";
+	private EndpointGuard wsGuard;
 	
 	/**
-	 * The command name for retrieving a data set's metadata
+	 * The guard for the PANGAEA data server, shared with all other importers
 	 */
-	protected static final String OPERATION_METADATA = "metadata";
+	private EndpointGuard dataGuard;
 	
 	/**
-	 * The error string returned when a session has expired
+	 * The base URL for data files
 	 */
-	private static final String EXPIRED_SESSION_ERROR = "You must register a valid session first!";
+	private String dataUrl;
 	
 	/**
-	 * The error string returned when the data set cannot be found
+	 * The extractor for the metadata fields used by this importer
 	 */
-	private static final String DATASET_NOT_FOUND_ERROR = "This is not a valid PANGAEA DOI or DATASETID";
+	private PangaeaMetadataExtractor metadataExtractor;
 	
 	/**
-	 * The SOAP service object
+	 * The local store of harvested metadata
 	 */
-	private Service service = new Service();
+	private PangaeaMetadataStore metadataStore;
 	
 	/**
-	 * The current session ID
+	 * The metadata fields extracted from the current data set. This
+	 * holds every field listed in {@link #getMetadataXPaths()}.
 	 */
-	private String sessionId = null;
+	protected PangaeaMetadata metadataRecord = null;
 	
 	/**
-	 * The parsed metadata XML
+	 * The parsed metadata XML. This is only built if a field is needed
+	 * that the metadata extractor can't handle.
 	 */
 	protected Document metadataXML = null;
 	
-	/**
-	 * XPath resolver for metadata files
-	 */
-	protected XPath xPathResolver = null;
-	
 	/**
 	 * Default constructor - invokes the parent constructor
 	 * @param config The configuration
@@ -154,20 +133,26 @@ public abstract class PangaVistaImporter extends Importer {
 	public PangaVistaImporter(Config config) {
 		super(config);
 		
-		XPathFactory xPathFactory = XPathFactory.newInstance();
-		xPathResolver = xPathFactory.newXPath();
-		xPathResolver.setNamespaceContext(new PangaeaMetadataNamespaceContext());
+		metadataExtractor = new PangaeaMetadataExtractor(getMetadataXPaths());
+		metadataStore = PangaeaMetadataStore.getInstance(config);
+		retryPolicy = new RetryPolicy(config);
+		dataUrl = config.getPangaeaDataUrl().toString();
+		
+		long coolDown = config.getCircuitBreakerCooldown() * 1000L;
+		wsGuard = EndpointGuard.getInstance(config.getPangaeaWsEndPoint().getAuthority(), config.getPangaeaWsRequestRate(), config.getPangaeaWsMaxConcurrent(), config.getCircuitBreakerThreshold(), coolDown);
+		dataGuard = EndpointGuard.getInstance(config.getPangaeaDataUrl().getAuthority(), config.getPangaeaDataRequestRate(), config.getPangaeaDataMaxConcurrent(), config.getCircuitBreakerThreshold(), coolDown);
+		sessionManager = PangaVistaSessionManager.getInstance(config, config.getPangaeaWsEndPoint().toString(), wsGuard);
 	}
 
 	@Override
 	protected String getDataSetMetadata(String dataSetId) throws ImporterException, DataSetNotFoundException {
-		
-		// Start a new session if required
-		if (null == sessionId) {
-			getNewSession();
-		}
-		
-		return getMetadataXML(dataSetId);
+		return awaitRetrieval(requestDataSetMetadata(dataSetId), "Metadata");
+	}
+	
+	@Override
+	protected String getCacheNamespace() {
+		// All PANGAEA importers download from the same place
+		return CACHE_NAMESPACE;
 	}
 	
 	@Override
@@ -197,157 +182,176 @@ public abstract class PangaVistaImporter extends Importer {
 	}
 	
 	/**
-	 * Obtain a new Session ID from the PangaVista web service
-	 * @throws ImporterException If an error occurs
+	 * Get the metadata for a data set. Metadata in the local metadata store
+	 * is used if it is not too old; otherwise it is retrieved as usual.
 	 */
-	private void getNewSession() throws ImporterException {
-		try {
-			Call call = (Call) service.createCall();
-	        call.setTargetEndpointAddress(new java.net.URL(PangaVistaImporter.END_POINT));
-	        call.setOperationName(new QName(OPERATION_NAME_URI, OPERATION_REGISTER_SESSION));
-	        sessionId = (String) call.invoke( new Object[] {} );
-		} catch (Exception e) {
-			throw new ImporterException("Unable to get a session ID", e);
+	@Override
+	protected Future<String> fetchDataSetMetadata(String dataSetId) {
+		Future<String> result;
+		
+		String stored = metadataStore.getMetadata(dataSetId);
+		if (null != stored) {
+			result = CompletableFuture.completedFuture(stored);
+		} else {
+			result = super.fetchDataSetMetadata(dataSetId);
 		}
 		
-		// Have a short sleep - trying to access the session too quickly causes problems
+		return result;
+	}
+	
+	@Override
+	protected void keepHarvestedMetadata(String dataSetId, String harvested) throws ImporterException {
+		PangaeaMetadata fields;
 		try {
-			Thread.sleep(1000);
-		} catch (InterruptedException e) {
-			// Meh
+			fields = metadataExtractor.extract(harvested);
+		} catch (XMLStreamException e) {
+			// Keep the XML anyway; it will be parsed in full when it is used
+			fields = null;
 		}
+		
+		metadataStore.put(dataSetId, harvested, fields);
+	}
+	
+	@Override
+	public int getHarvestConcurrency() {
+		return config.getPangaeaWsMaxConcurrent();
+	}
+	
+	@Override
+	protected Future<String> requestDataSetMetadata(final String dataSetId) {
+		return RetryScheduler.getInstance().submit("Metadata retrieval for '" + dataSetId + "'", wsGuard, retryPolicy, new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return getMetadataXML(dataSetId);
+			}
+		});
+	}
+	
+	@Override
+	protected String getDataSetData(String dataSetId) throws ImporterException, DataSetNotFoundException {
+		return awaitRetrieval(requestDataSetData(dataSetId), "Data");
+	}
+	
+	@Override
+	protected Future<String> requestDataSetData(final String dataSetId) {
+		return RetryScheduler.getInstance().submit("Data retrieval for '" + dataSetId + "'", dataGuard, retryPolicy, new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return downloadData(dataSetId);
+			}
+		});
 	}
 	
 	/**
-	 * Retrieve the metadata for a given data set ID
+	 * Make a single attempt to retrieve the metadata for a given data set ID.
+	 * If the session has expired, a new one is obtained and the request is repeated.
+	 * The web service can't tell us whether the metadata has changed, so the
+	 * retrieved metadata is always stored in the cache.
 	 * @param dataSetid The data set ID
 	 * @return The metadata XML
-	 * @throws ImporterException If an error occurs during the retrieval
-	 * @throws DataSetNotFoundException 
+	 * @throws DataSetNotFoundException If the data set does not exist
+	 * @throws Exception If the retrieval fails
 	 */
-	private String getMetadataXML(String dataSetId) throws ImporterException, DataSetNotFoundException {
+	private String getMetadataXML(String dataSetId) throws Exception {
 		
 		String xml = null;
 		
-		int retriesLeft = config.getNetworkRetries();
+		boolean sessionOK = false;
+		String sessionId = sessionManager.getSession();
 		
-		while (null == xml && retriesLeft > 0) {
+		while (!sessionOK) {
 			
-			boolean sessionOK = false;
+			// Start by assuming we have a valid session
+			sessionOK = true;
 			
-			while (!sessionOK) {
-				
-				// Start by assuming we have a valid session
-				sessionOK = true;
-				
-				try {
-					Call call = (Call) service.createCall();
-					call.setTargetEndpointAddress(new java.net.URL(END_POINT));
-					call.setOperationName(new QName(OPERATION_NAME_URI, OPERATION_METADATA));
-					call.setReturnType(org.apache.axis.Constants.XSD_STRING);
+			try {
+				xml = sessionManager.getClient().getMetadata(sessionId, dataSetId);
+			} catch (PangaVistaFaultException e) {
+
+				// If the session is invalid, get a new one and try again.
+				// If getting a new session fails, the resulting exception is thrown
+				if (EXPIRED_SESSION_ERROR.equals(e.getMessage())) {
+					sessionId = sessionManager.sessionRejected(sessionId);
 					
-					call.addParameter("session", Constants.XSD_STRING, ParameterMode.IN);
-					call.addParameter("URI", Constants.XSD_STRING, ParameterMode.IN);
-			        
-			        xml = (String) call.invoke(new Object[] { sessionId, dataSetId });
-				} catch (Exception e) {
-	
-					// If the session is invalid, get a new one and try again
-					if (e.getMessage().equals(EXPIRED_SESSION_ERROR)) {
-						try {
-							getNewSession();
-							sessionOK = false;
-						} catch (ImporterException e2) {
-							// If that fails, throw the resulting exception
-							throw e2;
-						}
-					} else if (e.getMessage().startsWith(DATASET_NOT_FOUND_ERROR)) {
-						throw new DataSetNotFoundException(dataSetId);
-					} else {
-						// Otherwise we log the error and retry
-						getLogger().warning("Metadata retrieval attempt failed\n");
-						getLogger().throwing(this.getClass().getName(), "getMetadataXML", e);
-					}
-				}
-			}
-			
-			if (null == xml) {
-				retriesLeft--;
-				
-				int waitCount = config.getRetryWaitTime();
-				while (waitCount > 0) {
-					generator.setProgressMessage("Metadata retrieval failed. Retrying in " + waitCount + " seconds (" + retriesLeft + " attempts remaining)");
-					try {
-						Thread.sleep(1000);
-					} catch (InterruptedException e) {
-						// We don't care
-					}
-					waitCount--;
+					// The repeated request counts towards the rate limit
+					wsGuard.awaitToken();
+					sessionOK = false;
+				} else if (null != e.getMessage() && e.getMessage().startsWith(DATASET_NOT_FOUND_ERROR)) {
+					throw new DataSetNotFoundException(dataSetId);
+				} else {
+					// Otherwise the retry scheduler decides what to do
+					throw e;
 				}
 			}
 		}
 		
+		cache.put(getCacheKey(METADATA_CACHE_TYPE, dataSetId), xml, null, null);
 		return xml;
 	}
 	
-	@Override
-	protected String getDataSetData(String dataSetId) throws ImporterException, DataSetNotFoundException {
+	/**
+	 * Make a single attempt to download the data file for a given data set ID.
+	 * If there is a copy in the cache, the server is asked to send the file only
+	 * if it has changed.
+	 * @param dataSetId The data set ID
+	 * @return The data file contents
+	 * @throws DataSetNotFoundException If the data set does not exist
+	 * @throws IOException If the download fails
+	 */
+	private String downloadData(String dataSetId) throws DataSetNotFoundException, IOException {
 		String result = null;
 		
-		int retriesLeft = config.getNetworkRetries();
+		HttpURLConnection conn = null;
+		InputStream stream = null;
+		StringWriter writer = null;
 		
-		while (null == result && retriesLeft > 0) {
+		String cacheKey = getCacheKey(DATA_CACHE_TYPE, dataSetId);
+		RawDataCache.Entry cached = cache.get(cacheKey);
 		
-			HttpsURLConnection conn = null;
-			InputStream stream = null;
-			StringWriter writer = null;
+		try {
+			URL url = makeUrl(dataSetId);
+			conn = (HttpURLConnection) url.openConnection();
+			conn.setRequestMethod("GET");
+			if (null != cached) {
+				if (null != cached.getETag()) {
+					conn.setRequestProperty("If-None-Match", cached.getETag());
+				}
+				if (null != cached.getLastModified()) {
+					conn.setRequestProperty("If-Modified-Since", cached.getLastModified());
+				}
+			}
+			conn.connect();
 			
-			try {
-				URL url = makeUrl(dataSetId);
-				conn = (HttpsURLConnection) url.openConnection();
-				conn.setRequestMethod("GET");
-				conn.connect();
-				
+			int status = conn.getResponseCode();
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED && null != cached) {
+				result = cached.getContent();
+				cache.revalidated(cacheKey);
+			} else if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+				throw new DataSetNotFoundException(dataSetId);
+			} else if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+				throw new HttpStatusException(url.toString(), status);
+			} else {
 				stream = conn.getInputStream();
 				writer = new StringWriter();
 				IOUtils.copy(stream, writer, StandardCharsets.UTF_8);
 				result = writer.toString();
-			} catch (FileNotFoundException e) {
-				throw new DataSetNotFoundException(dataSetId);
-			} catch (Exception e) {
-				getLogger().warning("Data retrieval attempt failed\n");
-				getLogger().throwing(this.getClass().getName(), "getDataSetData", e);
-			} finally {
-				try {
-					if (null != writer) {
-						writer.close();
-					}
-					
-					if (null != stream) {
-						stream.close();
-					}
-					
-					if (null != conn) {
-						conn.disconnect();
-					}
-				} catch (IOException e) {
-					// Do nothing - we can say that we tried.
-				}
+				cache.put(cacheKey, result, conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"));
 			}
-			
-			if (null == result) {
-				retriesLeft--;
+		} finally {
+			try {
+				if (null != writer) {
+					writer.close();
+				}
 				
-				int waitCount = config.getRetryWaitTime();
-				while (waitCount > 0) {
-					generator.setProgressMessage("Data retrieval failed. Retrying in " + waitCount + " seconds (" + retriesLeft + " attempts remaining)");
-					try {
-						Thread.sleep(1000);
-					} catch (InterruptedException e) {
-						// We don't care
-					}
-					waitCount--;
+				if (null != stream) {
+					stream.close();
+				}
+				
+				if (null != conn) {
+					conn.disconnect();
 				}
+			} catch (IOException e) {
+				// Do nothing - we can say that we tried.
 			}
 		}
 		
@@ -361,20 +365,92 @@ public abstract class PangaVistaImporter extends Importer {
 	 * @throws MalformedURLException If the generated URL is invalid
 	 */
 	private URL makeUrl(String dataSetId) throws MalformedURLException {
-		StringBuilder url = new StringBuilder("https://doi.pangaea.de/10.1594/PANGAEA.");
+		StringBuilder url = new StringBuilder(dataUrl);
 		url.append(dataSetId);
 		url.append("?format=textfile");
 		
 		return new URL(url.toString());
 	}
 	
+	/**
+	 * Get the XPaths of the metadata fields used by this importer. These
+	 * are extracted from the metadata in a single pass when it is retrieved.
+	 * Importers that look up extra fields should add them to this list.
+	 * @return The XPaths
+	 */
+	protected List<String> getMetadataXPaths() {
+		return new ArrayList<String>(Arrays.asList(PangaeaMetadata.XPATH_EVENT_BASIS, PangaeaMetadata.XPATH_EVENT_NAME,
+				PangaeaMetadata.XPATH_AUTHOR_LAST_NAME, PangaeaMetadata.XPATH_AUTHOR_FIRST_NAME, PangaeaMetadata.XPATH_DOI,
+				PangaeaMetadata.XPATH_TITLE, PangaeaMetadata.XPATH_WEST_LONGITUDE, PangaeaMetadata.XPATH_EAST_LONGITUDE,
+				PangaeaMetadata.XPATH_SOUTH_LATITUDE, PangaeaMetadata.XPATH_NORTH_LATITUDE, PangaeaMetadata.XPATH_START_TIME,
+				PangaeaMetadata.XPATH_END_TIME));
+	}
+	
 	@Override
 	protected void preprocessMetadata() throws ImporterException {
-		// Create the XML document
+		metadataXML = null;
+		
+		// Use the fields from the metadata store if they came from this metadata
+		PangaeaMetadata record = metadataStore.getFields(currentDataSetId, metadata, metadataExtractor.getXPaths());
+		if (null != record) {
+			metadataRecord = completeRecord(record);
+		} else {
+			try {
+				record = metadataExtractor.extract(metadata);
+			} catch (XMLStreamException e) {
+				// Fall back to the full parser, which will report the problem properly
+				record = new PangaeaMetadata(Collections.<String, String>emptyMap());
+			}
+			
+			metadataRecord = completeRecord(record);
+			metadataStore.put(currentDataSetId, metadata, metadataRecord);
+		}
+	}
+	
+	/**
+	 * Add the fields that the metadata extractor couldn't find to a record,
+	 * by evaluating their XPaths against the full metadata document. The
+	 * document is only parsed if something is missing.
+	 * @param record The extracted fields
+	 * @return A record holding every field listed in {@link #getMetadataXPaths()}
+	 * @throws ImporterException If the metadata cannot be parsed
+	 */
+	private PangaeaMetadata completeRecord(PangaeaMetadata record) throws ImporterException {
+		PangaeaMetadata result = record;
+		Map<String, String> values = null;
+		
+		for (String xPath : getMetadataXPaths()) {
+			if (!record.hasValue(xPath)) {
+				if (null == values) {
+					values = new HashMap<String, String>(record.getValues());
+					if (null == metadataXML) {
+						metadataXML = parseMetadata();
+					}
+				}
+				
+				try {
+					values.put(xPath, XPATHS.get(xPath).evaluate(metadataXML));
+				} catch (XPathExpressionException e) {
+					// Leave the field out, so its accessor returns null
+				}
+			}
+		}
+		
+		if (null != values) {
+			result = new PangaeaMetadata(values);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Parse the metadata into an XML document
+	 * @return The XML document
+	 * @throws ImporterException If the metadata cannot be parsed
+	 */
+	private Document parseMetadata() throws ImporterException {
 		try {
-			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder builder = factory.newDocumentBuilder();
-			metadataXML = builder.parse(IOUtils.toInputStream(metadata, StandardCharsets.UTF_8));
+			return XmlParsers.getDocumentBuilder().parse(IOUtils.toInputStream(metadata, StandardCharsets.UTF_8));
 		} catch (Exception e) {
 			throw new ImporterException("Error while parsing metadata XML", e);
 		}
@@ -395,14 +471,22 @@ public abstract class PangaVistaImporter extends Importer {
 		
 		for (String xPath : xPaths) {
 			try {
-				result = xPathResolver.evaluate(xPath, metadataXML);
+				if (null != metadataRecord && metadataRecord.hasValue(xPath)) {
+					result = metadataRecord.getValue(xPath);
+				} else {
+					if (null == metadataXML) {
+						metadataXML = parseMetadata();
+					}
+					result = XPATHS.get(xPath).evaluate(metadataXML);
+				}
+				
 				if (null != result) {
 					result = result.trim();
 					if (result.length() > 0) {
 						break;
 					}
 				}
-			} catch (XPathExpressionException e) {
+			} catch (XPathExpressionException|ImporterException e) {
 				// Do nothing - we'll try the next one
 			}
 		}
@@ -432,7 +516,7 @@ public abstract class PangaVistaImporter extends Importer {
 			result = defaultValue;
 		} else {
 			try {
-				result = Double.parseDouble(evaluateXPath(tagName, xPaths));
+				result = Double.parseDouble(stringValue);
 			} catch (NumberFormatException e) {
 				throw new InvalidLookupValueException(tagName, e);
 			}
@@ -463,7 +547,7 @@ public abstract class PangaVistaImporter extends Importer {
 			result = defaultValue;
 		} else {
 			try {
-				result = Integer.parseInt(evaluateXPath(tagName, xPaths));
+				result = Integer.parseInt(stringValue);
 			} catch (NumberFormatException e) {
 				throw new InvalidLookupValueException(tagName, e);
 			}
@@ -479,7 +563,7 @@ public abstract class PangaVistaImporter extends Importer {
 		switch (tag) {
 
 		case "SHIP_NAME": {
-			tagValue = evaluateXPath("SHIP_NAME", XPATH_EVENT_BASIS, XPATH_EVENT_NAME);
+			tagValue = metadataRecord.getShipName();
 			break;
 		}
 		case "FIRST_AUTHOR": {
@@ -511,8 +595,8 @@ public abstract class PangaVistaImporter extends Importer {
 		
 		String result = null;
 		
-		String lastName = evaluateXPath("Author Last Name", XPATH_AUTHOR_LAST_NAME);
-		String firstName = evaluateXPath("Author First Name", XPATH_AUTHOR_FIRST_NAME);
+		String lastName = metadataRecord.getAuthorLastName();
+		String firstName = metadataRecord.getAuthorFirstName();
 		
 		if (null != lastName && null != firstName) {
 			result = lastName+ ", " + firstName;
@@ -523,12 +607,7 @@ public abstract class PangaVistaImporter extends Importer {
 	
 	@Override
 	public String getDoi() throws ImporterException {
-		String xPathValue = evaluateXPath("DOI", XPATH_DOI);
-		if (xPathValue.startsWith("doi:")) {
-			xPathValue = xPathValue.substring(4);
-		}
-		
-		return xPathValue;
+		return metadataRecord.getDoi();
 	}
 	
 	@Override
@@ -538,42 +617,42 @@ public abstract class PangaVistaImporter extends Importer {
 	
 	@Override
 	public String getAbstract() throws ImporterException {
-		return evaluateXPath("Abstract", XPATH_ABSTRACT);
+		return metadataRecord.getTitle();
 	}
 	
 	@Override
 	public double getWestLongitude() throws InvalidLookupValueException {
-		return evaluateXPathDouble("West Longitude", 0.0, XPATH_WEST_LONGITUDE);
+		return metadataRecord.getWestLongitude(0.0);
 	}
 	
 	@Override
 	public double getEastLongitude() throws InvalidLookupValueException {
-		return evaluateXPathDouble("East Longitude", 0.0, XPATH_EAST_LONGITUDE);
+		return metadataRecord.getEastLongitude(0.0);
 	}
 	
 	@Override
 	public double getSouthLatitude() throws InvalidLookupValueException {
-		return evaluateXPathDouble("South Latitude", 0.0, XPATH_SOUTH_LATITUDE);
+		return metadataRecord.getSouthLatitude(0.0);
 	}
 	
 	@Override
 	public double getNorthLatitude() throws InvalidLookupValueException {
-		return evaluateXPathDouble("North Latitude", 0.0, XPATH_NORTH_LATITUDE);
+		return metadataRecord.getNorthLatitude(0.0);
 	}
 
 	@Override
 	public LocalDate getStartDate() throws InvalidLookupValueException {
-		return LocalDate.parse(evaluateXPath("Start Time", XPATH_START_TIME).substring(0, 10));
+		return LocalDate.parse(metadataRecord.getStartTime().substring(0, 10));
 	}
 	
 	@Override
 	public long getStartDateTime() throws InvalidLookupValueException {
-		return timeToMilliseconds("Start Time", evaluateXPath("Start Time", XPATH_START_TIME));
+		return timeToMilliseconds("Start Time", metadataRecord.getStartTime());
 	}
 	
 	@Override
 	public long getEndDateTime() throws InvalidLookupValueException {
-		return timeToMilliseconds("End Time", evaluateXPath("End Time", XPATH_END_TIME));
+		return timeToMilliseconds("End Time", metadataRecord.getEndTime());
 	}
 
 	/**
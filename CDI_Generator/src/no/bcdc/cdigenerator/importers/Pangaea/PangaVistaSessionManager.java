@@ -0,0 +1,261 @@
+package no.bcdc.cdigenerator.importers.Pangaea;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import no.bcdc.cdigenerator.CDIGenerator;
+import no.bcdc.cdigenerator.Config;
+import no.bcdc.cdigenerator.importers.ImporterException;
+import no.bcdc.cdigenerator.network.EndpointGuard;
+
+/**
+ * Manages the session used to talk to the PangaVista web service.
+ *
+ * <p>
+ *   One session is shared by every importer and thread using the same
+ *   end point. Sessions are renewed before they are likely to expire,
+ *   and if several threads find that the session has expired at the same
+ *   time only one of them registers a new one; the others pick it up
+ *   when it's ready.
+ * </p>
+ *
+ * <p>
+ *   A newly registered session is not usable straight away. Rather than
+ *   waiting a fixed time after every registration, the first calls made
+ *   with a new session act as a probe: if the service rejects a session
+ *   that has only just been registered, the caller waits a short time and
+ *   tries the same session again before giving up on it.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class PangaVistaSessionManager {
+	
+	/**
+	 * The maximum number of times a new session is probed before
+	 * we decide that it really is invalid
+	 */
+	private static final int MAX_READY_PROBES = 5;
+	
+	/**
+	 * The session managers for each end point
+	 */
+	private static Map<String, PangaVistaSessionManager> managers = new HashMap<String, PangaVistaSessionManager>();
+	
+	/**
+	 * The time after which a session is renewed, in milliseconds
+	 */
+	private long sessionLifetime;
+	
+	/**
+	 * The time to wait between readiness probes for a new session, in milliseconds
+	 */
+	private long readyWait;
+	
+	/**
+	 * The client for the web service
+	 */
+	private PangaVistaClient client;
+	
+	/**
+	 * The guard for the web service, which limits the rate of session registrations
+	 */
+	private EndpointGuard guard;
+	
+	/**
+	 * The current session
+	 */
+	private volatile Session currentSession = null;
+	
+	/**
+	 * Lock held while a new session is registered
+	 */
+	private Object renewalLock = new Object();
+	
+	/**
+	 * Get the session manager for a given end point, creating it if necessary
+	 * @param config The application configuration
+	 * @param endPoint The web service end point
+	 * @param guard The guard for the web service
+	 * @return The session manager
+	 */
+	public static synchronized PangaVistaSessionManager getInstance(Config config, String endPoint, EndpointGuard guard) {
+		PangaVistaSessionManager manager = managers.get(endPoint);
+		if (null == manager) {
+			manager = new PangaVistaSessionManager(config, endPoint, guard);
+			managers.put(endPoint, manager);
+		}
+		
+		return manager;
+	}
+	
+	/**
+	 * Constructor
+	 * @param config The application configuration
+	 * @param endPoint The web service end point
+	 * @param guard The guard for the web service
+	 */
+	private PangaVistaSessionManager(Config config, String endPoint, EndpointGuard guard) {
+		this.client = new PangaVistaClient(endPoint, PangaVistaImporter.OPERATION_NAME_URI);
+		this.guard = guard;
+		this.sessionLifetime = config.getPangaeaSessionLifetime() * 1000L;
+		this.readyWait = config.getPangaeaSessionReadyWait();
+	}
+	
+	/**
+	 * Get the client for making calls to the web service
+	 * @return The client
+	 */
+	public PangaVistaClient getClient() {
+		return client;
+	}
+	
+	/**
+	 * Get a session ID to use for a web service call. A new session
+	 * is registered if there isn't one, or the current one is due for renewal.
+	 * @return The session ID
+	 * @throws ImporterException If a new session cannot be registered
+	 */
+	public String getSession() throws ImporterException {
+		Session session = currentSession;
+		if (null == session || session.isDueForRenewal()) {
+			session = renew(session);
+		}
+		
+		return session.id;
+	}
+	
+	/**
+	 * Report that the web service has rejected a session. If the session is
+	 * new, it may not be ready yet so we wait briefly and let the caller try
+	 * it again. Otherwise a new session is registered, unless another thread
+	 * has already done so.
+	 * @param sessionId The rejected session ID
+	 * @return The session ID to use for the next attempt
+	 * @throws ImporterException If a new session cannot be registered
+	 */
+	public String sessionRejected(String sessionId) throws ImporterException {
+		
+		String result;
+		
+		Session session = currentSession;
+		if (null != session && session.id.equals(sessionId) && session.probe()) {
+			sleep(readyWait);
+			result = session.id;
+		} else {
+			result = renew(findSession(sessionId)).id;
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Replace a stale session with a new one. If another thread has
+	 * already replaced it, the replacement is returned instead.
+	 * @param staleSession The session being replaced
+	 * @return The new session
+	 * @throws ImporterException If a new session cannot be registered
+	 */
+	private Session renew(Session staleSession) throws ImporterException {
+		synchronized (renewalLock) {
+			Session session = currentSession;
+			if (null == session || (session == staleSession) || session.isDueForRenewal()) {
+				session = new Session(register());
+				currentSession = session;
+			}
+			
+			return session;
+		}
+	}
+	
+	/**
+	 * Get the current session if it matches the given ID
+	 * @param sessionId The session ID
+	 * @return The matching session, or {@code null} if it is not the current session
+	 */
+	private Session findSession(String sessionId) {
+		Session session = currentSession;
+		return (null != session && session.id.equals(sessionId)) ? session : null;
+	}
+	
+	/**
+	 * Register a new session with the web service. Registrations count
+	 * towards the web service's rate limit like any other call.
+	 * @return The session ID
+	 * @throws ImporterException If the registration fails
+	 */
+	private String register() throws ImporterException {
+		try {
+			guard.awaitToken();
+			CDIGenerator.getLogger().info("Registering new PangaVista session\n");
+			return client.registerSession();
+		} catch (IOException e) {
+			throw new ImporterException("Unable to get a session ID", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ImporterException("Interrupted while registering a session", e);
+		}
+	}
+	
+	/**
+	 * Sleep for a given time
+	 * @param millis The time to sleep in milliseconds
+	 */
+	private void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * A registered session
+	 */
+	private class Session {
+		
+		/**
+		 * The session ID
+		 */
+		private String id;
+		
+		/**
+		 * The time that the session was registered
+		 */
+		private long registeredAt;
+		
+		/**
+		 * The number of readiness probes made for this session
+		 */
+		private int probes = 0;
+		
+		/**
+		 * Constructor
+		 * @param id The session ID
+		 */
+		private Session(String id) {
+			this.id = id;
+			this.registeredAt = System.currentTimeMillis();
+		}
+		
+		/**
+		 * Determine whether this session is old enough that it should be renewed
+		 * @return {@code true} if the session should be renewed; {@code false} if it can still be used
+		 */
+		private boolean isDueForRenewal() {
+			return System.currentTimeMillis() - registeredAt >= sessionLifetime;
+		}
+		
+		/**
+		 * Record a readiness probe for this session. Only sessions that
+		 * were registered very recently are probed.
+		 * @return {@code true} if the session should be tried again; {@code false} if it should be renewed
+		 */
+		private synchronized boolean probe() {
+			probes++;
+			return probes <= MAX_READY_PROBES && System.currentTimeMillis() - registeredAt < readyWait * (MAX_READY_PROBES + 1);
+		}
+	}
+}
@@ -0,0 +1,350 @@
+package no.bcdc.cdigenerator.importers.Pangaea;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import no.bcdc.cdigenerator.importers.InvalidLookupValueException;
+
+/**
+ * The metadata fields for a PANGAEA data set, as extracted by a
+ * {@link PangaeaMetadataExtractor}. The values are keyed by the XPath
+ * used to find them, and hold exactly what evaluating that XPath against
+ * the metadata document would return. Fields that were not found in the
+ * document have an empty value, as they would from XPath.
+ *
+ * <p>
+ *   The fields read by the importers have typed accessors, which use
+ *   the XPaths defined here. The raw values can still be read by XPath
+ *   for any other fields an importer extracts.
+ * </p>
+ *
+ * <p>
+ *   Instances cannot be changed once they are created, so they can be
+ *   shared between threads, cached and serialised.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class PangaeaMetadata implements Serializable {
+	
+	private static final long serialVersionUID = -2687713870542208155L;
+	
+	/**
+	 * XPath for ship name through event basis
+	 */
+	public static final String XPATH_EVENT_BASIS = "/MetaData/event/basis/name";
+	
+	/**
+	 * XPath for ship name through event name
+	 */
+	public static final String XPATH_EVENT_NAME = "/MetaData/event/campaign/name";
+	
+	/**
+	 * XPath for the first author's last name
+	 */
+	public static final String XPATH_AUTHOR_LAST_NAME = "/Metadata/citation/author/lastName";
+	
+	/**
+	 * XPath for the first author's first name
+	 */
+	public static final String XPATH_AUTHOR_FIRST_NAME = "/Metadata/citation/author/firstName";
+	
+	/**
+	 * XPath for the DOI
+	 */
+	public static final String XPATH_DOI = "/MetaData/citation/URI";
+	
+	/**
+	 * XPath for the title
+	 */
+	public static final String XPATH_TITLE = "/MetaData/citation/title";
+	
+	/**
+	 * XPath for west longitude
+	 */
+	public static final String XPATH_WEST_LONGITUDE = "/MetaData/extent/geographic/westBoundLongitude";
+	
+	/**
+	 * XPath for east longitude
+	 */
+	public static final String XPATH_EAST_LONGITUDE = "/MetaData/extent/geographic/eastBoundLongitude";
+	
+	/**
+	 * XPath for south latitude
+	 */
+	public static final String XPATH_SOUTH_LATITUDE = "/MetaData/extent/geographic/southBoundLatitude";
+	
+	/**
+	 * XPath for north latitude
+	 */
+	public static final String XPATH_NORTH_LATITUDE = "/MetaData/extent/geographic/northBoundLatitude";
+	
+	/**
+	 * XPath for the start time
+	 */
+	public static final String XPATH_START_TIME = "/MetaData/extent/temporal/minDateTime";
+	
+	/**
+	 * XPath for the end time
+	 */
+	public static final String XPATH_END_TIME = "/MetaData/extent/temporal/maxDateTime";
+	
+	/**
+	 * XPath for the event label
+	 */
+	public static final String XPATH_EVENT_LABEL = "/MetaData/event/label";
+	
+	/**
+	 * XPath for the minimum elevation
+	 */
+	public static final String XPATH_MIN_ELEVATION = "/MetaData/extent/elevation/min";
+	
+	/**
+	 * XPath for the maximum elevation
+	 */
+	public static final String XPATH_MAX_ELEVATION = "/MetaData/extent/elevation/max";
+	
+	/**
+	 * XPath for the URI of another version of the data set
+	 */
+	public static final String XPATH_OTHER_VERSION_URI = "/MetaData/reference[@relationType=\"Other version\"]/URI";
+	
+	/**
+	 * XPath for the comment
+	 */
+	public static final String XPATH_COMMENT = "/MetaData/comment";
+	
+	/**
+	 * The field values, keyed by XPath
+	 */
+	private Map<String, String> values;
+	
+	/**
+	 * Constructor
+	 * @param values The field values, keyed by XPath
+	 */
+	public PangaeaMetadata(Map<String, String> values) {
+		this.values = Collections.unmodifiableMap(new HashMap<String, String>(values));
+	}
+	
+	/**
+	 * Determine whether a value was extracted for an XPath
+	 * @param xPath The XPath
+	 * @return {@code true} if the value is available; {@code false} if it must be looked up some other way
+	 */
+	public boolean hasValue(String xPath) {
+		return values.containsKey(xPath);
+	}
+	
+	/**
+	 * Get the value for an XPath
+	 * @param xPath The XPath
+	 * @return The value, or {@code null} if it was not extracted
+	 */
+	public String getValue(String xPath) {
+		return values.get(xPath);
+	}
+	
+	/**
+	 * Get all the extracted values
+	 * @return The values, keyed by XPath
+	 */
+	public Map<String, String> getValues() {
+		return values;
+	}
+	
+	/**
+	 * Get the ship name. The event basis is used if it is set;
+	 * otherwise the campaign name is used.
+	 * @return The ship name
+	 */
+	public String getShipName() {
+		return getText(XPATH_EVENT_BASIS, XPATH_EVENT_NAME);
+	}
+	
+	/**
+	 * Get the last name of the first author
+	 * @return The last name
+	 */
+	public String getAuthorLastName() {
+		return getText(XPATH_AUTHOR_LAST_NAME);
+	}
+	
+	/**
+	 * Get the first name(s) of the first author
+	 * @return The first name(s)
+	 */
+	public String getAuthorFirstName() {
+		return getText(XPATH_AUTHOR_FIRST_NAME);
+	}
+	
+	/**
+	 * Get the DOI, without the {@code doi:} prefix
+	 * @return The DOI
+	 */
+	public String getDoi() {
+		String result = getText(XPATH_DOI);
+		if (null != result && result.startsWith("doi:")) {
+			result = result.substring(4);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Get the title of the data set
+	 * @return The title
+	 */
+	public String getTitle() {
+		return getText(XPATH_TITLE);
+	}
+	
+	/**
+	 * Get the west longitude of the data set's extent
+	 * @param defaultValue The value to use if the longitude is not set
+	 * @return The west longitude
+	 * @throws InvalidLookupValueException If the longitude is not numeric
+	 */
+	public double getWestLongitude(double defaultValue) throws InvalidLookupValueException {
+		return getDouble("West Longitude", XPATH_WEST_LONGITUDE, defaultValue);
+	}
+	
+	/**
+	 * Get the east longitude of the data set's extent
+	 * @param defaultValue The value to use if the longitude is not set
+	 * @return The east longitude
+	 * @throws InvalidLookupValueException If the longitude is not numeric
+	 */
+	public double getEastLongitude(double defaultValue) throws InvalidLookupValueException {
+		return getDouble("East Longitude", XPATH_EAST_LONGITUDE, defaultValue);
+	}
+	
+	/**
+	 * Get the south latitude of the data set's extent
+	 * @param defaultValue The value to use if the latitude is not set
+	 * @return The south latitude
+	 * @throws InvalidLookupValueException If the latitude is not numeric
+	 */
+	public double getSouthLatitude(double defaultValue) throws InvalidLookupValueException {
+		return getDouble("South Latitude", XPATH_SOUTH_LATITUDE, defaultValue);
+	}
+	
+	/**
+	 * Get the north latitude of the data set's extent
+	 * @param defaultValue The value to use if the latitude is not set
+	 * @return The north latitude
+	 * @throws InvalidLookupValueException If the latitude is not numeric
+	 */
+	public double getNorthLatitude(double defaultValue) throws InvalidLookupValueException {
+		return getDouble("North Latitude", XPATH_NORTH_LATITUDE, defaultValue);
+	}
+	
+	/**
+	 * Get the start time of the data set, in the form {@code YYYY-MM-DDThh:mm}
+	 * @return The start time
+	 */
+	public String getStartTime() {
+		return getText(XPATH_START_TIME);
+	}
+	
+	/**
+	 * Get the end time of the data set, in the form {@code YYYY-MM-DDThh:mm}
+	 * @return The end time
+	 */
+	public String getEndTime() {
+		return getText(XPATH_END_TIME);
+	}
+	
+	/**
+	 * Get the event label
+	 * @return The event label
+	 */
+	public String getEventLabel() {
+		return getText(XPATH_EVENT_LABEL);
+	}
+	
+	/**
+	 * Get the minimum elevation of the data set's extent
+	 * @param defaultValue The value to use if the elevation is not set
+	 * @return The minimum elevation
+	 * @throws InvalidLookupValueException If the elevation is not numeric
+	 */
+	public double getMinElevation(double defaultValue) throws InvalidLookupValueException {
+		return getDouble("Min Elevation", XPATH_MIN_ELEVATION, defaultValue);
+	}
+	
+	/**
+	 * Get the maximum elevation of the data set's extent
+	 * @param defaultValue The value to use if the elevation is not set
+	 * @return The maximum elevation
+	 * @throws InvalidLookupValueException If the elevation is not numeric
+	 */
+	public double getMaxElevation(double defaultValue) throws InvalidLookupValueException {
+		return getDouble("Max Elevation", XPATH_MAX_ELEVATION, defaultValue);
+	}
+	
+	/**
+	 * Get the URI of another version of the data set
+	 * @return The URI
+	 */
+	public String getOtherVersionUri() {
+		return getText(XPATH_OTHER_VERSION_URI);
+	}
+	
+	/**
+	 * Get the comment
+	 * @return The comment
+	 */
+	public String getComment() {
+		return getText(XPATH_COMMENT);
+	}
+	
+	/**
+	 * Get the trimmed value of the first of a set of XPaths that has a
+	 * non-empty value. As with XPath, an empty string is returned if none
+	 * of them has a value.
+	 * @param xPaths The XPaths
+	 * @return The value, or {@code null} if none of the XPaths were extracted
+	 */
+	private String getText(String... xPaths) {
+		String result = null;
+		
+		for (String xPath : xPaths) {
+			String value = values.get(xPath);
+			if (null != value) {
+				result = value.trim();
+				if (result.length() > 0) {
+					break;
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Get the value of an XPath as a number
+	 * @param valueName The name of the value, for error messages
+	 * @param xPath The XPath
+	 * @param defaultValue The value to use if the XPath has no value
+	 * @return The number
+	 * @throws InvalidLookupValueException If the value is not numeric
+	 */
+	private double getDouble(String valueName, String xPath, double defaultValue) throws InvalidLookupValueException {
+		double result = defaultValue;
+		
+		String value = getText(xPath);
+		if (null != value && value.length() > 0) {
+			try {
+				result = Double.parseDouble(value);
+			} catch (NumberFormatException e) {
+				throw new InvalidLookupValueException(valueName, e);
+			}
+		}
+		
+		return result;
+	}
+}
@@ -0,0 +1,289 @@
+package no.bcdc.cdigenerator.importers.Pangaea;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import no.bcdc.cdigenerator.importers.XmlParsers;
+
+/**
+ * Extracts a set of fields from PANGAEA metadata in a single pass,
+ * without building a document tree.
+ *
+ * <p>
+ *   The fields are specified as XPaths, and the values extracted are the
+ *   same as evaluating each XPath as a string against the metadata document.
+ *   Only simple absolute paths are supported, where each step is an element
+ *   name with an optional attribute test, e.g.
+ *   {@code /MetaData/reference[@relationType="Other version"]/URI}.
+ *   Other XPaths are ignored, and must be evaluated against the document.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class PangaeaMetadataExtractor {
+	
+	/**
+	 * Pattern for a single path step: an element name, optionally
+	 * followed by an attribute test
+	 */
+	private static final Pattern STEP_PATTERN = Pattern.compile("([A-Za-z_][\\w.:-]*)(?:\\[@([A-Za-z_][\\w.:-]*)=[\"']([^\"']*)[\"']\\])?");
+	
+	/**
+	 * The paths to extract
+	 */
+	private List<Path> paths = new ArrayList<Path>();
+	
+	/**
+	 * The length of the longest path
+	 */
+	private int maxDepth = 0;
+	
+	/**
+	 * Constructor
+	 * @param xPaths The XPaths of the fields to extract
+	 */
+	public PangaeaMetadataExtractor(Collection<String> xPaths) {
+		for (String xPath : xPaths) {
+			Path path = Path.parse(xPath);
+			if (null != path) {
+				paths.add(path);
+				maxDepth = Math.max(maxDepth, path.steps.length);
+			}
+		}
+	}
+	
+	/**
+	 * Get the XPaths that this extractor can extract. XPaths that
+	 * were passed to the constructor but are not supported are not included.
+	 * @return The XPaths
+	 */
+	public List<String> getXPaths() {
+		List<String> result = new ArrayList<String>(paths.size());
+		for (Path path : paths) {
+			result.add(path.xPath);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Extract the fields from a metadata document
+	 * @param xml The metadata document
+	 * @return The extracted fields
+	 * @throws XMLStreamException If the document is not valid XML
+	 */
+	public PangaeaMetadata extract(String xml) throws XMLStreamException {
+		
+		Map<String, String> values = new HashMap<String, String>();
+		
+		// The text being collected for each path, while we're inside a matching element
+		StringBuilder[] capturing = new StringBuilder[paths.size()];
+		int[] captureDepth = new int[paths.size()];
+		
+		// For each level of the element stack, whether each path still matches
+		boolean[][] matching = new boolean[maxDepth + 1][paths.size()];
+		for (int i = 0; i < paths.size(); i++) {
+			matching[0][i] = true;
+		}
+		
+		XMLStreamReader reader = XmlParsers.createStreamReader(new StringReader(xml));
+		try {
+			int depth = 0;
+			
+			while (reader.hasNext()) {
+				int event = reader.next();
+				
+				switch (event) {
+				case XMLStreamConstants.START_ELEMENT: {
+					depth++;
+					if (depth <= maxDepth) {
+						String name = getName(reader);
+						for (int i = 0; i < paths.size(); i++) {
+							Path path = paths.get(i);
+							boolean match = matching[depth - 1][i] && depth <= path.steps.length && path.steps[depth - 1].matches(name, reader);
+							matching[depth][i] = match;
+							if (match && depth == path.steps.length && !values.containsKey(path.xPath) && null == capturing[i]) {
+								capturing[i] = new StringBuilder();
+								captureDepth[i] = depth;
+							}
+						}
+					}
+					break;
+				}
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE: {
+					for (int i = 0; i < capturing.length; i++) {
+						if (null != capturing[i]) {
+							capturing[i].append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+						}
+					}
+					break;
+				}
+				case XMLStreamConstants.END_ELEMENT: {
+					for (int i = 0; i < capturing.length; i++) {
+						if (null != capturing[i] && captureDepth[i] == depth) {
+							values.put(paths.get(i).xPath, capturing[i].toString());
+							capturing[i] = null;
+						}
+					}
+					depth--;
+					break;
+				}
+				default: {
+					// Nothing to do
+				}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		
+		// XPath gives an empty string for fields that aren't there
+		for (Path path : paths) {
+			if (!values.containsKey(path.xPath)) {
+				values.put(path.xPath, "");
+			}
+		}
+		
+		return new PangaeaMetadata(values);
+	}
+	
+	/**
+	 * Get the name of the current element as XPath sees it in a
+	 * document parsed without namespace support
+	 * @param reader The XML reader
+	 * @return The element name
+	 */
+	private static String getName(XMLStreamReader reader) {
+		String prefix = reader.getPrefix();
+		return null == prefix || prefix.length() == 0 ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
+	}
+	
+	/**
+	 * A parsed XPath
+	 */
+	private static class Path {
+		
+		/**
+		 * The original XPath
+		 */
+		private String xPath;
+		
+		/**
+		 * The steps in the path
+		 */
+		private Step[] steps;
+		
+		/**
+		 * Parse an XPath
+		 * @param xPath The XPath
+		 * @return The parsed path, or {@code null} if the XPath is not supported
+		 */
+		private static Path parse(String xPath) {
+			Path result = null;
+			
+			if (xPath.startsWith("/") && !xPath.startsWith("//")) {
+				String[] stepStrings = xPath.substring(1).split("/");
+				Step[] steps = new Step[stepStrings.length];
+				
+				boolean valid = true;
+				for (int i = 0; valid && i < stepStrings.length; i++) {
+					Matcher matcher = STEP_PATTERN.matcher(stepStrings[i]);
+					if (matcher.matches()) {
+						steps[i] = new Step(matcher.group(1), matcher.group(2), matcher.group(3));
+					} else {
+						valid = false;
+					}
+				}
+				
+				if (valid) {
+					result = new Path();
+					result.xPath = xPath;
+					result.steps = steps;
+				}
+			}
+			
+			return result;
+		}
+	}
+	
+	/**
+	 * A single step in a path
+	 */
+	private static class Step {
+		
+		/**
+		 * The element name
+		 */
+		private String name;
+		
+		/**
+		 * The name of the attribute to test, if any
+		 */
+		private String attributeName;
+		
+		/**
+		 * The required attribute value
+		 */
+		private String attributeValue;
+		
+		/**
+		 * Constructor
+		 * @param name The element name
+		 * @param attributeName The name of the attribute to test, or {@code null} if there is no test
+		 * @param attributeValue The required attribute value
+		 */
+		private Step(String name, String attributeName, String attributeValue) {
+			this.name = name;
+			this.attributeName = attributeName;
+			this.attributeValue = attributeValue;
+		}
+		
+		/**
+		 * Determine whether the current element matches this step
+		 * @param elementName The element name
+		 * @param reader The XML reader, positioned at the element
+		 * @return {@code true} if the element matches; {@code false} otherwise
+		 */
+		private boolean matches(String elementName, XMLStreamReader reader) {
+			boolean result = name.equals(elementName);
+			if (result && null != attributeName) {
+				result = attributeValue.equals(getAttribute(reader, attributeName));
+			}
+			
+			return result;
+		}
+		
+		/**
+		 * Get the value of an attribute of the current element
+		 * @param reader The XML reader
+		 * @param attributeName The attribute name
+		 * @return The attribute value, or {@code null} if the element doesn't have the attribute
+		 */
+		private static String getAttribute(XMLStreamReader reader, String attributeName) {
+			String result = null;
+			
+			for (int i = 0; null == result && i < reader.getAttributeCount(); i++) {
+				String prefix = reader.getAttributePrefix(i);
+				String name = null == prefix || prefix.length() == 0 ? reader.getAttributeLocalName(i) : prefix + ":" + reader.getAttributeLocalName(i);
+				if (name.equals(attributeName)) {
+					result = reader.getAttributeValue(i);
+				}
+			}
+			
+			return result;
+		}
+	}
+}
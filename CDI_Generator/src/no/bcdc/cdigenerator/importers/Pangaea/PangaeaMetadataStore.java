@@ -0,0 +1,649 @@
+package no.bcdc.cdigenerator.importers.Pangaea;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import no.bcdc.cdigenerator.CDIGenerator;
+import no.bcdc.cdigenerator.Config;
+
+/**
+ * A local store of the metadata harvested from PANGAEA, keyed by PANGAEA ID.
+ * Metadata for a data set hardly ever changes between runs, so once it has been
+ * harvested it is used instead of asking the web service again until it reaches
+ * the configured maximum age.
+ *
+ * <p>
+ *   Each record holds the fields extracted from the metadata by a
+ *   {@link PangaeaMetadataExtractor}, so they don't have to be extracted
+ *   again, and the compressed metadata XML for anything else that is needed.
+ * </p>
+ *
+ * <p>
+ *   The records are kept in a single binary file. New and updated records are
+ *   appended to the end of the file, and an index of the latest record for each
+ *   data set is built in memory when the store is opened. If a large part of the
+ *   file is taken up by replaced records, it is rewritten without them.
+ * </p>
+ *
+ * <p>
+ *   Each record is written as its length followed by the data set ID, the time it
+ *   was harvested, a hash of the metadata XML, the extracted fields and the
+ *   compressed XML. If the program stops while a record is being written, the
+ *   incomplete record is discarded the next time the store is opened.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class PangaeaMetadataStore {
+	
+	/**
+	 * The name of the store directory inside the temp directory
+	 */
+	private static final String STORE_DIR_NAME = "metadata";
+	
+	/**
+	 * The name of the store file
+	 */
+	private static final String STORE_FILE_NAME = "pangaea.store";
+	
+	/**
+	 * The identifier at the start of the store file ("PMS1")
+	 */
+	private static final int MAGIC = 0x504D5331;
+	
+	/**
+	 * The length of the file header
+	 */
+	private static final int HEADER_LENGTH = 4;
+	
+	/**
+	 * The length of the record length field
+	 */
+	private static final int LENGTH_FIELD_LENGTH = 4;
+	
+	/**
+	 * The length of a metadata hash
+	 */
+	private static final int HASH_LENGTH = 32;
+	
+	/**
+	 * The file is rewritten when replaced records take up more than this proportion of it
+	 */
+	private static final double COMPACT_THRESHOLD = 0.5;
+	
+	/**
+	 * The stores for each store file
+	 */
+	private static Map<File, PangaeaMetadataStore> stores = new HashMap<File, PangaeaMetadataStore>();
+	
+	/**
+	 * The store file
+	 */
+	private File storeFile;
+	
+	/**
+	 * The age at which records are no longer used, in milliseconds
+	 */
+	private long maxAge;
+	
+	/**
+	 * The open store file
+	 */
+	private RandomAccessFile file = null;
+	
+	/**
+	 * The latest record for each data set
+	 */
+	private Map<String, IndexEntry> index = new HashMap<String, IndexEntry>();
+	
+	/**
+	 * The total length of the latest records, in bytes
+	 */
+	private long liveLength = 0;
+	
+	/**
+	 * Get the metadata store in the configured temp directory, opening it if necessary
+	 * @param config The application configuration
+	 * @return The metadata store
+	 */
+	public static synchronized PangaeaMetadataStore getInstance(Config config) {
+		File storeFile = new File(new File(config.getTempDir(), STORE_DIR_NAME), STORE_FILE_NAME);
+		PangaeaMetadataStore store = stores.get(storeFile);
+		if (null == store) {
+			store = new PangaeaMetadataStore(storeFile, config.getMetadataStoreMaxAge());
+			stores.put(storeFile, store);
+		}
+		
+		return store;
+	}
+	
+	/**
+	 * Constructor. Opens the store file and builds the index.
+	 * @param storeFile The store file
+	 * @param maxAge The age at which records are no longer used, in milliseconds
+	 */
+	private PangaeaMetadataStore(File storeFile, long maxAge) {
+		this.storeFile = storeFile;
+		this.maxAge = maxAge;
+		
+		if (maxAge > 0) {
+			File storeDir = storeFile.getParentFile();
+			if (!storeDir.exists() && !storeDir.mkdirs()) {
+				CDIGenerator.getLogger().warning("Cannot create metadata store directory " + storeDir.getAbsolutePath() + ". Metadata store disabled\n");
+				this.maxAge = 0;
+			} else {
+				try {
+					open();
+				} catch (IOException e) {
+					CDIGenerator.getLogger().log(Level.WARNING, "Cannot open metadata store " + storeFile.getAbsolutePath() + ". Metadata store disabled", e);
+					close();
+					this.maxAge = 0;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Determine whether the store is in use
+	 * @return {@code true} if the store is enabled; {@code false} if it is disabled
+	 */
+	public boolean isEnabled() {
+		return maxAge > 0;
+	}
+	
+	/**
+	 * Determine whether the store holds current metadata for a data set
+	 * @param dataSetId The data set ID
+	 * @return {@code true} if the metadata is in the store and not too old; {@code false} otherwise
+	 */
+	public synchronized boolean contains(String dataSetId) {
+		return null != getCurrentEntry(dataSetId);
+	}
+	
+	/**
+	 * Get the metadata XML for a data set
+	 * @param dataSetId The data set ID
+	 * @return The metadata XML, or {@code null} if the store has no current metadata for the data set
+	 */
+	public synchronized String getMetadata(String dataSetId) {
+		String result = null;
+		
+		IndexEntry entry = getCurrentEntry(dataSetId);
+		if (null != entry) {
+			try {
+				result = readRecord(entry).xml;
+			} catch (IOException e) {
+				CDIGenerator.getLogger().log(Level.WARNING, "Cannot read stored metadata for " + dataSetId, e);
+				removeEntry(dataSetId);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Get the extracted fields for a data set's metadata. The fields are only returned
+	 * if they were extracted from exactly the same metadata XML, and include all the
+	 * required XPaths.
+	 * @param dataSetId The data set ID
+	 * @param xml The metadata XML
+	 * @param xPaths The XPaths that must be included
+	 * @return The extracted fields, or {@code null} if the store doesn't have them
+	 */
+	public synchronized PangaeaMetadata getFields(String dataSetId, String xml, Collection<String> xPaths) {
+		PangaeaMetadata result = null;
+		
+		IndexEntry entry = index.get(dataSetId);
+		if (isEnabled() && null != entry && Arrays.equals(entry.hash, hash(xml))) {
+			try {
+				PangaeaMetadata fields = readRecord(entry).fields;
+				if (fields.getValues().keySet().containsAll(xPaths)) {
+					result = fields;
+				}
+			} catch (IOException e) {
+				CDIGenerator.getLogger().log(Level.WARNING, "Cannot read stored metadata for " + dataSetId, e);
+				removeEntry(dataSetId);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Add or replace the metadata for a data set. If the store already holds the same
+	 * metadata with all the same fields, only its harvest time is updated.
+	 * 
+	 * <p>
+	 *   The store only serves metadata that hasn't expired, so if it is given the same
+	 *   metadata as a record that is still current, the metadata came from the store
+	 *   and the record keeps its original harvest time. Otherwise records that are
+	 *   used regularly would never expire.
+	 * </p>
+	 * 
+	 * @param dataSetId The data set ID
+	 * @param xml The metadata XML
+	 * @param fields The fields extracted from the metadata, or {@code null} if they could not be extracted
+	 */
+	public synchronized void put(String dataSetId, String xml, PangaeaMetadata fields) {
+		if (isEnabled() && null != xml) {
+			try {
+				byte[] hash = hash(xml);
+				long now = System.currentTimeMillis();
+				
+				IndexEntry existing = index.get(dataSetId);
+				boolean sameXml = null != existing && Arrays.equals(existing.hash, hash);
+				long harvested = sameXml && isCurrent(existing) ? existing.harvested : now;
+				
+				if (sameXml && (null == fields || readRecord(existing).fields.getValues().keySet().containsAll(fields.getValues().keySet()))) {
+					if (harvested != existing.harvested) {
+						file.seek(existing.harvestedOffset);
+						file.writeLong(harvested);
+						existing.harvested = harvested;
+					}
+				} else {
+					byte[] record = encodeRecord(dataSetId, harvested, hash, fields, xml);
+					
+					long offset = file.length();
+					file.seek(offset);
+					file.writeInt(record.length);
+					file.write(record);
+					
+					IndexEntry entry = readIndexEntry(offset);
+					removeEntry(dataSetId);
+					index.put(dataSetId, entry);
+					liveLength = liveLength + entry.length;
+					
+					if (needsCompacting()) {
+						compact();
+					}
+				}
+			} catch (IOException e) {
+				CDIGenerator.getLogger().log(Level.WARNING, "Cannot store metadata for " + dataSetId, e);
+			}
+		}
+	}
+	
+	/**
+	 * Get the index entry for a data set if its record is not too old
+	 * @param dataSetId The data set ID
+	 * @return The index entry, or {@code null} if there is no current record
+	 */
+	private IndexEntry getCurrentEntry(String dataSetId) {
+		IndexEntry result = null;
+		
+		if (isEnabled()) {
+			IndexEntry entry = index.get(dataSetId);
+			if (null != entry && isCurrent(entry)) {
+				result = entry;
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Determine whether a record is recent enough to be used
+	 * @param entry The record's index entry
+	 * @return {@code true} if the record is not too old; {@code false} if it has expired
+	 */
+	private boolean isCurrent(IndexEntry entry) {
+		return System.currentTimeMillis() - entry.harvested < maxAge;
+	}
+	
+	/**
+	 * Remove a data set from the index
+	 * @param dataSetId The data set ID
+	 */
+	private void removeEntry(String dataSetId) {
+		IndexEntry removed = index.remove(dataSetId);
+		if (null != removed) {
+			liveLength = liveLength - removed.length;
+		}
+	}
+	
+	/**
+	 * Open the store file and build the index. An incomplete record at the end of the file is discarded.
+	 * @throws IOException If the file cannot be read
+	 */
+	private void open() throws IOException {
+		file = new RandomAccessFile(storeFile, "rw");
+		
+		if (file.length() < HEADER_LENGTH) {
+			file.setLength(0);
+			file.writeInt(MAGIC);
+		} else if (file.readInt() != MAGIC) {
+			throw new IOException("Not a metadata store file");
+		}
+		
+		long offset = HEADER_LENGTH;
+		long fileLength = file.length();
+		boolean complete = false;
+		
+		while (!complete) {
+			IndexEntry entry = null;
+			if (offset + LENGTH_FIELD_LENGTH <= fileLength) {
+				try {
+					entry = readIndexEntry(offset);
+					if (offset + entry.length > fileLength) {
+						entry = null;
+					}
+				} catch (IOException e) {
+					entry = null;
+				}
+			}
+			
+			if (null == entry) {
+				complete = true;
+			} else {
+				removeEntry(entry.dataSetId);
+				index.put(entry.dataSetId, entry);
+				liveLength = liveLength + entry.length;
+				offset = offset + entry.length;
+			}
+		}
+		
+		if (offset < fileLength) {
+			CDIGenerator.getLogger().warning("Discarding incomplete record at the end of metadata store " + storeFile.getAbsolutePath() + '\n');
+			file.setLength(offset);
+		}
+		
+		if (needsCompacting()) {
+			compact();
+		}
+	}
+	
+	/**
+	 * Close the store file
+	 */
+	private void close() {
+		if (null != file) {
+			try {
+				file.close();
+			} catch (IOException e) {
+				// Nothing we can do about it
+			}
+			file = null;
+		}
+	}
+	
+	/**
+	 * Determine whether the store file has enough replaced records in it to be worth rewriting
+	 * @return {@code true} if the file should be compacted; {@code false} if it should be left as it is
+	 * @throws IOException If the file length cannot be read
+	 */
+	private boolean needsCompacting() throws IOException {
+		long wasted = file.length() - HEADER_LENGTH - liveLength;
+		return wasted > 0 && wasted > file.length() * COMPACT_THRESHOLD;
+	}
+	
+	/**
+	 * Rewrite the store file with only the latest record for each data set
+	 * @throws IOException If the file cannot be rewritten
+	 */
+	private void compact() throws IOException {
+		File tempFile = new File(storeFile.getParentFile(), STORE_FILE_NAME + ".tmp");
+		RandomAccessFile compacted = new RandomAccessFile(tempFile, "rw");
+		
+		Map<String, IndexEntry> newIndex = new HashMap<String, IndexEntry>();
+		try {
+			compacted.setLength(0);
+			compacted.writeInt(MAGIC);
+			
+			for (IndexEntry entry : index.values()) {
+				byte[] record = new byte[(int) entry.length];
+				file.seek(entry.offset);
+				file.readFully(record);
+				
+				long newOffset = compacted.getFilePointer();
+				IndexEntry newEntry = new IndexEntry(entry.dataSetId, newOffset, entry.length, newOffset + entry.harvestedOffset - entry.offset, entry.harvested, entry.hash);
+				compacted.write(record);
+				newIndex.put(entry.dataSetId, newEntry);
+			}
+		} finally {
+			compacted.close();
+		}
+		
+		close();
+		Files.move(tempFile.toPath(), storeFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		file = new RandomAccessFile(storeFile, "rw");
+		index = newIndex;
+	}
+	
+	/**
+	 * Read the index details of the record at the given position in the store file
+	 * @param offset The position of the record
+	 * @return The index entry for the record
+	 * @throws IOException If the record cannot be read
+	 */
+	private IndexEntry readIndexEntry(long offset) throws IOException {
+		file.seek(offset);
+		int recordLength = file.readInt();
+		if (recordLength <= 0) {
+			throw new IOException("Invalid record length");
+		}
+		
+		String dataSetId = file.readUTF();
+		long harvestedOffset = file.getFilePointer();
+		long harvested = file.readLong();
+		byte[] hash = new byte[HASH_LENGTH];
+		file.readFully(hash);
+		
+		return new IndexEntry(dataSetId, offset, LENGTH_FIELD_LENGTH + recordLength, harvestedOffset, harvested, hash);
+	}
+	
+	/**
+	 * Read a complete record from the store file
+	 * @param entry The index entry for the record
+	 * @return The record
+	 * @throws IOException If the record cannot be read
+	 */
+	private Record readRecord(IndexEntry entry) throws IOException {
+		byte[] record = new byte[(int) entry.length - LENGTH_FIELD_LENGTH];
+		file.seek(entry.offset + LENGTH_FIELD_LENGTH);
+		file.readFully(record);
+		
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+		in.readUTF();
+		in.readLong();
+		in.skipBytes(HASH_LENGTH);
+		
+		int fieldCount = in.readInt();
+		Map<String, String> values = new HashMap<String, String>(fieldCount * 2);
+		for (int i = 0; i < fieldCount; i++) {
+			String xPath = readString(in);
+			values.put(xPath, readString(in));
+		}
+		
+		byte[] compressedXml = new byte[in.readInt()];
+		in.readFully(compressedXml);
+		InputStream xmlIn = new GZIPInputStream(new ByteArrayInputStream(compressedXml));
+		String xml;
+		try {
+			xml = IOUtils.toString(xmlIn, StandardCharsets.UTF_8);
+		} finally {
+			xmlIn.close();
+		}
+		
+		return new Record(new PangaeaMetadata(values), xml);
+	}
+	
+	/**
+	 * Build the bytes for a record, without the record length
+	 * @param dataSetId The data set ID
+	 * @param harvested The time the metadata was harvested
+	 * @param hash The hash of the metadata XML
+	 * @param fields The extracted fields
+	 * @param xml The metadata XML
+	 * @return The record bytes
+	 * @throws IOException If the record cannot be built
+	 */
+	private static byte[] encodeRecord(String dataSetId, long harvested, byte[] hash, PangaeaMetadata fields, String xml) throws IOException {
+		ByteArrayOutputStream compressedXml = new ByteArrayOutputStream(xml.length() / 4);
+		OutputStream xmlOut = new GZIPOutputStream(compressedXml);
+		try {
+			xmlOut.write(xml.getBytes(StandardCharsets.UTF_8));
+		} finally {
+			xmlOut.close();
+		}
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(compressedXml.size() + 1024);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeUTF(dataSetId);
+		out.writeLong(harvested);
+		out.write(hash);
+		
+		Map<String, String> values = null == fields ? Collections.<String, String>emptyMap() : fields.getValues();
+		out.writeInt(values.size());
+		for (Map.Entry<String, String> value : values.entrySet()) {
+			writeString(out, value.getKey());
+			writeString(out, value.getValue());
+		}
+		
+		out.writeInt(compressedXml.size());
+		compressedXml.writeTo(out);
+		out.close();
+		
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Write a string of any length. A {@code null} string is written as an empty string.
+	 * @param out The output stream
+	 * @param string The string
+	 * @throws IOException If the string cannot be written
+	 */
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = null == string ? new byte[0] : string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	/**
+	 * Read a string written by {@link #writeString(DataOutputStream, String)}
+	 * @param in The input stream
+	 * @return The string
+	 * @throws IOException If the string cannot be read
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Calculate the hash of some metadata XML
+	 * @param xml The XML
+	 * @return The hash
+	 */
+	private static byte[] hash(String xml) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(xml.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java implementation has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * The index details of a record in the store file
+	 */
+	private static class IndexEntry {
+		
+		/**
+		 * The data set ID
+		 */
+		private String dataSetId;
+		
+		/**
+		 * The position of the record in the store file
+		 */
+		private long offset;
+		
+		/**
+		 * The length of the record, including its length field
+		 */
+		private long length;
+		
+		/**
+		 * The position of the harvest time in the store file
+		 */
+		private long harvestedOffset;
+		
+		/**
+		 * The time the metadata was harvested
+		 */
+		private long harvested;
+		
+		/**
+		 * The hash of the metadata XML
+		 */
+		private byte[] hash;
+		
+		/**
+		 * Constructor
+		 * @param dataSetId The data set ID
+		 * @param offset The position of the record in the store file
+		 * @param length The length of the record, including its length field
+		 * @param harvestedOffset The position of the harvest time in the store file
+		 * @param harvested The time the metadata was harvested
+		 * @param hash The hash of the metadata XML
+		 */
+		private IndexEntry(String dataSetId, long offset, long length, long harvestedOffset, long harvested, byte[] hash) {
+			this.dataSetId = dataSetId;
+			this.offset = offset;
+			this.length = length;
+			this.harvestedOffset = harvestedOffset;
+			this.harvested = harvested;
+			this.hash = hash;
+		}
+	}
+	
+	/**
+	 * The contents of a record
+	 */
+	private static class Record {
+		
+		/**
+		 * The extracted fields
+		 */
+		private PangaeaMetadata fields;
+		
+		/**
+		 * The metadata XML
+		 */
+		private String xml;
+		
+		/**
+		 * Constructor
+		 * @param fields The extracted fields
+		 * @param xml The metadata XML
+		 */
+		private Record(PangaeaMetadata fields, String xml) {
+			this.fields = fields;
+			this.xml = xml;
+		}
+	}
+}
@@ -0,0 +1,539 @@
+package no.bcdc.cdigenerator.importers.Pangaea;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import no.bcdc.cdigenerator.importers.XmlParsers;
+
+/**
+ * A local stand-in for the PANGAEA data server and PangaVista web service,
+ * so that the importers can be run and benchmarked without network access.
+ *
+ * <p>
+ *   Responses are served from a cassette directory, which contains a {@code data}
+ *   directory of data files named {@code <id>.txt} and a {@code metadata} directory
+ *   of metadata files named {@code <id>.xml}. Data sets that are not in the cassette
+ *   are reported as not found. In record mode, missing data sets are fetched from
+ *   the real servers and added to the cassette.
+ * </p>
+ *
+ * <p>
+ *   Problems seen on the real servers can be simulated: slow responses, server
+ *   errors, sessions that expire or aren't ready straight away, and missing
+ *   data sets. Point the {@code pangaea.wsEndPoint} and {@code pangaea.dataUrl}
+ *   configuration properties at the URLs printed on startup to use the stand-in.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class PangaeaStandIn implements HttpHandler {
+	
+	/**
+	 * The path of the web service
+	 */
+	private static final String WS_PATH = "/ws/services/PangaVista";
+	
+	/**
+	 * The path prefix for data files
+	 */
+	private static final String DATA_PATH = "/10.1594/PANGAEA.";
+	
+	/**
+	 * The SOAP envelope namespace
+	 */
+	private static final String SOAP_ENVELOPE_NS = "http://schemas.xmlsoap.org/soap/envelope/";
+	
+	/**
+	 * Pattern for extracting a data set ID from the end of a URI or path
+	 */
+	private static final Pattern ID_PATTERN = Pattern.compile("([0-9]+)$");
+	
+	/**
+	 * The directory holding the data files
+	 */
+	private File dataDir;
+	
+	/**
+	 * The directory holding the metadata files
+	 */
+	private File metadataDir;
+	
+	/**
+	 * The delay added to every response, in milliseconds
+	 */
+	private long latency = 0;
+	
+	/**
+	 * The proportion of requests that fail with a server error
+	 */
+	private double errorRate = 0;
+	
+	/**
+	 * The proportion of data sets reported as not found even if they are in the cassette
+	 */
+	private double notFoundRate = 0;
+	
+	/**
+	 * The number of metadata requests that a session can be used for before it expires.
+	 * Zero means that sessions never expire.
+	 */
+	private int sessionExpiry = 0;
+	
+	/**
+	 * The time after registration before a session can be used, in milliseconds
+	 */
+	private long sessionDelay = 0;
+	
+	/**
+	 * The client for the real web service, used in record mode
+	 */
+	private PangaVistaClient recordClient = null;
+	
+	/**
+	 * The base URL of the real data server, used in record mode
+	 */
+	private String recordDataUrl = null;
+	
+	/**
+	 * The session used for the real web service in record mode
+	 */
+	private String recordSession = null;
+	
+	/**
+	 * The sessions issued so far, with the number of times each has been used
+	 */
+	private Map<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+	
+	/**
+	 * Counter for generating session IDs
+	 */
+	private AtomicInteger sessionCounter = new AtomicInteger(0);
+	
+	/**
+	 * Start the stand-in server
+	 * @param args The command line arguments
+	 */
+	public static void main(String[] args) {
+		
+		if (args.length < 2) {
+			System.out.println("Usage: PangaeaStandIn port cassette_dir [options]");
+			System.out.println();
+			System.out.println("Options:");
+			System.out.println("  -latency <ms>                 Delay every response");
+			System.out.println("  -errorRate <fraction>         Fail this proportion of requests with HTTP 503");
+			System.out.println("  -notFoundRate <fraction>      Report this proportion of data sets as not found");
+			System.out.println("  -sessionExpiry <requests>     Expire sessions after this many metadata requests");
+			System.out.println("  -sessionDelay <ms>            Reject new sessions until they are this old");
+			System.out.println("  -record <ws end point> <data url>");
+			System.out.println("                                Fetch data sets missing from the cassette from the real servers");
+			System.exit(0);
+		}
+		
+		try {
+			int port = Integer.parseInt(args[0]);
+			PangaeaStandIn standIn = new PangaeaStandIn(new File(args[1]));
+			
+			for (int i = 2; i < args.length; i++) {
+				String option = args[i];
+				if (option.equals("-latency")) {
+					standIn.latency = Long.parseLong(args[++i]);
+				} else if (option.equals("-errorRate")) {
+					standIn.errorRate = Double.parseDouble(args[++i]);
+				} else if (option.equals("-notFoundRate")) {
+					standIn.notFoundRate = Double.parseDouble(args[++i]);
+				} else if (option.equals("-sessionExpiry")) {
+					standIn.sessionExpiry = Integer.parseInt(args[++i]);
+				} else if (option.equals("-sessionDelay")) {
+					standIn.sessionDelay = Long.parseLong(args[++i]);
+				} else if (option.equals("-record")) {
+					standIn.recordClient = new PangaVistaClient(args[++i], PangaVistaImporter.OPERATION_NAME_URI);
+					standIn.recordDataUrl = args[++i];
+				} else {
+					throw new IllegalArgumentException("Unrecognised option " + option);
+				}
+			}
+			
+			HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+			server.createContext("/", standIn);
+			server.setExecutor(Executors.newCachedThreadPool());
+			server.start();
+			
+			System.out.println("PANGAEA stand-in running");
+			System.out.println("pangaea.wsEndPoint=http://localhost:" + port + WS_PATH);
+			System.out.println("pangaea.dataUrl=http://localhost:" + port + DATA_PATH);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Constructor
+	 * @param cassetteDir The cassette directory
+	 * @throws IOException If the cassette directory cannot be used
+	 */
+	private PangaeaStandIn(File cassetteDir) throws IOException {
+		dataDir = new File(cassetteDir, "data");
+		metadataDir = new File(cassetteDir, "metadata");
+		FileUtils.forceMkdir(dataDir);
+		FileUtils.forceMkdir(metadataDir);
+	}
+	
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		try {
+			byte[] request = IOUtils.toByteArray(exchange.getRequestBody());
+			
+			if (latency > 0) {
+				Thread.sleep(latency);
+			}
+			
+			String path = exchange.getRequestURI().getPath();
+			
+			if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+				sendResponse(exchange, HttpURLConnection.HTTP_UNAVAILABLE, "text/plain", "Injected error");
+			} else if (path.equals(WS_PATH) && exchange.getRequestMethod().equals("POST")) {
+				handleSoapRequest(exchange, request);
+			} else if (path.startsWith(DATA_PATH) && exchange.getRequestMethod().equals("GET")) {
+				handleDataRequest(exchange, path.substring(DATA_PATH.length()));
+			} else {
+				sendResponse(exchange, HttpURLConnection.HTTP_NOT_FOUND, "text/plain", "Not found");
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			sendResponse(exchange, HttpURLConnection.HTTP_INTERNAL_ERROR, "text/plain", String.valueOf(e.getMessage()));
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	/**
+	 * Serve a data file
+	 * @param exchange The HTTP exchange
+	 * @param dataSetId The data set ID
+	 * @throws IOException If the response cannot be sent
+	 */
+	private void handleDataRequest(HttpExchange exchange, String dataSetId) throws IOException {
+		String data = null;
+		if (ID_PATTERN.matcher(dataSetId).matches() && !injectNotFound()) {
+			data = getData(dataSetId);
+		}
+		
+		if (null == data) {
+			sendResponse(exchange, HttpURLConnection.HTTP_NOT_FOUND, "text/plain", "Not found");
+		} else {
+			// Support conditional requests so that client caching can be tested
+			String eTag = "\"" + Integer.toHexString(data.hashCode()) + "\"";
+			exchange.getResponseHeaders().set("ETag", eTag);
+			if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+			} else {
+				sendResponse(exchange, HttpURLConnection.HTTP_OK, "text/plain; charset=utf-8", data);
+			}
+		}
+	}
+	
+	/**
+	 * Handle a call to the web service
+	 * @param exchange The HTTP exchange
+	 * @param request The SOAP request
+	 * @throws IOException If the response cannot be sent
+	 */
+	private void handleSoapRequest(HttpExchange exchange, byte[] request) throws IOException {
+		
+		String operation = null;
+		Map<String, String> parameters = new HashMap<String, String>();
+		
+		try {
+			XMLStreamReader reader = XmlParsers.createStreamReader(new ByteArrayInputStream(request));
+			
+			// Depth 3 is the operation, and 4 its parameters
+			int depth = 0;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					depth++;
+					if (depth == 3) {
+						operation = reader.getLocalName();
+					} else if (depth == 4) {
+						parameters.put(reader.getLocalName(), reader.getElementText());
+						depth--;
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					depth--;
+				}
+			}
+			
+			reader.close();
+		} catch (XMLStreamException e) {
+			sendFault(exchange, "soapenv:Client", "Invalid request: " + e.getMessage());
+			return;
+		}
+		
+		if (PangaVistaImporter.OPERATION_REGISTER_SESSION.equals(operation)) {
+			String sessionId = "standin-" + sessionCounter.incrementAndGet();
+			sessions.put(sessionId, new Session());
+			sendReturn(exchange, operation, sessionId);
+		} else if (PangaVistaImporter.OPERATION_METADATA.equals(operation)) {
+			Session session = sessions.get(parameters.get("session"));
+			if (null == session || !session.use()) {
+				sendFault(exchange, "soapenv:Server", PangaVistaImporter.EXPIRED_SESSION_ERROR);
+			} else {
+				String metadata = null;
+				String uri = parameters.get("URI");
+				Matcher matcher = ID_PATTERN.matcher(null == uri ? "" : uri);
+				if (matcher.find() && !injectNotFound()) {
+					metadata = getMetadata(matcher.group(1));
+				}
+				
+				if (null == metadata) {
+					sendFault(exchange, "soapenv:Server", PangaVistaImporter.DATASET_NOT_FOUND_ERROR);
+				} else {
+					sendReturn(exchange, operation, metadata);
+				}
+			}
+		} else {
+			sendFault(exchange, "soapenv:Client", "Unknown operation " + operation);
+		}
+	}
+	
+	/**
+	 * Decide whether to report a data set as not found, regardless of whether it exists
+	 * @return {@code true} if the data set should be reported as not found
+	 */
+	private boolean injectNotFound() {
+		return notFoundRate > 0 && ThreadLocalRandom.current().nextDouble() < notFoundRate;
+	}
+	
+	/**
+	 * Get the data for a data set from the cassette, recording it if necessary
+	 * @param dataSetId The data set ID
+	 * @return The data, or {@code null} if the data set does not exist
+	 * @throws IOException If the data cannot be read or recorded
+	 */
+	private String getData(String dataSetId) throws IOException {
+		String result = null;
+		
+		File file = new File(dataDir, dataSetId + ".txt");
+		if (file.exists()) {
+			result = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+		} else if (null != recordDataUrl) {
+			HttpURLConnection conn = (HttpURLConnection) new URL(recordDataUrl + dataSetId + "?format=textfile").openConnection();
+			if (conn.getResponseCode() == HttpURLConnection.HTTP_OK) {
+				InputStream in = conn.getInputStream();
+				try {
+					result = IOUtils.toString(in, StandardCharsets.UTF_8);
+				} finally {
+					in.close();
+				}
+				
+				FileUtils.writeStringToFile(file, result, StandardCharsets.UTF_8);
+				System.out.println("Recorded data for " + dataSetId);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Get the metadata for a data set from the cassette, recording it if necessary
+	 * @param dataSetId The data set ID
+	 * @return The metadata, or {@code null} if the data set does not exist
+	 * @throws IOException If the metadata cannot be read or recorded
+	 */
+	private String getMetadata(String dataSetId) throws IOException {
+		String result = null;
+		
+		File file = new File(metadataDir, dataSetId + ".xml");
+		if (file.exists()) {
+			result = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+		} else if (null != recordClient) {
+			result = recordMetadata(dataSetId);
+			if (null != result) {
+				FileUtils.writeStringToFile(file, result, StandardCharsets.UTF_8);
+				System.out.println("Recorded metadata for " + dataSetId);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Retrieve metadata from the real web service
+	 * @param dataSetId The data set ID
+	 * @return The metadata, or {@code null} if the data set does not exist
+	 * @throws IOException If the metadata cannot be retrieved
+	 */
+	private synchronized String recordMetadata(String dataSetId) throws IOException {
+		String result = null;
+		
+		if (null == recordSession) {
+			recordSession = recordClient.registerSession();
+		}
+		
+		try {
+			result = recordClient.getMetadata(recordSession, dataSetId);
+		} catch (PangaVistaFaultException e) {
+			if (PangaVistaImporter.EXPIRED_SESSION_ERROR.equals(e.getMessage())) {
+				recordSession = recordClient.registerSession();
+				result = recordClient.getMetadata(recordSession, dataSetId);
+			} else if (null == e.getMessage() || !e.getMessage().startsWith(PangaVistaImporter.DATASET_NOT_FOUND_ERROR)) {
+				throw e;
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Send a SOAP response containing a return value
+	 * @param exchange The HTTP exchange
+	 * @param operation The operation name
+	 * @param value The return value
+	 * @throws IOException If the response cannot be sent
+	 */
+	private void sendReturn(HttpExchange exchange, String operation, String value) throws IOException {
+		StringBuilder body = new StringBuilder();
+		body.append("<ns1:");
+		body.append(operation);
+		body.append("Response xmlns:ns1=\"");
+		body.append(PangaVistaImporter.OPERATION_NAME_URI);
+		body.append("\"><");
+		body.append(operation);
+		body.append("Return xsi:type=\"xsd:string\">");
+		appendEscaped(body, value);
+		body.append("</");
+		body.append(operation);
+		body.append("Return></ns1:");
+		body.append(operation);
+		body.append("Response>");
+		
+		sendResponse(exchange, HttpURLConnection.HTTP_OK, "text/xml; charset=utf-8", makeEnvelope(body));
+	}
+	
+	/**
+	 * Send a SOAP fault
+	 * @param exchange The HTTP exchange
+	 * @param faultCode The fault code
+	 * @param faultString The fault string
+	 * @throws IOException If the response cannot be sent
+	 */
+	private void sendFault(HttpExchange exchange, String faultCode, String faultString) throws IOException {
+		StringBuilder body = new StringBuilder();
+		body.append("<soapenv:Fault><faultcode>");
+		body.append(faultCode);
+		body.append("</faultcode><faultstring>");
+		appendEscaped(body, faultString);
+		body.append("</faultstring></soapenv:Fault>");
+		
+		sendResponse(exchange, HttpURLConnection.HTTP_INTERNAL_ERROR, "text/xml; charset=utf-8", makeEnvelope(body));
+	}
+	
+	/**
+	 * Wrap a SOAP body in an envelope
+	 * @param body The body contents
+	 * @return The envelope
+	 */
+	private String makeEnvelope(StringBuilder body) {
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><soapenv:Envelope xmlns:soapenv=\"" + SOAP_ENVELOPE_NS
+			+ "\" xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"><soapenv:Body>"
+			+ body + "</soapenv:Body></soapenv:Envelope>";
+	}
+	
+	/**
+	 * Add a value to an XML document, escaping any special characters
+	 * @param xml The XML document
+	 * @param value The value
+	 */
+	private void appendEscaped(StringBuilder xml, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '<') {
+				xml.append("&lt;");
+			} else if (c == '>') {
+				xml.append("&gt;");
+			} else if (c == '&') {
+				xml.append("&amp;");
+			} else {
+				xml.append(c);
+			}
+		}
+	}
+	
+	/**
+	 * Send an HTTP response
+	 * @param exchange The HTTP exchange
+	 * @param status The HTTP status
+	 * @param contentType The content type
+	 * @param body The response body
+	 * @throws IOException If the response cannot be sent
+	 */
+	private void sendResponse(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * A session issued by the stand-in
+	 */
+	private class Session {
+		
+		/**
+		 * The time that the session was registered
+		 */
+		private long registeredAt = System.currentTimeMillis();
+		
+		/**
+		 * The number of times the session has been used
+		 */
+		private int uses = 0;
+		
+		/**
+		 * Use the session for a request
+		 * @return {@code true} if the session is valid; {@code false} if it has expired or isn't ready
+		 */
+		private synchronized boolean use() {
+			boolean result = false;
+			
+			if (System.currentTimeMillis() - registeredAt >= sessionDelay) {
+				uses++;
+				result = sessionExpiry == 0 || uses <= sessionExpiry;
+			}
+			
+			return result;
+		}
+	}
+}
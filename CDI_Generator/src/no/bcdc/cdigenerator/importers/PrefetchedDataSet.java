@@ -0,0 +1,61 @@
+package no.bcdc.cdigenerator.importers;
+
+/**
+ * The raw data and metadata for a data set, as retrieved
+ * from the data source ahead of time by the {@link Prefetcher}
+ * @author Steve Jones
+ *
+ */
+public class PrefetchedDataSet {
+	
+	/**
+	 * The data set ID
+	 */
+	private String dataSetId;
+	
+	/**
+	 * The raw data
+	 */
+	private String data;
+	
+	/**
+	 * The raw metadata
+	 */
+	private String metadata;
+	
+	/**
+	 * Simple constructor
+	 * @param dataSetId The data set ID
+	 * @param data The raw data
+	 * @param metadata The raw metadata
+	 */
+	protected PrefetchedDataSet(String dataSetId, String data, String metadata) {
+		this.dataSetId = dataSetId;
+		this.data = data;
+		this.metadata = metadata;
+	}
+	
+	/**
+	 * Get the data set ID
+	 * @return The data set ID
+	 */
+	public String getDataSetId() {
+		return dataSetId;
+	}
+	
+	/**
+	 * Get the raw data
+	 * @return The raw data
+	 */
+	public String getData() {
+		return data;
+	}
+	
+	/**
+	 * Get the raw metadata
+	 * @return The raw metadata
+	 */
+	public String getMetadata() {
+		return metadata;
+	}
+}
@@ -0,0 +1,400 @@
+package no.bcdc.cdigenerator.importers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.apache.commons.io.FileUtils;
+
+import no.bcdc.cdigenerator.CDIGenerator;
+import no.bcdc.cdigenerator.Config;
+
+/**
+ * Downloads the data and metadata for upcoming data sets in the background
+ * while the current data set is being processed.
+ *
+ * <p>
+ *   The prefetcher works through the list of data set IDs a fixed number
+ *   of entries ahead of the generator. The requests for each data set are
+ *   started as soon as it is scheduled, so all the upcoming data sets are
+ *   retrieved at the same time, and the prefetch thread only has to wait
+ *   for them and store them in the temp directory until the importer asks
+ *   for them. If the total size of the waiting files exceeds the configured
+ *   budget, no more data sets are fetched until some of them have been used,
+ *   and the data sets that were held back are scheduled once there is room.
+ *   The size of a data set isn't known until it has been downloaded, so the
+ *   budget is only checked when a data set is scheduled, and can be exceeded
+ *   by the data sets that are already being downloaded.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class Prefetcher {
+	
+	/**
+	 * The importer used to retrieve the data
+	 */
+	private Importer importer;
+	
+	/**
+	 * The full list of data set IDs being processed
+	 */
+	private List<String> dataSetIds;
+	
+	/**
+	 * The directory where prefetched files are stored
+	 */
+	private File tempDir;
+	
+	/**
+	 * The number of data sets to fetch ahead of the current one
+	 */
+	private int depth;
+	
+	/**
+	 * The maximum number of bytes of prefetched data to hold at once
+	 */
+	private long budget;
+	
+	/**
+	 * The number of bytes of prefetched data currently stored
+	 */
+	private AtomicLong bytesHeld = new AtomicLong(0);
+	
+	/**
+	 * The index of the next data set in the list to be scheduled
+	 */
+	private int nextIndex = 0;
+	
+	/**
+	 * The scheduled and completed prefetches
+	 */
+	private Map<String, ScheduledPrefetch> prefetches = new HashMap<String, ScheduledPrefetch>();
+	
+	/**
+	 * The thread that waits for the downloads and stores them
+	 */
+	private ExecutorService executor;
+	
+	/**
+	 * Indicates whether the prefetcher has been shut down
+	 */
+	private boolean stopped = false;
+	
+	/**
+	 * Set up a prefetcher for a list of data sets
+	 * @param config The application configuration
+	 * @param importer The importer used to retrieve the data
+	 * @param dataSetIds The data set IDs to be processed
+	 */
+	public Prefetcher(Config config, Importer importer, List<String> dataSetIds) {
+		this.importer = importer;
+		this.dataSetIds = dataSetIds;
+		this.tempDir = config.getTempDir();
+		this.depth = config.getPrefetchDepth();
+		this.budget = config.getPrefetchBudget();
+		
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Prefetcher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Tell the prefetcher which data set is about to be processed.
+	 * The data sets following it in the list are scheduled for download.
+	 * @param currentIndex The position of the current data set in the list
+	 */
+	public synchronized void advance(int currentIndex) {
+		
+		if (nextIndex <= currentIndex) {
+			nextIndex = currentIndex + 1;
+		}
+		
+		while (nextIndex < dataSetIds.size() && nextIndex <= currentIndex + depth) {
+			String dataSetId = dataSetIds.get(nextIndex);
+			if (!prefetches.containsKey(dataSetId)) {
+				// Stop here, so this data set is scheduled when some of the budget is released
+				if (bytesHeld.get() >= budget) {
+					break;
+				}
+				
+				prefetches.put(dataSetId, new ScheduledPrefetch(dataSetId));
+			}
+			
+			nextIndex++;
+		}
+	}
+	
+	/**
+	 * Get the prefetched data for a data set.
+	 *
+	 * <p>
+	 *   If the download has finished, its result is returned. If it
+	 *   is still in progress we wait for it, since starting another
+	 *   download would only repeat the same work. If it wasn't scheduled
+	 *   because the budget was exhausted until it was needed, or it failed,
+	 *   {@code null} is returned and the caller must retrieve the data
+	 *   itself.
+	 * </p>
+	 *
+	 * @param dataSetId The data set ID
+	 * @return The prefetched data, or {@code null} if it is not available
+	 * @throws DataSetNotFoundException If the data source reported that the data set does not exist
+	 */
+	public PrefetchedDataSet take(String dataSetId) throws DataSetNotFoundException {
+		
+		PrefetchedDataSet result = null;
+		
+		ScheduledPrefetch scheduled;
+		synchronized (this) {
+			scheduled = prefetches.remove(dataSetId);
+		}
+		
+		if (null != scheduled) {
+			try {
+				PrefetchEntry entry = scheduled.result.get();
+				if (null != entry) {
+					result = entry.load();
+				}
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof DataSetNotFoundException) {
+					throw (DataSetNotFoundException) e.getCause();
+				}
+				
+				CDIGenerator.getLogger().log(Level.WARNING, "Prefetch failed for '" + dataSetId + "'", e.getCause());
+			} catch (IOException e) {
+				CDIGenerator.getLogger().log(Level.WARNING, "Could not read prefetched data for '" + dataSetId + "'", e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				scheduled.cancelRequests();
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Stop the prefetcher and remove any files that haven't been used.
+	 * A download that is still being stored removes its own files
+	 * once it sees that the prefetcher has stopped.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+		
+		synchronized (this) {
+			stopped = true;
+			
+			Iterator<ScheduledPrefetch> iterator = prefetches.values().iterator();
+			while (iterator.hasNext()) {
+				ScheduledPrefetch scheduled = iterator.next();
+				scheduled.cancelRequests();
+				scheduled.result.cancel(true);
+				if (null != scheduled.entry) {
+					scheduled.entry.delete();
+				}
+				
+				iterator.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Keep the stored files for a data set, unless the prefetcher has
+	 * been shut down in the meantime, in which case they are removed
+	 * @param scheduled The scheduled prefetch
+	 * @param entry The stored files
+	 * @return The stored files, or {@code null} if they have been removed
+	 */
+	private synchronized PrefetchEntry keep(ScheduledPrefetch scheduled, PrefetchEntry entry) {
+		PrefetchEntry result = entry;
+		
+		if (null != entry) {
+			if (stopped) {
+				entry.delete();
+				result = null;
+			} else {
+				scheduled.entry = entry;
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Wait for the data and metadata requests for a data set and store the results in the temp directory
+	 * @param dataSetId The data set ID
+	 * @param dataRequest The data request
+	 * @param metadataRequest The metadata request
+	 * @return The details of the stored files, or {@code null} if the data could not be retrieved
+	 * @throws Exception If an error occurs
+	 */
+	private PrefetchEntry prefetch(String dataSetId, Future<String> dataRequest, Future<String> metadataRequest) throws Exception {
+		
+		PrefetchEntry result = null;
+		
+		String data = importer.awaitRetrieval(dataRequest, "Data");
+		if (null != data) {
+			String metadata = importer.awaitRetrieval(metadataRequest, "Metadata");
+			if (null != metadata) {
+				result = new PrefetchEntry(dataSetId);
+				try {
+					result.store(data, metadata);
+				} catch (IOException e) {
+					result.delete();
+					throw e;
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * A data set that has been scheduled for prefetching. Its requests
+	 * are started straight away, and the prefetch thread waits for them
+	 * in the order the data sets were scheduled.
+	 */
+	private class ScheduledPrefetch {
+		
+		/**
+		 * The data request
+		 */
+		private Future<String> dataRequest;
+		
+		/**
+		 * The metadata request
+		 */
+		private Future<String> metadataRequest;
+		
+		/**
+		 * The stored data set
+		 */
+		private Future<PrefetchEntry> result;
+		
+		/**
+		 * The stored files, once the data set has been downloaded
+		 */
+		private PrefetchEntry entry = null;
+		
+		/**
+		 * Start the requests for a data set and queue the task that stores them
+		 * @param dataSetId The data set ID
+		 */
+		private ScheduledPrefetch(final String dataSetId) {
+			metadataRequest = importer.fetchDataSetMetadata(dataSetId);
+			dataRequest = importer.fetchDataSetData(dataSetId);
+			
+			result = executor.submit(new Callable<PrefetchEntry>() {
+				@Override
+				public PrefetchEntry call() throws Exception {
+					try {
+						return keep(ScheduledPrefetch.this, prefetch(dataSetId, dataRequest, metadataRequest));
+					} finally {
+						cancelRequests();
+					}
+				}
+			});
+		}
+		
+		/**
+		 * Cancel any requests that are still in progress
+		 */
+		private void cancelRequests() {
+			dataRequest.cancel(true);
+			metadataRequest.cancel(true);
+		}
+	}
+	
+	/**
+	 * The files holding a prefetched data set
+	 */
+	private class PrefetchEntry {
+		
+		/**
+		 * The data set ID
+		 */
+		private String dataSetId;
+		
+		/**
+		 * The file containing the data
+		 */
+		private File dataFile;
+		
+		/**
+		 * The file containing the metadata
+		 */
+		private File metadataFile;
+		
+		/**
+		 * The total size of the files
+		 */
+		private long size = 0;
+		
+		/**
+		 * Simple constructor
+		 * @param dataSetId The data set ID
+		 */
+		private PrefetchEntry(String dataSetId) {
+			this.dataSetId = dataSetId;
+			dataFile = new File(tempDir, dataSetId + "_prefetch_data");
+			metadataFile = new File(tempDir, dataSetId + "_prefetch_metadata");
+		}
+		
+		/**
+		 * Write the data and metadata to disk
+		 * @param data The data
+		 * @param metadata The metadata
+		 * @throws IOException If the files cannot be written
+		 */
+		private void store(String data, String metadata) throws IOException {
+			FileUtils.writeStringToFile(dataFile, data, StandardCharsets.UTF_8);
+			FileUtils.writeStringToFile(metadataFile, metadata, StandardCharsets.UTF_8);
+			size = dataFile.length() + metadataFile.length();
+			bytesHeld.addAndGet(size);
+		}
+		
+		/**
+		 * Read the data and metadata back from disk, and remove the files
+		 * @return The prefetched data set
+		 * @throws IOException If the files cannot be read
+		 */
+		private PrefetchedDataSet load() throws IOException {
+			try {
+				String data = FileUtils.readFileToString(dataFile, StandardCharsets.UTF_8);
+				String metadata = FileUtils.readFileToString(metadataFile, StandardCharsets.UTF_8);
+				return new PrefetchedDataSet(dataSetId, data, metadata);
+			} finally {
+				delete();
+			}
+		}
+		
+		/**
+		 * Remove the files from disk
+		 */
+		private void delete() {
+			FileUtils.deleteQuietly(dataFile);
+			FileUtils.deleteQuietly(metadataFile);
+			bytesHeld.addAndGet(-size);
+			size = 0;
+		}
+	}
+}
@@ -0,0 +1,576 @@
+package no.bcdc.cdigenerator.importers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import no.bcdc.cdigenerator.CDIGenerator;
+import no.bcdc.cdigenerator.Config;
+
+/**
+ * A disk cache of the raw data and metadata downloaded by the importers,
+ * so that repeated runs don't have to download everything again.
+ *
+ * <p>
+ *   Each entry is stored compressed, alongside a small properties file holding
+ *   the HTTP validators sent by the server (ETag and Last-Modified), a hash of the
+ *   content, and the time it was last checked against the server. Entries checked
+ *   within the configured time to live are used without contacting the server.
+ *   Older entries can be revalidated with a conditional request, or compared by
+ *   hash when the server doesn't support them.
+ * </p>
+ *
+ * <p>
+ *   When the cache grows beyond its size limit, the least recently used
+ *   entries are removed. A size limit of zero disables the cache.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class RawDataCache {
+	
+	/**
+	 * The name of the cache directory inside the temp directory
+	 */
+	private static final String CACHE_DIR_NAME = "cache";
+	
+	/**
+	 * The suffix for content files
+	 */
+	private static final String CONTENT_SUFFIX = ".gz";
+	
+	/**
+	 * The suffix for entry details files
+	 */
+	private static final String DETAILS_SUFFIX = ".properties";
+	
+	/**
+	 * The details key for the ETag
+	 */
+	private static final String ETAG_KEY = "etag";
+	
+	/**
+	 * The details key for the Last-Modified date
+	 */
+	private static final String LAST_MODIFIED_KEY = "lastModified";
+	
+	/**
+	 * The details key for the content hash
+	 */
+	private static final String HASH_KEY = "hash";
+	
+	/**
+	 * The details key for the time the entry was last checked against the server
+	 */
+	private static final String CHECKED_KEY = "checked";
+	
+	/**
+	 * The caches for each cache directory
+	 */
+	private static Map<File, RawDataCache> caches = new HashMap<File, RawDataCache>();
+	
+	/**
+	 * The cache directory
+	 */
+	private File cacheDir;
+	
+	/**
+	 * The time for which entries are used without checking them against the server, in milliseconds
+	 */
+	private long timeToLive;
+	
+	/**
+	 * The maximum size of the cache, in bytes
+	 */
+	private long maxSize;
+	
+	/**
+	 * The entries in the cache
+	 */
+	private Map<String, IndexEntry> index = new HashMap<String, IndexEntry>();
+	
+	/**
+	 * The total size of the cached content, in bytes
+	 */
+	private long totalSize = 0;
+	
+	/**
+	 * Get the cache for the configured temp directory, creating it if necessary
+	 * @param config The application configuration
+	 * @return The cache
+	 */
+	public static synchronized RawDataCache getInstance(Config config) {
+		File cacheDir = new File(config.getTempDir(), CACHE_DIR_NAME);
+		RawDataCache cache = caches.get(cacheDir);
+		if (null == cache) {
+			cache = new RawDataCache(cacheDir, config.getCacheTimeToLive() * 1000L, config.getCacheMaxSize());
+			caches.put(cacheDir, cache);
+		}
+		
+		return cache;
+	}
+	
+	/**
+	 * Constructor. Builds the index of existing entries.
+	 * @param cacheDir The cache directory
+	 * @param timeToLive The time for which entries are used without checking them against the server, in milliseconds
+	 * @param maxSize The maximum size of the cache, in bytes
+	 */
+	private RawDataCache(File cacheDir, long timeToLive, long maxSize) {
+		this.cacheDir = cacheDir;
+		this.timeToLive = timeToLive;
+		this.maxSize = maxSize;
+		
+		if (maxSize > 0) {
+			if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+				CDIGenerator.getLogger().warning("Cannot create cache directory " + cacheDir.getAbsolutePath() + ". Caching disabled\n");
+				this.maxSize = 0;
+			} else {
+				buildIndex();
+			}
+		}
+	}
+	
+	/**
+	 * Determine whether the cache is in use
+	 * @return {@code true} if the cache is enabled; {@code false} if it is disabled
+	 */
+	public boolean isEnabled() {
+		return maxSize > 0;
+	}
+	
+	/**
+	 * Get a cache entry
+	 * @param key The entry key
+	 * @return The entry, or {@code null} if there is no entry for the key
+	 */
+	public Entry get(String key) {
+		Entry result = null;
+		
+		if (isEnabled()) {
+			IndexEntry indexEntry;
+			synchronized (this) {
+				indexEntry = index.get(key);
+				if (null != indexEntry) {
+					indexEntry.lastUsed = System.currentTimeMillis();
+				}
+			}
+			
+			if (null != indexEntry) {
+				try {
+					Properties details = new Properties();
+					InputStream in = new FileInputStream(getDetailsFile(key));
+					try {
+						details.load(in);
+					} finally {
+						in.close();
+					}
+					
+					result = new Entry(key, details);
+				} catch (IOException e) {
+					// Treat it as missing - it will be replaced when the content is downloaded again
+					remove(key);
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Get a cache entry if it has been checked against the server
+	 * within the time to live
+	 * @param key The entry key
+	 * @return The entry, or {@code null} if there is no fresh entry for the key
+	 */
+	public Entry getFresh(String key) {
+		Entry result = get(key);
+		if (null != result && !result.isFresh()) {
+			result = null;
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Add or replace a cache entry. If the content is the same as the existing
+	 * entry, only the validators and check time are updated.
+	 * @param key The entry key
+	 * @param content The content
+	 * @param eTag The ETag sent by the server, if any
+	 * @param lastModified The Last-Modified date sent by the server, if any
+	 */
+	public void put(String key, String content, String eTag, String lastModified) {
+		if (isEnabled() && null != content) {
+			try {
+				String hash = hash(content);
+				
+				Entry existing = get(key);
+				boolean unchanged = null != existing && hash.equals(existing.hash);
+				
+				if (!unchanged) {
+					// The same entry can be written by two threads at once, so each has its own temp file
+					File tempFile = File.createTempFile(key, ".tmp", cacheDir);
+					try {
+						OutputStream out = new GZIPOutputStream(new FileOutputStream(tempFile));
+						try {
+							out.write(content.getBytes(StandardCharsets.UTF_8));
+						} finally {
+							out.close();
+						}
+						
+						Files.move(tempFile.toPath(), getContentFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+					} finally {
+						FileUtils.deleteQuietly(tempFile);
+					}
+				}
+				
+				Properties details = new Properties();
+				setDetail(details, ETAG_KEY, eTag);
+				setDetail(details, LAST_MODIFIED_KEY, lastModified);
+				setDetail(details, HASH_KEY, hash);
+				setDetail(details, CHECKED_KEY, String.valueOf(System.currentTimeMillis()));
+				writeDetails(key, details);
+				
+				synchronized (this) {
+					IndexEntry indexEntry = index.get(key);
+					if (null == indexEntry) {
+						indexEntry = new IndexEntry(key);
+						index.put(key, indexEntry);
+					}
+					
+					totalSize = totalSize - indexEntry.size;
+					indexEntry.size = getContentFile(key).length();
+					indexEntry.lastUsed = System.currentTimeMillis();
+					
+					// The content was downloaded, even if it hasn't changed
+					indexEntry.fromCache = false;
+					totalSize = totalSize + indexEntry.size;
+					
+					evict();
+				}
+			} catch (IOException e) {
+				CDIGenerator.getLogger().log(Level.WARNING, "Could not write cache entry " + key, e);
+				remove(key);
+			}
+		}
+	}
+	
+	/**
+	 * Record that the server has confirmed that an entry is still current,
+	 * so it will not be checked again until the time to live has passed
+	 * @param key The entry key
+	 */
+	public void revalidated(String key) {
+		Entry entry = get(key);
+		if (null != entry) {
+			try {
+				entry.details.setProperty(CHECKED_KEY, String.valueOf(System.currentTimeMillis()));
+				writeDetails(key, entry.details);
+				markUsed(key);
+			} catch (IOException e) {
+				CDIGenerator.getLogger().log(Level.WARNING, "Could not update cache entry " + key, e);
+			}
+		}
+	}
+	
+	/**
+	 * Record that an entry has been used without downloading it again
+	 * @param key The entry key
+	 */
+	public synchronized void markUsed(String key) {
+		IndexEntry indexEntry = index.get(key);
+		if (null != indexEntry) {
+			indexEntry.fromCache = true;
+		}
+	}
+	
+	/**
+	 * Determine whether the last retrieval of an entry was served from the cache,
+	 * rather than downloaded
+	 * @param key The entry key
+	 * @return {@code true} if the content came from the cache; {@code false} if it was downloaded
+	 */
+	public synchronized boolean wasServedFromCache(String key) {
+		IndexEntry indexEntry = index.get(key);
+		return null != indexEntry && indexEntry.fromCache;
+	}
+	
+	/**
+	 * Build a cache key. Characters that can't be used in file names are replaced.
+	 * @param namespace The source of the content, e.g. the importer
+	 * @param type The content type, e.g. data or metadata
+	 * @param id The data set ID
+	 * @return The key
+	 */
+	public static String makeKey(String namespace, String type, String id) {
+		return (namespace + "_" + type + "_" + id).replaceAll("[^A-Za-z0-9._-]", "_");
+	}
+	
+	/**
+	 * Remove an entry from the cache
+	 * @param key The entry key
+	 */
+	private synchronized void remove(String key) {
+		IndexEntry indexEntry = index.remove(key);
+		if (null != indexEntry) {
+			totalSize = totalSize - indexEntry.size;
+		}
+		
+		FileUtils.deleteQuietly(getContentFile(key));
+		FileUtils.deleteQuietly(getDetailsFile(key));
+	}
+	
+	/**
+	 * Remove the least recently used entries until the cache is within its size limit
+	 */
+	private synchronized void evict() {
+		if (totalSize > maxSize) {
+			List<IndexEntry> entries = new ArrayList<IndexEntry>(index.values());
+			Collections.sort(entries, new Comparator<IndexEntry>() {
+				@Override
+				public int compare(IndexEntry o1, IndexEntry o2) {
+					return Long.compare(o1.lastUsed, o2.lastUsed);
+				}
+			});
+			
+			for (int i = 0; i < entries.size() && totalSize > maxSize; i++) {
+				remove(entries.get(i).key);
+			}
+		}
+	}
+	
+	/**
+	 * Build the index of entries from the files in the cache directory.
+	 * The content files' modification times are used as the last used times.
+	 */
+	private void buildIndex() {
+		File[] files = cacheDir.listFiles();
+		if (null != files) {
+			for (File file : files) {
+				String name = file.getName();
+				if (name.endsWith(CONTENT_SUFFIX)) {
+					String key = name.substring(0, name.length() - CONTENT_SUFFIX.length());
+					if (getDetailsFile(key).exists()) {
+						IndexEntry indexEntry = new IndexEntry(key);
+						indexEntry.size = file.length();
+						indexEntry.lastUsed = file.lastModified();
+						index.put(key, indexEntry);
+						totalSize = totalSize + indexEntry.size;
+					} else {
+						FileUtils.deleteQuietly(file);
+					}
+				} else if (name.endsWith(".tmp")) {
+					// Left over from an interrupted write
+					FileUtils.deleteQuietly(file);
+				}
+			}
+		}
+		
+		evict();
+	}
+	
+	/**
+	 * Write the details for an entry
+	 * @param key The entry key
+	 * @param details The details
+	 * @throws IOException If the details cannot be written
+	 */
+	private void writeDetails(String key, Properties details) throws IOException {
+		File tempFile = File.createTempFile(key, ".tmp", cacheDir);
+		try {
+			OutputStream out = new FileOutputStream(tempFile);
+			try {
+				details.store(out, null);
+			} finally {
+				out.close();
+			}
+			
+			Files.move(tempFile.toPath(), getDetailsFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			FileUtils.deleteQuietly(tempFile);
+		}
+	}
+	
+	/**
+	 * Set a property in an entry's details, ignoring {@code null} values
+	 * @param details The details
+	 * @param name The property name
+	 * @param value The property value
+	 */
+	private void setDetail(Properties details, String name, String value) {
+		if (null != value) {
+			details.setProperty(name, value);
+		}
+	}
+	
+	/**
+	 * Get the file holding the content for an entry
+	 * @param key The entry key
+	 * @return The content file
+	 */
+	private File getContentFile(String key) {
+		return new File(cacheDir, key + CONTENT_SUFFIX);
+	}
+	
+	/**
+	 * Get the file holding the details for an entry
+	 * @param key The entry key
+	 * @return The details file
+	 */
+	private File getDetailsFile(String key) {
+		return new File(cacheDir, key + DETAILS_SUFFIX);
+	}
+	
+	/**
+	 * Calculate the hash of some content
+	 * @param content The content
+	 * @return The hash, as a hex string
+	 */
+	private static String hash(String content) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest(content.getBytes(StandardCharsets.UTF_8));
+			
+			StringBuilder result = new StringBuilder(hash.length * 2);
+			for (byte b : hash) {
+				result.append(String.format("%02x", b));
+			}
+			
+			return result.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java implementation has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * A cache entry
+	 */
+	public class Entry {
+		
+		/**
+		 * The entry key
+		 */
+		private String key;
+		
+		/**
+		 * The entry details
+		 */
+		private Properties details;
+		
+		/**
+		 * The content hash
+		 */
+		private String hash;
+		
+		/**
+		 * Constructor
+		 * @param key The entry key
+		 * @param details The entry details
+		 */
+		private Entry(String key, Properties details) {
+			this.key = key;
+			this.details = details;
+			this.hash = details.getProperty(HASH_KEY);
+		}
+		
+		/**
+		 * Get the ETag sent by the server
+		 * @return The ETag, or {@code null} if there isn't one
+		 */
+		public String getETag() {
+			return details.getProperty(ETAG_KEY);
+		}
+		
+		/**
+		 * Get the Last-Modified date sent by the server
+		 * @return The Last-Modified date, or {@code null} if there isn't one
+		 */
+		public String getLastModified() {
+			return details.getProperty(LAST_MODIFIED_KEY);
+		}
+		
+		/**
+		 * Determine whether the entry has been checked against the server within the time to live
+		 * @return {@code true} if the entry can be used without checking it; {@code false} otherwise
+		 */
+		public boolean isFresh() {
+			long checked = Long.parseLong(details.getProperty(CHECKED_KEY, "0"));
+			return System.currentTimeMillis() - checked < timeToLive;
+		}
+		
+		/**
+		 * Read the content of the entry
+		 * @return The content
+		 * @throws IOException If the content cannot be read
+		 */
+		public String getContent() throws IOException {
+			File contentFile = getContentFile(key);
+			InputStream in = new GZIPInputStream(new FileInputStream(contentFile));
+			try {
+				String content = IOUtils.toString(in, StandardCharsets.UTF_8);
+				contentFile.setLastModified(System.currentTimeMillis());
+				return content;
+			} finally {
+				in.close();
+			}
+		}
+	}
+	
+	/**
+	 * The index details for a cache entry
+	 */
+	private static class IndexEntry {
+		
+		/**
+		 * The entry key
+		 */
+		private String key;
+		
+		/**
+		 * The size of the content file
+		 */
+		private long size = 0;
+		
+		/**
+		 * The time the entry was last used
+		 */
+		private long lastUsed = 0;
+		
+		/**
+		 * Indicates whether the content was last supplied from the cache
+		 */
+		private boolean fromCache = false;
+		
+		/**
+		 * Constructor
+		 * @param key The entry key
+		 */
+		private IndexEntry(String key) {
+			this.key = key;
+		}
+	}
+}
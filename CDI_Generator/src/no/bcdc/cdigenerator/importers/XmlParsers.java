@@ -0,0 +1,150 @@
+package no.bcdc.cdigenerator.importers;
+
+import java.io.InputStream;
+import java.io.Reader;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathFactory;
+
+/**
+ * Shared XML parsers and XPath evaluators.
+ *
+ * <p>
+ *   Looking up the XML factories is slow, so it is done once rather than for
+ *   every data set. Document builders and XPath factories are not thread safe,
+ *   so each thread gets its own and reuses it. The streaming reader factory
+ *   can safely be shared between threads once it has been configured.
+ * </p>
+ *
+ * <p>
+ *   All the parsers are configured so that they never fetch external
+ *   entities or DTDs.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class XmlParsers {
+	
+	/**
+	 * Feature name for external general entities
+	 */
+	private static final String FEATURE_EXTERNAL_GENERAL_ENTITIES = "http://xml.org/sax/features/external-general-entities";
+	
+	/**
+	 * Feature name for external parameter entities
+	 */
+	private static final String FEATURE_EXTERNAL_PARAMETER_ENTITIES = "http://xml.org/sax/features/external-parameter-entities";
+	
+	/**
+	 * Feature name for loading external DTDs
+	 */
+	private static final String FEATURE_LOAD_EXTERNAL_DTD = "http://apache.org/xml/features/nonvalidating/load-external-dtd";
+	
+	/**
+	 * The shared factory for streaming XML readers
+	 */
+	private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+	
+	/**
+	 * The document builder for each thread
+	 */
+	private static ThreadLocal<DocumentBuilder> documentBuilders = new ThreadLocal<DocumentBuilder>();
+	
+	/**
+	 * The XPath factory for each thread
+	 */
+	private static ThreadLocal<XPathFactory> xPathFactories = new ThreadLocal<XPathFactory>() {
+		@Override
+		protected XPathFactory initialValue() {
+			return XPathFactory.newInstance();
+		}
+	};
+	
+	/**
+	 * This class only has static methods
+	 */
+	private XmlParsers() {
+		// Nothing to do
+	}
+	
+	/**
+	 * Get the document builder for the current thread. The builder is
+	 * reset, so it is ready to parse a new document.
+	 * @return The document builder
+	 * @throws ParserConfigurationException If the document builder cannot be created
+	 */
+	public static DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
+		DocumentBuilder builder = documentBuilders.get();
+		if (null == builder) {
+			builder = createDocumentBuilderFactory().newDocumentBuilder();
+			documentBuilders.set(builder);
+		} else {
+			builder.reset();
+		}
+		
+		return builder;
+	}
+	
+	/**
+	 * Create a new XPath evaluator using the current thread's factory
+	 * @return The XPath evaluator
+	 */
+	public static XPath newXPath() {
+		return xPathFactories.get().newXPath();
+	}
+	
+	/**
+	 * Create a streaming reader for some XML
+	 * @param in The XML
+	 * @return The reader
+	 * @throws XMLStreamException If the reader cannot be created
+	 */
+	public static XMLStreamReader createStreamReader(InputStream in) throws XMLStreamException {
+		return INPUT_FACTORY.createXMLStreamReader(in);
+	}
+	
+	/**
+	 * Create a streaming reader for some XML
+	 * @param in The XML
+	 * @return The reader
+	 * @throws XMLStreamException If the reader cannot be created
+	 */
+	public static XMLStreamReader createStreamReader(Reader in) throws XMLStreamException {
+		return INPUT_FACTORY.createXMLStreamReader(in);
+	}
+	
+	/**
+	 * Create a document builder factory that won't fetch anything from outside the document
+	 * @return The factory
+	 * @throws ParserConfigurationException If the factory does not support the required settings
+	 */
+	private static DocumentBuilderFactory createDocumentBuilderFactory() throws ParserConfigurationException {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		factory.setFeature(FEATURE_EXTERNAL_GENERAL_ENTITIES, false);
+		factory.setFeature(FEATURE_EXTERNAL_PARAMETER_ENTITIES, false);
+		factory.setFeature(FEATURE_LOAD_EXTERNAL_DTD, false);
+		factory.setXIncludeAware(false);
+		factory.setExpandEntityReferences(false);
+		return factory;
+	}
+	
+	/**
+	 * Create a streaming reader factory that ignores DTDs and external entities
+	 * @return The factory
+	 */
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+}
@@ -0,0 +1,77 @@
+package no.bcdc.cdigenerator.importers.concrete;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The identifiers of a SOCAT data set, all of which are derived from its EXPO Code.
+ *
+ * <p>
+ *   The identifiers are worked out once when the object is created, so they
+ *   can be asked for as often as needed while the data set is processed.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class SocatIdentifiers {
+	
+	/**
+	 * PANGAEA appends '-track' to all EXPO Codes
+	 */
+	private static final Pattern TRACK_SUFFIX = Pattern.compile("(.*)-track$");
+	
+	/**
+	 * Ship code from an EXPO Code with a suffix, i.e. {@code <Ship Code>YYYYMMDD-...}
+	 */
+	private static final Pattern SHIP_CODE_WITH_SUFFIX = Pattern.compile("(.*)[0-9][0-9][0-9][0-9][0-1][0-9][0-3][0-9]-.*");
+	
+	/**
+	 * Ship code from a plain EXPO Code, i.e. {@code <Ship Code>YYYYMMDD}
+	 */
+	private static final Pattern SHIP_CODE = Pattern.compile("(.*)[0-9][0-9][0-9][0-9][0-1][0-9][0-3][0-9]$");
+	
+	/**
+	 * The EXPO Code
+	 */
+	private String expoCode;
+	
+	/**
+	 * The ship code
+	 */
+	private String shipCode;
+	
+	/**
+	 * Derive the identifiers from a PANGAEA event label
+	 * @param eventLabel The event label, or {@code null} if the metadata doesn't have one
+	 */
+	public SocatIdentifiers(String eventLabel) {
+		if (null != eventLabel) {
+			expoCode = TRACK_SUFFIX.matcher(eventLabel).replaceAll("$1");
+			
+			Matcher shipCodeMatcher;
+			if (expoCode.indexOf("-") > -1) {
+				shipCodeMatcher = SHIP_CODE_WITH_SUFFIX.matcher(expoCode);
+			} else {
+				shipCodeMatcher = SHIP_CODE.matcher(expoCode);
+			}
+			shipCode = shipCodeMatcher.replaceAll("$1");
+		}
+	}
+	
+	/**
+	 * Get the EXPO Code
+	 * @return The EXPO Code, or {@code null} if there isn't one
+	 */
+	public String getExpoCode() {
+		return expoCode;
+	}
+	
+	/**
+	 * Get the ship code
+	 * @return The ship code, or {@code null} if there isn't one
+	 */
+	public String getShipCode() {
+		return shipCode;
+	}
+}
@@ -15,34 +15,10 @@ import no.bcdc.cdigenerator.importers.NemoModel;
 import no.bcdc.cdigenerator.importers.ValueLookupException;
 import no.bcdc.cdigenerator.importers.PaddingException;
 import no.bcdc.cdigenerator.importers.Pangaea.PangaVistaImporter;
+import no.bcdc.cdigenerator.importers.Pangaea.PangaeaMetadata;
 
 public class SocatV3Pangaea extends PangaVistaImporter {
 
-	/**
-	 * The XPath for the EXPO Code
-	 */
-	private static final String XPATH_EXPOCODE = "/MetaData/event/label";
-	
-	/**
-	 * The XPath for the minimum depth
-	 */
-	private static final String XPATH_MIN_DEPTH = "/MetaData/extent/elevation/min";
-
-	/**
-	 * The XPath for the minimum depth
-	 */
-	private static final String XPATH_MAX_DEPTH = "/MetaData/extent/elevation/max";
-	
-	/**
-	 * The XPath for the documentation URL
-	 */
-	private static final String XPATH_DOCUMENTATION_URL = "/MetaData/reference[@relationType=\"Other version\"]/URI";
-	
-	/**
-	 * The XPath for the comment
-	 */
-	private static final String XPATH_COMMENT = "/MetaData/comment";
-	
 	/**
 	 * The default sensor depth
 	 */
@@ -113,6 +89,11 @@ public class SocatV3Pangaea extends PangaVistaImporter {
 	 */
 	private boolean hasAtmosphericPressure = true;
 	
+	/**
+	 * The identifiers derived from the current data set's metadata
+	 */
+	private SocatIdentifiers identifiers = null;
+	
 	/**
 	 * The list of column padding specs for this importer
 	 */
@@ -130,43 +111,51 @@ public class SocatV3Pangaea extends PangaVistaImporter {
 		return "SOCATv3";
 	}
 	
+	@Override
+	protected List<String> getMetadataXPaths() {
+		List<String> xPaths = super.getMetadataXPaths();
+		xPaths.addAll(Arrays.asList(PangaeaMetadata.XPATH_EVENT_LABEL, PangaeaMetadata.XPATH_MIN_ELEVATION,
+				PangaeaMetadata.XPATH_MAX_ELEVATION, PangaeaMetadata.XPATH_OTHER_VERSION_URI, PangaeaMetadata.XPATH_COMMENT));
+		return xPaths;
+	}
+	
+	/**
+	 * Get the identifiers for the current data set, working them out
+	 * from the metadata the first time they are needed.
+	 * @return The identifiers
+	 */
+	private SocatIdentifiers getIdentifiers() {
+		if (null == identifiers) {
+			identifiers = new SocatIdentifiers(metadataRecord.getEventLabel());
+		}
+		
+		return identifiers;
+	}
+	
 	/**
 	 * Get the EXPO Code from the metadata.
 	 * 
 	 * PANGAEA appends '-track' to all EXPO Codes, so we remove it.
 	 * 
 	 * @return The EXPO Code
-	 * @throws Exception If the XPath lookup fails
 	 */
 	private String getExpoCode() {
-		
-		String result = null;
-		
-		String eventLabel = evaluateXPath("EXPOCODE", XPATH_EXPOCODE);
-		if (null != eventLabel) {
-			result = eventLabel.replaceAll("(.*)-track$", "$1");
-		}
-		
-		return result;
+		return getIdentifiers().getExpoCode();
 	}
 	
 	/**
 	 * Get the Ship Code.
 	 * The EXPO code is of the form <Ship Code>YYYYMMDD[-...] so we can regex it
-	 * @return
-	 * @throws ValueLookupException
+	 * @return The ship code
 	 */
 	private String getShipCode() {
-		String expoCode = getExpoCode();
-		String shipCode = null;
-		
-		if (expoCode.indexOf("-") > -1) {
-			shipCode = expoCode.replaceAll("(.*)[0-9][0-9][0-9][0-9][0-1][0-9][0-3][0-9]-.*", "$1");
-		} else {
-			shipCode = expoCode.replaceAll("(.*)[0-9][0-9][0-9][0-9][0-1][0-9][0-3][0-9]$", "$1");
-		}
-		
-		return shipCode;
+		return getIdentifiers().getShipCode();
+	}
+	
+	@Override
+	protected void preprocessMetadata() throws ImporterException {
+		super.preprocessMetadata();
+		identifiers = null;
 	}
 	
 	/**
@@ -177,7 +166,7 @@ public class SocatV3Pangaea extends PangaVistaImporter {
 	 */
 	public double getMinDepth() throws ImporterException {
 		try {
-			return evaluateXPathDouble("Min Depth", DEFAULT_SENSOR_DEPTH, XPATH_MIN_DEPTH);
+			return metadataRecord.getMinElevation(DEFAULT_SENSOR_DEPTH);
 		} catch (InvalidLookupValueException e) {
 			throw new ImporterException("Error looking up minimum depth", e);
 		}
@@ -191,7 +180,7 @@ public class SocatV3Pangaea extends PangaVistaImporter {
 	 */
 	public double getMaxDepth() throws ImporterException {
 		try {
-			return evaluateXPathDouble("Max Depth", DEFAULT_SENSOR_DEPTH, XPATH_MAX_DEPTH);
+			return metadataRecord.getMaxElevation(DEFAULT_SENSOR_DEPTH);
 		} catch (InvalidLookupValueException e) {
 			throw new ImporterException("Error looking up minimum depth", e);
 		}
@@ -465,14 +454,14 @@ public class SocatV3Pangaea extends PangaVistaImporter {
 	
 	@Override
 	public String getDocumentationUrl() throws ImporterException {
-		return evaluateXPath("Documentation URL", XPATH_DOCUMENTATION_URL);
+		return metadataRecord.getOtherVersionUri();
 	}
 	
 	@Override
 	public String getQcComment() throws ImporterException {
 		String result = "";
 		
-		String comment = evaluateXPath("Comment", XPATH_COMMENT);
+		String comment = metadataRecord.getComment();
 		if (comment.startsWith("Cruise QC flag")) {
 			result = comment.substring(0, 17);
 		}
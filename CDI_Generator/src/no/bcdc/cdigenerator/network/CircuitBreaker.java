@@ -0,0 +1,117 @@
+package no.bcdc.cdigenerator.network;
+
+/**
+ * Stops requests to a server that appears to be down.
+ *
+ * <p>
+ *   After a number of consecutive failures the breaker opens and no requests
+ *   are allowed for a cool-down period. After that, a single trial request
+ *   is let through. If it succeeds the breaker closes and normal service resumes;
+ *   if it fails the breaker opens again for another cool-down.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class CircuitBreaker {
+	
+	/**
+	 * The number of consecutive failures that opens the breaker
+	 */
+	private int threshold;
+	
+	/**
+	 * The time that the breaker stays open, in milliseconds
+	 */
+	private long coolDown;
+	
+	/**
+	 * The number of consecutive failures so far
+	 */
+	private int failures = 0;
+	
+	/**
+	 * The time that the breaker opened, or zero if it is closed
+	 */
+	private long openedAt = 0;
+	
+	/**
+	 * Indicates whether a trial request is in progress
+	 */
+	private boolean trialInProgress = false;
+	
+	/**
+	 * Constructor
+	 * @param threshold The number of consecutive failures that opens the breaker
+	 * @param coolDown The time that the breaker stays open, in milliseconds
+	 */
+	public CircuitBreaker(int threshold, long coolDown) {
+		this.threshold = threshold;
+		this.coolDown = coolDown;
+	}
+	
+	/**
+	 * Ask whether a request can be made. If the breaker has been open for
+	 * its full cool-down, the caller is allowed to make the trial request.
+	 * @return Zero if the request can be made; otherwise the time to wait in milliseconds
+	 */
+	public synchronized long tryAcquire() {
+		long result = 0;
+		
+		if (openedAt > 0) {
+			long remaining = openedAt + coolDown - System.currentTimeMillis();
+			if (remaining > 0) {
+				result = remaining;
+			} else if (trialInProgress) {
+				// Wait for the trial to finish. If it fails, the breaker reopens.
+				result = Math.max(1, coolDown / 10);
+			} else {
+				trialInProgress = true;
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Record a successful request
+	 */
+	public synchronized void recordSuccess() {
+		failures = 0;
+		openedAt = 0;
+		trialInProgress = false;
+	}
+	
+	/**
+	 * Record a failed request
+	 * @return {@code true} if this failure opened the breaker; {@code false} otherwise
+	 */
+	public synchronized boolean recordFailure() {
+		boolean opened = false;
+		
+		failures++;
+		if (trialInProgress || (openedAt == 0 && failures >= threshold)) {
+			opened = openedAt == 0;
+			openedAt = System.currentTimeMillis();
+			trialInProgress = false;
+		}
+		
+		return opened;
+	}
+	
+	/**
+	 * Give up the trial request without making it, so that another request can make it instead.
+	 * This has no effect if no trial is in progress.
+	 */
+	public synchronized void cancelTrial() {
+		trialInProgress = false;
+	}
+	
+	/**
+	 * Determine whether the breaker is currently open
+	 * @return {@code true} if the breaker is open; {@code false} if it is closed
+	 */
+	public synchronized boolean isOpen() {
+		return openedAt > 0;
+	}
+}
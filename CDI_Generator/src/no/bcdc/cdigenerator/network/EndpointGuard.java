@@ -0,0 +1,130 @@
+package no.bcdc.cdigenerator.network;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import no.bcdc.cdigenerator.CDIGenerator;
+
+/**
+ * Controls access to a remote server, so that we don't send it more
+ * requests than it can handle or keep sending requests while it is down.
+ *
+ * <p>
+ *   Each server has a single guard, shared by everything that talks to it.
+ *   Requests must call {@link #tryAcquire()} before they start, and
+ *   {@link #release(boolean, boolean)} when they finish.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class EndpointGuard {
+	
+	/**
+	 * The guards for each server
+	 */
+	private static Map<String, EndpointGuard> guards = new HashMap<String, EndpointGuard>();
+	
+	/**
+	 * The server name
+	 */
+	private String name;
+	
+	/**
+	 * The rate limiter
+	 */
+	private RateLimiter rateLimiter;
+	
+	/**
+	 * The circuit breaker
+	 */
+	private CircuitBreaker circuitBreaker;
+	
+	/**
+	 * Get the guard for a server, creating it if necessary. If the guard
+	 * already exists, the settings passed here are ignored.
+	 * @param name The server name
+	 * @param requestsPerSecond The maximum number of requests per second
+	 * @param maxConcurrent The maximum number of requests that can be in progress at once
+	 * @param failureThreshold The number of consecutive failures after which requests are stopped
+	 * @param coolDown The time to stop requests for after repeated failures, in milliseconds
+	 * @return The guard
+	 */
+	public static synchronized EndpointGuard getInstance(String name, double requestsPerSecond, int maxConcurrent, int failureThreshold, long coolDown) {
+		EndpointGuard guard = guards.get(name);
+		if (null == guard) {
+			guard = new EndpointGuard(name, new RateLimiter(requestsPerSecond, maxConcurrent), new CircuitBreaker(failureThreshold, coolDown));
+			guards.put(name, guard);
+		}
+		
+		return guard;
+	}
+	
+	/**
+	 * Constructor
+	 * @param name The server name
+	 * @param rateLimiter The rate limiter
+	 * @param circuitBreaker The circuit breaker
+	 */
+	private EndpointGuard(String name, RateLimiter rateLimiter, CircuitBreaker circuitBreaker) {
+		this.name = name;
+		this.rateLimiter = rateLimiter;
+		this.circuitBreaker = circuitBreaker;
+	}
+	
+	/**
+	 * Ask to start a request. If the request is allowed, it must be
+	 * followed by a call to {@link #release(boolean, boolean)}.
+	 * @return Zero if the request can start; otherwise the time to wait before asking again, in milliseconds
+	 */
+	public long tryAcquire() {
+		long result = circuitBreaker.tryAcquire();
+		if (result == 0) {
+			result = rateLimiter.tryAcquire();
+			if (result > 0) {
+				// If we were given the trial request, let another request make it instead
+				circuitBreaker.cancelTrial();
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Wait until the rate limit allows an extra call to be made by a request
+	 * that has already been started with {@link #tryAcquire()}. The calling
+	 * thread sleeps while it waits, so this should only be used for
+	 * occasional calls such as registering a new session.
+	 * @throws InterruptedException If the thread is interrupted while waiting
+	 */
+	public void awaitToken() throws InterruptedException {
+		long wait = rateLimiter.tryTakeToken();
+		while (wait > 0) {
+			Thread.sleep(wait);
+			wait = rateLimiter.tryTakeToken();
+		}
+	}
+	
+	/**
+	 * Record that a request has finished
+	 * @param failed {@code true} if the request failed because of a problem with the server
+	 * @param throttled {@code true} if the server asked us to slow down
+	 */
+	public void release(boolean failed, boolean throttled) {
+		rateLimiter.release(throttled);
+		
+		if (!failed) {
+			circuitBreaker.recordSuccess();
+		} else if (circuitBreaker.recordFailure()) {
+			CDIGenerator.getLogger().warning(name + " appears to be unavailable. Pausing requests\n");
+		}
+	}
+	
+	/**
+	 * Get the server name
+	 * @return The server name
+	 */
+	public String getName() {
+		return name;
+	}
+}
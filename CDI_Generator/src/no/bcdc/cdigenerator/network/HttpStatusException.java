@@ -0,0 +1,36 @@
+package no.bcdc.cdigenerator.network;
+
+import java.io.IOException;
+
+/**
+ * Exception for HTTP requests that return an unsuccessful status code
+ * @author Steve Jones
+ *
+ */
+public class HttpStatusException extends IOException {
+	
+	private static final long serialVersionUID = 2941772150432870185L;
+	
+	/**
+	 * The HTTP status code
+	 */
+	private int statusCode;
+	
+	/**
+	 * Constructor
+	 * @param url The requested URL
+	 * @param statusCode The HTTP status code
+	 */
+	public HttpStatusException(String url, int statusCode) {
+		super("HTTP " + statusCode + " returned from " + url);
+		this.statusCode = statusCode;
+	}
+	
+	/**
+	 * Get the HTTP status code
+	 * @return The status code
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+}
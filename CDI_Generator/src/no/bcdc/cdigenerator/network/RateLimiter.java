@@ -0,0 +1,163 @@
+package no.bcdc.cdigenerator.network;
+
+/**
+ * A token bucket rate limiter, which also limits the number of
+ * requests that can be in progress at once.
+ *
+ * <p>
+ *   Tokens are added to the bucket at the configured rate, and each request
+ *   uses one token. The bucket holds at most one second's worth of tokens,
+ *   so short bursts are allowed but the average rate never exceeds the limit.
+ * </p>
+ *
+ * <p>
+ *   If the server tells us to slow down, the rate is halved. It then climbs
+ *   back towards the configured limit as requests succeed, so we settle at
+ *   the highest rate that the server will accept.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class RateLimiter {
+	
+	/**
+	 * The slowest rate that the limiter will drop to, in requests per second
+	 */
+	private static final double MIN_RATE = 0.1;
+	
+	/**
+	 * The proportion of the maximum rate added back after each successful request
+	 */
+	private static final double RECOVERY_STEP = 0.05;
+	
+	/**
+	 * The configured maximum rate, in requests per second
+	 */
+	private double maxRate;
+	
+	/**
+	 * The current rate, in requests per second
+	 */
+	private double rate;
+	
+	/**
+	 * The maximum number of requests that can be in progress at once
+	 */
+	private int maxConcurrent;
+	
+	/**
+	 * The number of tokens currently in the bucket
+	 */
+	private double tokens;
+	
+	/**
+	 * The time that the bucket was last refilled
+	 */
+	private long lastRefill;
+	
+	/**
+	 * The number of requests currently in progress
+	 */
+	private int inProgress = 0;
+	
+	/**
+	 * Constructor
+	 * @param requestsPerSecond The maximum number of requests per second
+	 * @param maxConcurrent The maximum number of requests that can be in progress at once
+	 * @throws IllegalArgumentException If the rate or the number of concurrent requests is not positive
+	 */
+	public RateLimiter(double requestsPerSecond, int maxConcurrent) {
+		// A limiter with no rate or no request slots would never let anything through
+		if (requestsPerSecond <= 0) {
+			throw new IllegalArgumentException("The request rate must be positive");
+		}
+		if (maxConcurrent <= 0) {
+			throw new IllegalArgumentException("The number of concurrent requests must be positive");
+		}
+		
+		this.maxRate = requestsPerSecond;
+		this.rate = requestsPerSecond;
+		this.maxConcurrent = maxConcurrent;
+		this.tokens = Math.max(1, requestsPerSecond);
+		this.lastRefill = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Try to start a request. If the request can start now, a token is used
+	 * and it is counted as in progress until {@link #release(boolean)} is called.
+	 * Otherwise the time to wait before trying again is returned.
+	 * @return Zero if the request can start; otherwise the time to wait in milliseconds
+	 */
+	public synchronized long tryAcquire() {
+		long result;
+		
+		refill();
+		
+		if (inProgress >= maxConcurrent) {
+			// We can't tell when a request will finish, so check again after one request interval
+			result = Math.max(1, (long) Math.ceil(1000 / rate));
+		} else if (tokens < 1) {
+			result = Math.max(1, (long) Math.ceil((1 - tokens) * 1000 / rate));
+		} else {
+			tokens = tokens - 1;
+			inProgress++;
+			result = 0;
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Try to take a token for an extra call made by a request that is
+	 * already in progress, such as registering a new session. The call
+	 * uses a token but does not count as another request in progress.
+	 * @return Zero if the call can be made now; otherwise the time to wait in milliseconds
+	 */
+	public synchronized long tryTakeToken() {
+		long result;
+		
+		refill();
+		
+		if (tokens < 1) {
+			result = Math.max(1, (long) Math.ceil((1 - tokens) * 1000 / rate));
+		} else {
+			tokens = tokens - 1;
+			result = 0;
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Record that a request has finished
+	 * @param throttled {@code true} if the server asked us to slow down; {@code false} otherwise
+	 */
+	public synchronized void release(boolean throttled) {
+		inProgress--;
+		refill();
+		
+		if (throttled) {
+			rate = Math.max(MIN_RATE, rate / 2);
+		} else if (rate < maxRate) {
+			rate = Math.min(maxRate, rate + maxRate * RECOVERY_STEP);
+		}
+	}
+	
+	/**
+	 * Get the current request rate
+	 * @return The current rate in requests per second
+	 */
+	public synchronized double getRate() {
+		return rate;
+	}
+	
+	/**
+	 * Add the tokens that have accumulated since the last refill
+	 */
+	private void refill() {
+		long now = System.currentTimeMillis();
+		tokens = Math.min(Math.max(1, rate), tokens + (now - lastRefill) * rate / 1000);
+		lastRefill = now;
+	}
+}
@@ -0,0 +1,164 @@
+package no.bcdc.cdigenerator.network;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import no.bcdc.cdigenerator.Config;
+import no.bcdc.cdigenerator.importers.DataSetNotFoundException;
+
+/**
+ * Decides whether and when a failed network operation should be retried.
+ *
+ * <p>
+ *   The wait before each retry doubles from the configured retry wait time
+ *   up to a maximum, with a random element so that several failed requests
+ *   don't all retry at the same moment. Retries stop when the configured
+ *   number of attempts has been made, or when the next retry would take
+ *   the operation beyond its maximum elapsed time.
+ * </p>
+ *
+ * <p>
+ *   Only errors that might go away on their own are retried: network errors,
+ *   timeouts, and HTTP server errors. Missing data sets and other client
+ *   errors fail immediately.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class RetryPolicy {
+	
+	/**
+	 * The proportion of each wait that is randomised
+	 */
+	private static final double JITTER = 0.5;
+	
+	/**
+	 * HTTP status code for a request timeout
+	 */
+	private static final int HTTP_REQUEST_TIMEOUT = 408;
+	
+	/**
+	 * HTTP status code for too many requests
+	 */
+	private static final int HTTP_TOO_MANY_REQUESTS = 429;
+	
+	/**
+	 * The lowest HTTP status code for server errors
+	 */
+	private static final int HTTP_SERVER_ERROR = 500;
+	
+	/**
+	 * HTTP status code for service unavailable
+	 */
+	private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+	
+	/**
+	 * The maximum number of attempts
+	 */
+	private int maxAttempts;
+	
+	/**
+	 * The wait before the first retry, in milliseconds
+	 */
+	private long initialWait;
+	
+	/**
+	 * The longest wait between retries, in milliseconds
+	 */
+	private long maxWait;
+	
+	/**
+	 * The maximum time an operation can take including all its retries, in milliseconds
+	 */
+	private long maxElapsed;
+	
+	/**
+	 * Build the retry policy from the application configuration
+	 * @param config The application configuration
+	 */
+	public RetryPolicy(Config config) {
+		maxAttempts = Math.max(1, config.getNetworkRetries());
+		initialWait = config.getRetryWaitTime() * 1000L;
+		maxWait = Math.max(initialWait, config.getRetryMaxWaitTime() * 1000L);
+		maxElapsed = config.getRetryMaxElapsedTime() * 1000L;
+	}
+	
+	/**
+	 * Get the maximum number of attempts for an operation
+	 * @return The maximum number of attempts
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+	
+	/**
+	 * Determine whether an error is worth retrying
+	 * @param error The error
+	 * @return {@code true} if the operation should be retried; {@code false} if it should fail immediately
+	 */
+	public boolean isRetryable(Throwable error) {
+		boolean result;
+		
+		if (error instanceof DataSetNotFoundException) {
+			result = false;
+		} else if (error instanceof HttpStatusException) {
+			int status = ((HttpStatusException) error).getStatusCode();
+			result = status >= HTTP_SERVER_ERROR || status == HTTP_TOO_MANY_REQUESTS || status == HTTP_REQUEST_TIMEOUT;
+		} else {
+			// Network errors are often wrapped in other exceptions
+			result = false;
+			Throwable cause = error;
+			while (!result && null != cause) {
+				result = cause instanceof IOException;
+				cause = cause.getCause();
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Determine whether an error indicates that the server wants us to send fewer requests
+	 * @param error The error
+	 * @return {@code true} if the server is throttling requests; {@code false} otherwise
+	 */
+	public boolean isThrottled(Throwable error) {
+		boolean result = false;
+		
+		if (error instanceof HttpStatusException) {
+			int status = ((HttpStatusException) error).getStatusCode();
+			result = status == HTTP_TOO_MANY_REQUESTS || status == HTTP_SERVICE_UNAVAILABLE;
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Get the time to wait before the next attempt of an operation. If the
+	 * operation should not be attempted again, a negative value is returned.
+	 * @param attemptsMade The number of attempts made so far
+	 * @param elapsed The time since the first attempt started, in milliseconds
+	 * @return The time to wait in milliseconds, or a negative value if there should be no more attempts
+	 */
+	public long getRetryWait(int attemptsMade, long elapsed) {
+		long result = -1;
+		
+		if (attemptsMade < maxAttempts) {
+			long wait = initialWait;
+			for (int i = 1; i < attemptsMade && wait < maxWait; i++) {
+				wait = wait * 2;
+			}
+			wait = Math.min(wait, maxWait);
+			
+			long jitter = (long) (wait * JITTER * ThreadLocalRandom.current().nextDouble());
+			wait = wait - jitter;
+			
+			if (elapsed + wait <= maxElapsed) {
+				result = wait;
+			}
+		}
+		
+		return result;
+	}
+}
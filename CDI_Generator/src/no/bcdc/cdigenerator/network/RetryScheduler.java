@@ -0,0 +1,242 @@
+package no.bcdc.cdigenerator.network;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import no.bcdc.cdigenerator.CDIGenerator;
+
+/**
+ * Runs network operations and retries them according to a {@link RetryPolicy}.
+ *
+ * <p>
+ *   Each attempt runs on a worker thread. If it fails with a retryable error,
+ *   the next attempt is put on a timer and the worker thread is released, so
+ *   waiting to retry one operation never stops others from running.
+ * </p>
+ *
+ * <p>
+ *   The result of an operation is delivered through a {@link CompletableFuture}.
+ *   If all the attempts fail, the future completes with a {@code null} value.
+ *   If an attempt fails with an error that shouldn't be retried, the future
+ *   completes exceptionally with that error.
+ * </p>
+ *
+ * @author Steve Jones
+ *
+ */
+public class RetryScheduler {
+	
+	/**
+	 * The shared scheduler instance
+	 */
+	private static RetryScheduler instance = null;
+	
+	/**
+	 * The threads that run the operations
+	 */
+	private ExecutorService workers;
+	
+	/**
+	 * The timer for scheduling retries
+	 */
+	private ScheduledExecutorService timer;
+	
+	/**
+	 * Get the shared scheduler
+	 * @return The scheduler
+	 */
+	public static synchronized RetryScheduler getInstance() {
+		if (null == instance) {
+			instance = new RetryScheduler();
+		}
+		
+		return instance;
+	}
+	
+	/**
+	 * Set up the worker threads and timer
+	 */
+	private RetryScheduler() {
+		workers = Executors.newCachedThreadPool(new NamedThreadFactory("Network worker"));
+		timer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Retry timer"));
+	}
+	
+	/**
+	 * Submit an operation
+	 * @param description A description of the operation for the log, e.g. "Data retrieval for '1234'"
+	 * @param policy The retry policy
+	 * @param operation The operation
+	 * @return The result of the operation
+	 */
+	public <T> CompletableFuture<T> submit(String description, RetryPolicy policy, Callable<T> operation) {
+		return submit(description, null, policy, operation);
+	}
+	
+	/**
+	 * Submit an operation that talks to a guarded server. Each attempt waits
+	 * until the guard allows it to start, without holding a worker thread.
+	 * @param description A description of the operation for the log, e.g. "Data retrieval for '1234'"
+	 * @param guard The guard for the server, or {@code null} if the server is not guarded
+	 * @param policy The retry policy
+	 * @param operation The operation
+	 * @return The result of the operation
+	 */
+	public <T> CompletableFuture<T> submit(String description, EndpointGuard guard, RetryPolicy policy, Callable<T> operation) {
+		CompletableFuture<T> result = new CompletableFuture<T>();
+		workers.execute(new Attempt<T>(description, guard, policy, operation, result));
+		return result;
+	}
+	
+	/**
+	 * A single operation, which can be run repeatedly until it succeeds
+	 */
+	private class Attempt<T> implements Runnable {
+		
+		/**
+		 * The description of the operation
+		 */
+		private String description;
+		
+		/**
+		 * The guard for the server
+		 */
+		private EndpointGuard guard;
+		
+		/**
+		 * The retry policy
+		 */
+		private RetryPolicy policy;
+		
+		/**
+		 * The operation
+		 */
+		private Callable<T> operation;
+		
+		/**
+		 * The result of the operation
+		 */
+		private CompletableFuture<T> result;
+		
+		/**
+		 * The time that the first attempt started
+		 */
+		private long startTime;
+		
+		/**
+		 * The number of attempts made so far
+		 */
+		private int attemptsMade = 0;
+		
+		/**
+		 * Constructor
+		 * @param description The description of the operation
+		 * @param guard The guard for the server
+		 * @param policy The retry policy
+		 * @param operation The operation
+		 * @param result The result of the operation
+		 */
+		private Attempt(String description, EndpointGuard guard, RetryPolicy policy, Callable<T> operation, CompletableFuture<T> result) {
+			this.description = description;
+			this.guard = guard;
+			this.policy = policy;
+			this.operation = operation;
+			this.result = result;
+			this.startTime = System.currentTimeMillis();
+		}
+		
+		@Override
+		public void run() {
+			
+			// The caller may have given up on this operation
+			if (!result.isDone()) {
+				long guardWait = null == guard ? 0 : guard.tryAcquire();
+				if (guardWait > 0) {
+					schedule(guardWait);
+				} else {
+					Exception error = null;
+					try {
+						attemptsMade++;
+						result.complete(operation.call());
+					} catch (Exception e) {
+						error = e;
+					}
+					
+					if (null != guard) {
+						boolean failed = null != error && policy.isRetryable(error);
+						guard.release(failed, failed && policy.isThrottled(error));
+					}
+					
+					if (null != error) {
+						attemptFailed(error);
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Handle a failed attempt
+		 * @param error The error from the attempt
+		 */
+		private void attemptFailed(Exception error) {
+			if (!policy.isRetryable(error)) {
+				result.completeExceptionally(error);
+			} else {
+				CDIGenerator.getLogger().log(Level.WARNING, description + " attempt " + attemptsMade + " failed\n", error);
+				
+				long wait = policy.getRetryWait(attemptsMade, System.currentTimeMillis() - startTime);
+				if (wait < 0) {
+					CDIGenerator.getLogger().warning(description + " failed after " + attemptsMade + " attempts\n");
+					result.complete(null);
+				} else {
+					CDIGenerator.getLogger().info(description + " failed. Retrying in " + (wait / 1000.0) + " seconds (" + (policy.getMaxAttempts() - attemptsMade) + " attempts remaining)\n");
+					schedule(wait);
+				}
+			}
+		}
+		
+		/**
+		 * Run this attempt again after a delay
+		 * @param delay The delay in milliseconds
+		 */
+		private void schedule(long delay) {
+			timer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					workers.execute(Attempt.this);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	/**
+	 * Thread factory for named daemon threads
+	 */
+	private static class NamedThreadFactory implements ThreadFactory {
+		
+		/**
+		 * The name given to the threads
+		 */
+		private String name;
+		
+		/**
+		 * Constructor
+		 * @param name The name given to the threads
+		 */
+		private NamedThreadFactory(String name) {
+			this.name = name;
+		}
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -19,6 +19,16 @@ public class Config extends Properties {
 	 */
 	private static final String FILE_DIR_PROPERTY = "dir.files";
 	
+	/**
+	 * The key for the file that records the files found by the last run
+	 */
+	private static final String SNAPSHOT_FILE_PROPERTY = "file.snapshot";
+	
+	/**
+	 * The key for the database dialect
+	 */
+	private static final String DB_DIALECT_PROPERTY = "db.dialect";
+	
 	/**
 	 * The key for the database server
 	 */
@@ -44,11 +54,41 @@ public class Config extends Properties {
 	 */
 	private static final String DB_PASSWORD_PROPERTY = "db.password";
 	
+	/**
+	 * The key for the number of files added to the coupling table in each batch
+	 */
+	private static final String DB_BATCH_SIZE_PROPERTY = "db.batchSize";
+	
+	/**
+	 * The key for the number of files added to the coupling table in each transaction
+	 */
+	private static final String DB_COMMIT_SIZE_PROPERTY = "db.commitSize";
+	
+	/**
+	 * The default batch size
+	 */
+	private static final int DEFAULT_DB_BATCH_SIZE = 500;
+	
+	/**
+	 * The default commit size
+	 */
+	private static final int DEFAULT_DB_COMMIT_SIZE = 5000;
+	
 	/**
 	 * Files directory
 	 */
 	private File filesDir;
 	
+	/**
+	 * The file that records the files found by the last run
+	 */
+	private File snapshotFile = null;
+	
+	/**
+	 * The database dialect
+	 */
+	private String dbDialect;
+	
 	/**
 	 * The database server
 	 */
@@ -74,6 +114,16 @@ public class Config extends Properties {
 	 */
 	private String dbPassword;
 	
+	/**
+	 * The number of files added to the coupling table in each batch
+	 */
+	private int dbBatchSize;
+	
+	/**
+	 * The number of files added to the coupling table in each transaction
+	 */
+	private int dbCommitSize;
+	
 	/**
 	 * Initialise and load the configuration
 	 * @param configReader A reader for the config file
@@ -85,11 +135,24 @@ public class Config extends Properties {
 		load(configReader);
 		checkFilesDir();
 		
+		String snapshotFileString = getProperty(SNAPSHOT_FILE_PROPERTY);
+		if (null != snapshotFileString) {
+			snapshotFile = new File(snapshotFileString);
+			checkDir(snapshotFile.getAbsoluteFile().getParentFile(), true);
+		}
+		
+		dbDialect = getProperty(DB_DIALECT_PROPERTY, CouplingDB.MYSQL_DIALECT).toLowerCase();
+		if (!CouplingDB.DIALECTS.contains(dbDialect)) {
+			throw new ConfigException(DB_DIALECT_PROPERTY + " must be one of " + CouplingDB.DIALECTS);
+		}
+		
 		dbServer = getProperty(DB_SERVER_PROPERTY);
 		dbPort = extractPositiveInteger(DB_PORT_PROPERTY);
 		dbName = getProperty(DB_NAME_PROPERTY);
 		dbUser = getProperty(DB_USER_PROPERTY);
 		dbPassword = getProperty(DB_PASSWORD_PROPERTY);
+		dbBatchSize = extractPositiveInteger(DB_BATCH_SIZE_PROPERTY, DEFAULT_DB_BATCH_SIZE);
+		dbCommitSize = extractPositiveInteger(DB_COMMIT_SIZE_PROPERTY, DEFAULT_DB_COMMIT_SIZE);
 	}
 	
 	/**
@@ -148,6 +211,24 @@ public class Config extends Properties {
 		return result;
 	}
 	
+	/**
+	 * Parse a number from a named property that may be left out. If it is present,
+	 * the number must be a positive integer.
+	 * @param propertyKey The property
+	 * @param defaultValue The value to use if the property is missing
+	 * @return The parsed number, or the default value
+	 * @throws ConfigException If the number cannot be parsed, or is not positive
+	 */
+	private int extractPositiveInteger(String propertyKey, int defaultValue) throws ConfigException {
+		int result = defaultValue;
+		
+		if (null != getProperty(propertyKey)) {
+			result = extractPositiveInteger(propertyKey);
+		}
+		
+		return result;
+	}
+	
 	/**
 	 * Get the directory containing the data files
 	 * @return The files directory
@@ -156,6 +237,22 @@ public class Config extends Properties {
 		return filesDir;
 	}
 	
+	/**
+	 * Get the file that records the files found by the last run
+	 * @return The snapshot file, or {@code null} if no snapshot is kept
+	 */
+	public File getSnapshotFile() {
+		return snapshotFile;
+	}
+	
+	/**
+	 * Get the database dialect
+	 * @return The database dialect
+	 */
+	public String getDBDialect() {
+		return dbDialect;
+	}
+	
 	/**
 	 * Get the database server
 	 * @return The database server
@@ -195,4 +292,20 @@ public class Config extends Properties {
 	public String getDBPassword() {
 		return dbPassword;
 	}
+	
+	/**
+	 * Get the number of files added to the coupling table in each batch
+	 * @return The batch size
+	 */
+	public int getDBBatchSize() {
+		return dbBatchSize;
+	}
+	
+	/**
+	 * Get the number of files added to the coupling table in each transaction
+	 * @return The commit size
+	 */
+	public int getDBCommitSize() {
+		return dbCommitSize;
+	}
 }
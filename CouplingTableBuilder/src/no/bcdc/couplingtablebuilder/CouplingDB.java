@@ -3,14 +3,58 @@ package no.bcdc.couplingtablebuilder;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
- * Class for manipulating the Coupling Table
+ * Class for manipulating the Coupling Table.
+ * 
+ * <p>
+ *   Files are added to the table in JDBC batches using a single prepared statement,
+ *   and the transaction is committed every few batches so it doesn't grow without limit.
+ *   Any files still waiting in a batch are written when the database is closed.
+ * </p>
+ * 
+ * <p>
+ *   {@link #syncFiles(Set)} brings the table up to date with a set of files
+ *   in a single transaction, so anyone reading the table never sees it partly updated.
+ * </p>
+ * 
  * @author Steve Jones
  *
  */
 public class CouplingDB {
+	
+	/**
+	 * The name of the MySQL dialect
+	 */
+	public static final String MYSQL_DIALECT = "mysql";
+	
+	/**
+	 * The name of the embedded H2 dialect. The database runs inside the application,
+	 * {@code db.database} is the H2 database name, and the coupling table is
+	 * created if it doesn't exist.
+	 */
+	public static final String H2_DIALECT = "h2";
+	
+	/**
+	 * The available database dialects
+	 */
+	public static final List<String> DIALECTS = Arrays.asList(MYSQL_DIALECT, H2_DIALECT);
+	
+	/**
+	 * SQL statement to create the coupling table in an embedded database
+	 */
+	private static final String CREATE_TABLE_STATEMENT = "CREATE TABLE IF NOT EXISTS coupling ("
+			+ "local_cdi_id VARCHAR(80) NOT NULL, "
+			+ "modus INT NOT NULL, "
+			+ "format VARCHAR(20) NOT NULL, "
+			+ "filename VARCHAR(255) NOT NULL)";
 
 	/**
 	 * SQL statement to empty the coupling table
@@ -22,17 +66,54 @@ public class CouplingDB {
 	 */
 	private static final String ADD_FILE_STATEMENT = "INSERT INTO coupling (local_cdi_id, modus, format, filename) VALUES (?, ?, ?, ?)";
 	
+	/**
+	 * SQL statement to remove a file from the coupling table
+	 */
+	private static final String REMOVE_FILE_STATEMENT = "DELETE FROM coupling WHERE filename = ?";
+	
+	/**
+	 * SQL query for the files in the coupling table
+	 */
+	private static final String GET_FILES_QUERY = "SELECT filename FROM coupling";
+	
 	/**
 	 * The database connection
 	 */
 	private Connection dbConnection;
 	
+	/**
+	 * The statement for adding files to the coupling table
+	 */
+	private PreparedStatement addFileStatement = null;
+	
+	/**
+	 * The number of files added to the coupling table in each batch
+	 */
+	private int batchSize;
+	
+	/**
+	 * The number of files added to the coupling table in each transaction
+	 */
+	private int commitSize;
+	
+	/**
+	 * The number of files in the current batch
+	 */
+	private int batchCount = 0;
+	
+	/**
+	 * The number of files added since the last commit
+	 */
+	private int uncommittedCount = 0;
+	
 	/**
 	 * Constructor initialises the database connection
 	 * @param config The application configuration
 	 * @throws ConfigException If the database connection cannot be established
 	 */
 	public CouplingDB(Config config) throws ConfigException {
+		batchSize = config.getDBBatchSize();
+		commitSize = config.getDBCommitSize();
 		initDBConnection(config);
 	}
 	
@@ -42,15 +123,30 @@ public class CouplingDB {
 	private void initDBConnection(Config config) throws ConfigException {
 
 	    StringBuilder connectionString = new StringBuilder();
-	    connectionString.append("jdbc:mysql://");
-	    connectionString.append(config.getDBServer());
-	    connectionString.append(':');
-	    connectionString.append(config.getDBPort());
-	    connectionString.append('/');
-	    connectionString.append(config.getDBName());
+	    if (config.getDBDialect().equals(H2_DIALECT)) {
+	    	connectionString.append("jdbc:h2:");
+	    	connectionString.append(config.getDBName());
+	    } else {
+		    connectionString.append("jdbc:mysql://");
+		    connectionString.append(config.getDBServer());
+		    connectionString.append(':');
+		    connectionString.append(config.getDBPort());
+		    connectionString.append('/');
+		    connectionString.append(config.getDBName());
+		    
+		    // Send each batch as a single multi-row INSERT instead of one statement per file
+		    connectionString.append("?rewriteBatchedStatements=true");
+	    }
 	    
 	    try {
 	    	dbConnection = DriverManager.getConnection(connectionString.toString(), config.getDBUser(), config.getDBPassword());
+	    	
+	    	if (config.getDBDialect().equals(H2_DIALECT)) {
+	    		Statement stmt = dbConnection.createStatement();
+	    		stmt.execute(CREATE_TABLE_STATEMENT);
+	    		stmt.close();
+	    	}
+	    	
 	    	dbConnection.setAutoCommit(false);
 	    } catch (SQLException e) {
 	    	throw new ConfigException("Could not connect to database", e);
@@ -70,27 +166,168 @@ public class CouplingDB {
 	}
 
 	/**
-	 * Shut down the database connection
+	 * Write any files waiting in the current batch and commit the transaction
+	 * @throws SQLException If the batch cannot be written, or the transaction cannot be committed
+	 */
+	public void commit() throws SQLException {
+		executeBatch();
+		dbConnection.commit();
+		uncommittedCount = 0;
+	}
+	
+	/**
+	 * Write any files waiting in the current batch, commit, and shut down the database connection
 	 * @throws SQLException
 	 */
 	public void close() throws SQLException {
-		dbConnection.commit();
-		dbConnection.close();
+		try {
+			commit();
+		} finally {
+			if (null != addFileStatement) {
+				addFileStatement.close();
+			}
+			dbConnection.close();
+		}
 	}
 	
-	public void addFile(String filename) throws SQLException {
+	/**
+	 * Add a file to the current batch
+	 * @param filename The filename
+	 * @throws SQLException If the file cannot be added to the batch
+	 */
+	private void addToBatch(String filename) throws SQLException {
 		
 		String localCdiId = extractLocalCdiId(filename);
 		String format = extractFormat(filename);
 		int modus = 3;
 		
-		PreparedStatement stmt = dbConnection.prepareStatement(ADD_FILE_STATEMENT);
-		stmt.setString(1, localCdiId);
-		stmt.setInt(2, modus);
-		stmt.setString(3, format);
-		stmt.setString(4, filename);
-		stmt.execute();
-		stmt.close();
+		if (null == addFileStatement) {
+			addFileStatement = dbConnection.prepareStatement(ADD_FILE_STATEMENT);
+		}
+		
+		addFileStatement.setString(1, localCdiId);
+		addFileStatement.setInt(2, modus);
+		addFileStatement.setString(3, format);
+		addFileStatement.setString(4, filename);
+		addFileStatement.addBatch();
+		batchCount++;
+	}
+	
+	/**
+	 * Add a file to the coupling table. The file is added to the current batch,
+	 * which is written to the database once it is full. The transaction is
+	 * committed once enough files have been written since the last commit.
+	 * @param filename The filename
+	 * @throws SQLException If the batch cannot be written
+	 */
+	public void addFile(String filename) throws SQLException {
+		addToBatch(filename);
+		
+		if (batchCount >= batchSize) {
+			executeBatch();
+			
+			if (uncommittedCount >= commitSize) {
+				dbConnection.commit();
+				uncommittedCount = 0;
+			}
+		}
+	}
+	
+	/**
+	 * Bring the coupling table up to date with a set of files. Files that aren't
+	 * in the table are added, and files in the table that aren't in the set are
+	 * removed. Files that are in both are left alone. All the changes are made
+	 * in a single transaction.
+	 * @param filenames The files that should be in the table
+	 * @return The number of files added and removed, in that order
+	 * @throws SQLException If the table cannot be updated. None of the changes are made.
+	 */
+	public int[] syncFiles(Set<String> filenames) throws SQLException {
+		int added = 0;
+		int removed = 0;
+		
+		PreparedStatement removeStatement = null;
+		
+		try {
+			Set<String> existingFiles = getFiles();
+			
+			removeStatement = dbConnection.prepareStatement(REMOVE_FILE_STATEMENT);
+			int removeCount = 0;
+			for (String filename : existingFiles) {
+				if (!filenames.contains(filename)) {
+					removeStatement.setString(1, filename);
+					removeStatement.addBatch();
+					removeCount++;
+					removed++;
+					
+					if (removeCount >= batchSize) {
+						removeStatement.executeBatch();
+						removeCount = 0;
+					}
+				}
+			}
+			
+			if (removeCount > 0) {
+				removeStatement.executeBatch();
+			}
+			
+			for (String filename : filenames) {
+				if (!existingFiles.contains(filename)) {
+					addToBatch(filename);
+					added++;
+					
+					if (batchCount >= batchSize) {
+						executeBatch();
+					}
+				}
+			}
+			
+			commit();
+		} catch (SQLException e) {
+			dbConnection.rollback();
+			batchCount = 0;
+			uncommittedCount = 0;
+			throw e;
+		} finally {
+			if (null != removeStatement) {
+				removeStatement.close();
+			}
+		}
+		
+		return new int[] {added, removed};
+	}
+	
+	/**
+	 * Get the files that are in the coupling table
+	 * @return The filenames
+	 * @throws SQLException If the table cannot be read
+	 */
+	private Set<String> getFiles() throws SQLException {
+		Set<String> result = new HashSet<String>();
+		
+		Statement stmt = dbConnection.createStatement();
+		try {
+			ResultSet records = stmt.executeQuery(GET_FILES_QUERY);
+			while (records.next()) {
+				result.add(records.getString(1));
+			}
+		} finally {
+			stmt.close();
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Write the files in the current batch to the database
+	 * @throws SQLException If the batch cannot be written
+	 */
+	private void executeBatch() throws SQLException {
+		if (batchCount > 0) {
+			addFileStatement.executeBatch();
+			uncommittedCount += batchCount;
+			batchCount = 0;
+		}
 	}
 
 	/**
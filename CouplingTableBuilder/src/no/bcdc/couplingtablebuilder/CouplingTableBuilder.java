@@ -3,6 +3,12 @@ package no.bcdc.couplingtablebuilder;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.TreeSet;
 
 public class CouplingTableBuilder {
 
@@ -16,25 +22,35 @@ public class CouplingTableBuilder {
 	 */
 	private static CouplingDB db = null;
 	
+	/**
+	 * Command line option to update the coupling table instead of rebuilding it
+	 */
+	private static final String SYNC_OPTION = "-sync";
+	
 	/**
 	 * Main method
-	 * @param args Command line arguments
+	 * @param args Command line arguments. One argument required: the name of the configuration file.
+	 *             If {@code -sync} is given, the coupling table is brought up to date with the
+	 *             files directory instead of being emptied and rebuilt.
 	 */
 	public static void main(String[] args) {
 		
 		try {
 			
 			String configFile = null;
+			boolean sync = false;
 			
 			// Check the command line arguments
 			for (String arg : args) {
-				if (!arg.startsWith("-D")) {
+				if (arg.equals(SYNC_OPTION)) {
+					sync = true;
+				} else if (!arg.startsWith("-D")) {
 					configFile = arg;
 				}
 			}
 			
 			if (null == configFile) {
-				System.out.println("Usage: java -jar CouplingTableBuilder.jar [JVM options] <config file>");
+				System.out.println("Usage: java -jar CouplingTableBuilder.jar [JVM options] [" + SYNC_OPTION + "] <config file>");
 				System.exit(0);
 			}
 			
@@ -45,7 +61,11 @@ public class CouplingTableBuilder {
 			
 			db = new CouplingDB(configuration);
 			
-			start();
+			if (sync) {
+				sync();
+			} else {
+				start();
+			}
 			
 			db.close();
 			
@@ -107,6 +127,12 @@ public class CouplingTableBuilder {
 	 */
 	private static void start() throws Exception {
 		
+		// The table will be incomplete until we've finished, so the old snapshot no longer applies
+		File snapshotFile = configuration.getSnapshotFile();
+		if (null != snapshotFile) {
+			Files.deleteIfExists(snapshotFile.toPath());
+		}
+		
 		// Empty the coupling table
 		db.emptyCouplingTable();
 		
@@ -118,6 +144,79 @@ public class CouplingTableBuilder {
 		for (File dataFile : fileList) {
 			db.addFile(dataFile.getName());
 		}
+		
+		// Make sure the files are in the table before the snapshot says so
+		db.commit();
+		saveSnapshot(getFilenames(fileList));
+	}
+	
+	/**
+	 * Bring the coupling table up to date with the files directory, adding new files
+	 * and removing files that have gone, in a single transaction.
+	 * 
+	 * If a snapshot file is configured and the directory holds exactly the same files
+	 * as it did at the end of the last run, the table isn't touched at all. The snapshot
+	 * is only valid if nothing else changes the coupling table.
+	 * 
+	 * @throws Exception If something nasty happens
+	 */
+	private static void sync() throws Exception {
+		
+		DataFileFilter filter = new DataFileFilter(configuration);
+		Set<String> filenames = getFilenames(configuration.getFilesDir().listFiles(filter));
+		
+		if (filenames.equals(loadSnapshot())) {
+			System.out.println("No files have changed since the last run");
+		} else {
+			int[] changes = db.syncFiles(filenames);
+			System.out.println("Added " + changes[0] + " files, removed " + changes[1] + " files");
+			saveSnapshot(filenames);
+		}
+	}
+	
+	/**
+	 * Get the names of a list of files
+	 * @param fileList The files
+	 * @return The filenames
+	 */
+	private static Set<String> getFilenames(File[] fileList) {
+		Set<String> result = new TreeSet<String>();
+		for (File dataFile : fileList) {
+			result.add(dataFile.getName());
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Read the files recorded in the snapshot file by the last run
+	 * @return The filenames, or {@code null} if there is no snapshot
+	 * @throws IOException If the snapshot file cannot be read
+	 */
+	private static Set<String> loadSnapshot() throws IOException {
+		Set<String> result = null;
+		
+		File snapshotFile = configuration.getSnapshotFile();
+		if (null != snapshotFile && snapshotFile.exists()) {
+			result = new TreeSet<String>(Files.readAllLines(snapshotFile.toPath(), StandardCharsets.UTF_8));
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Record the files that are now in the coupling table in the snapshot file, if there is one.
+	 * The snapshot is written to a temporary file first, so it is never left half written.
+	 * @param filenames The filenames
+	 * @throws IOException If the snapshot file cannot be written
+	 */
+	private static void saveSnapshot(Set<String> filenames) throws IOException {
+		File snapshotFile = configuration.getSnapshotFile();
+		if (null != snapshotFile) {
+			File tempFile = new File(snapshotFile.getPath() + ".tmp");
+			Files.write(tempFile.toPath(), new ArrayList<String>(filenames), StandardCharsets.UTF_8);
+			Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
 	}
 	
 	